@@ -72,8 +72,58 @@ typedef struct
 	time_t		arrivalTime;	/*	As from time(2).	*/
 	int		visited;	/*	Boolean.		*/
 	int		suppressed;	/*	Boolean.		*/
+	int		heapIndex;	/*	0 if not in the heap.	*/
+	int		touched;	/*	Boolean.		*/
+	int		mark;		/*	See repairSearch().	*/
+
+	/*	In the note of the first contact from a node: the
+	 *	contact that led the search to that node.		*/
+
+	IonCXref	*expandedBy;
+	int		expandedIn;	/*	Search generation.	*/
 } CgrContactNote;	/*	IonCXref routingObject is one of these.	*/
 
+/*	Priority queue of the contacts reached but not yet visited
+ *	by a Dijkstra search, ordered by arrival time and then by
+ *	position in the contact index.					*/
+
+typedef struct
+{
+	IonCXref	*contact;
+	CgrContactNote	*work;
+} CgrHeapEntry;
+
+typedef struct
+{
+	PsmPartition	ionwm;
+	CgrHeapEntry	*entries;	/*	1-based binary heap.	*/
+	int		length;
+} CgrContactHeap;
+
+/*	State of the Dijkstra searches for the routes to one
+ *	terminus node, kept from one search to the next so that
+ *	the search tree can be repaired instead of rebuilt.	*/
+
+typedef struct
+{
+	PsmPartition	ionwm;
+	IonCXref	*rootContact;
+	CgrContactNote	*rootWork;
+	IonNode		*terminusNode;
+	int		payloadClass;
+	uvast		capacityFloor;
+	CgrContactHeap	heap;
+	IonCXref	**touched;	/*	Contacts with a label.	*/
+	int		touchedCount;
+	IonCXref	**byToNode;	/*	Built on first repair.	*/
+	int		contactCount;
+	time_t		earliestFinalArrivalTime;
+	IonCXref	*finalContact;
+	int		exact;		/*	No hop without latency.	*/
+	int		repairable;	/*	See repairSearch().	*/
+	int		generation;	/*	Searches from scratch.	*/
+} CgrSearch;
+
 /*		Data structure for the CGR volatile database.		*/
 
 typedef struct
@@ -195,62 +245,379 @@ static void	clearRoutingObjects(PsmPartition ionwm)
 
 static CgrVdb	*_cgrvdb(char **name)
 {
-	static CgrVdb	*vdb = NULL;
+	CgrVdb		*vdb = NULL;
+	char		*vdbName = "cgrvdb";
 	PsmPartition	ionwm;
 	PsmAddress	vdbAddress;
 	PsmAddress	elt;
 	Sdr		sdr;
 
+	/*	Every node has its own volatile database, in its own
+	 *	partition: it is looked up each time instead of being
+	 *	kept in a static pointer shared by all nodes and threads.	*/
+
+	if (name && *name == NULL)	/*	Terminating.		*/
+	{
+		return NULL;
+	}
+
 	if (name)
 	{
-		if (*name == NULL)	/*	Terminating.		*/
+		vdbName = *name;
+	}
+
+	/*	Attaching to volatile database.			*/
+
+	ionwm = getIonwm();
+	if (psm_locate(ionwm, vdbName, &vdbAddress, &elt) < 0)
+	{
+		putErrmsg("Failed searching for vdb.", vdbName);
+		return NULL;
+	}
+
+	if (elt)
+	{
+		vdb = (CgrVdb *) psp(ionwm, vdbAddress);
+		return vdb;
+	}
+
+	if (name == NULL)
+	{
+		return NULL;	/*	cgr_start() not invoked yet.	*/
+	}
+
+	/*	CGR volatile database doesn't exist yet.	*/
+
+	sdr = getIonsdr();
+	CHKNULL(sdr_begin_xn(sdr));	/*	To lock memory.	*/
+	vdbAddress = psm_zalloc(ionwm, sizeof(CgrVdb));
+	if (vdbAddress == 0)
+	{
+		sdr_exit_xn(sdr);
+		putErrmsg("No space for volatile database.", vdbName);
+		return NULL;
+	}
+
+	vdb = (CgrVdb *) psp(ionwm, vdbAddress);
+	memset((char *) vdb, 0, sizeof(CgrVdb));
+	if ((vdb->routeLists = sm_list_create(ionwm)) == 0
+	|| psm_catlg(ionwm, vdbName, vdbAddress) < 0)
+	{
+		sdr_exit_xn(sdr);
+		putErrmsg("Can't initialize volatile database.", vdbName);
+		return NULL;
+	}
+
+	clearRoutingObjects(ionwm);
+	sdr_exit_xn(sdr);
+	return vdb;
+}
+
+/*		Functions for the Dijkstra priority queue.		*/
+
+static int	heapPrecedes(CgrContactHeap *heap, CgrHeapEntry *a,
+			CgrHeapEntry *b)
+{
+	if (a->work->arrivalTime != b->work->arrivalTime)
+	{
+		return a->work->arrivalTime < b->work->arrivalTime;
+	}
+
+	/*	Same arrival time: the contact that comes first in
+	 *	the contact index wins, as in a scan of the index.	*/
+
+	return rfx_order_contacts(heap->ionwm, psa(heap->ionwm, a->contact),
+			b->contact) < 0;
+}
+
+static void	heapSet(CgrContactHeap *heap, int index, CgrHeapEntry *entry)
+{
+	heap->entries[index] = *entry;
+	entry->work->heapIndex = index;
+}
+
+static void	heapMoveUp(CgrContactHeap *heap, int index)
+{
+	CgrHeapEntry	entry = heap->entries[index];
+	int		parent;
+
+	while (index > 1)
+	{
+		parent = index >> 1;
+		if (!heapPrecedes(heap, &entry, &(heap->entries[parent])))
 		{
-			vdb = NULL;
-			return vdb;
+			break;
 		}
 
-		/*	Attaching to volatile database.			*/
+		heapSet(heap, index, &(heap->entries[parent]));
+		index = parent;
+	}
+
+	heapSet(heap, index, &entry);
+}
+
+static void	heapMoveDown(CgrContactHeap *heap, int index)
+{
+	CgrHeapEntry	entry = heap->entries[index];
+	int		child;
 
-		ionwm = getIonwm();
-		if (psm_locate(ionwm, *name, &vdbAddress, &elt) < 0)
+	while ((child = index << 1) <= heap->length)
+	{
+		if (child < heap->length && heapPrecedes(heap,
+				&(heap->entries[child + 1]),
+				&(heap->entries[child])))
 		{
-			putErrmsg("Failed searching for vdb.", *name);
-			return NULL;
+			child++;
 		}
 
-		if (elt)
+		if (!heapPrecedes(heap, &(heap->entries[child]), &entry))
 		{
-			vdb = (CgrVdb *) psp(ionwm, vdbAddress);
-			return vdb;
+			break;
 		}
 
-		/*	CGR volatile database doesn't exist yet.	*/
+		heapSet(heap, index, &(heap->entries[child]));
+		index = child;
+	}
+
+	heapSet(heap, index, &entry);
+}
+
+/*	Inserts the contact or, if already there, moves it up after
+ *	its arrival time has been lowered (decrease-key).		*/
+
+static void	heapUpdate(CgrContactHeap *heap, IonCXref *contact,
+			CgrContactNote *work)
+{
+	if (work->heapIndex == 0)
+	{
+		heap->length++;
+		heap->entries[heap->length].contact = contact;
+		heap->entries[heap->length].work = work;
+		work->heapIndex = heap->length;
+	}
+
+	heapMoveUp(heap, work->heapIndex);
+}
+
+static IonCXref	*heapPop(CgrContactHeap *heap)
+{
+	IonCXref	*contact;
+
+	if (heap->length == 0)
+	{
+		return NULL;
+	}
+
+	contact = heap->entries[1].contact;
+	heap->entries[1].work->heapIndex = 0;
+	heap->length--;
+	if (heap->length > 0)
+	{
+		heap->entries[1] = heap->entries[heap->length + 1];
+		heapMoveDown(heap, 1);
+	}
+
+	return contact;
+}
+
+/*		Functions for the Dijkstra search state.		*/
+
+static void	closeSearch(CgrSearch *search)
+{
+	if (search->heap.entries)
+	{
+		MRELEASE(search->heap.entries);
+		search->heap.entries = NULL;
+	}
+
+	if (search->touched)
+	{
+		MRELEASE(search->touched);
+		search->touched = NULL;
+	}
+
+	if (search->byToNode)
+	{
+		MRELEASE(search->byToNode);
+		search->byToNode = NULL;
+	}
+}
+
+static int	openSearch(CgrSearch *search, IonCXref *rootContact,
+			CgrContactNote *rootWork, IonNode *terminusNode)
+{
+	PsmPartition	ionwm = getIonwm();
+	IonVdb		*ionvdb = getIonVdb();
+	long		contacts = sm_rbt_length(ionwm, ionvdb->contactIndex);
+
+	memset((char *) search, 0, sizeof(CgrSearch));
+	search->ionwm = ionwm;
+	search->rootContact = rootContact;
+	search->rootWork = rootWork;
+	search->terminusNode = terminusNode;
+	search->contactCount = contacts;
+	search->heap.ionwm = ionwm;
+	search->heap.entries = (CgrHeapEntry *)
+			MTAKE(sizeof(CgrHeapEntry) * (contacts + 1));
+	search->touched = (IonCXref **)
+			MTAKE(sizeof(IonCXref *) * (contacts + 1));
+	if (search->heap.entries == NULL || search->touched == NULL)
+	{
+		closeSearch(search);
+		putErrmsg("No space for Dijkstra search.", NULL);
+		return -1;
+	}
+
+	search->earliestFinalArrivalTime = MAX_TIME;
+	search->exact = 1;
+	return 0;
+}
+
+static void	setSearchClass(CgrSearch *search, int payloadClass)
+{
+	search->payloadClass = payloadClass;
+	search->capacityFloor = _minCapacity(payloadClass);
+}
+
+/*	Clears the work areas written by the last search: those of
+ *	the contacts it didn't reach are clear already.		*/
+
+static void	resetSearch(CgrSearch *search)
+{
+	PsmPartition	ionwm = search->ionwm;
+	int		i;
+	CgrContactNote	*work;
+
+	for (i = 0; i < search->touchedCount; i++)
+	{
+		work = (CgrContactNote *) psp(ionwm,
+				search->touched[i]->routingObject);
+		work->arrivalTime = MAX_TIME;
+		work->predecessor = NULL;
+		work->visited = 0;
+		work->heapIndex = 0;
+		work->touched = 0;
+	}
+
+	search->touchedCount = 0;
+	search->heap.length = 0;
+	search->earliestFinalArrivalTime = MAX_TIME;
+	search->finalContact = NULL;
+	search->exact = 1;
+	search->repairable = 0;
+	search->generation++;
+}
+
+static int	orderByToNode(const void *a, const void *b)
+{
+	IonCXref	*c1 = *((IonCXref **) a);
+	IonCXref	*c2 = *((IonCXref **) b);
+
+	if (c1->toNode != c2->toNode)
+	{
+		return c1->toNode < c2->toNode ? -1 : 1;
+	}
+
+	/*	Then same order as in the contact index.		*/
+
+	if (c1->fromNode != c2->fromNode)
+	{
+		return c1->fromNode < c2->fromNode ? -1 : 1;
+	}
+
+	if (c1->fromTime != c2->fromTime)
+	{
+		return c1->fromTime < c2->fromTime ? -1 : 1;
+	}
+
+	return 0;
+}
+
+/*	Builds the index of the contacts by receiving node, used
+ *	to find the contacts that lead to a given contact.	*/
+
+static int	loadInNeighbors(CgrSearch *search)
+{
+	PsmPartition	ionwm = search->ionwm;
+	IonVdb		*ionvdb = getIonVdb();
+	PsmAddress	elt;
+	int		count = 0;
+
+	search->byToNode = (IonCXref **)
+			MTAKE(sizeof(IonCXref *) * (search->contactCount + 1));
+	if (search->byToNode == NULL)
+	{
+		putErrmsg("No space for contacts index.", NULL);
+		return -1;
+	}
+
+	for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex);
+			elt && count < search->contactCount;
+			elt = sm_rbt_next(ionwm, elt))
+	{
+		search->byToNode[count++] = (IonCXref *) psp(ionwm,
+				sm_rbt_data(ionwm, elt));
+	}
+
+	search->contactCount = count;
+	qsort(search->byToNode, count, sizeof(IonCXref *), orderByToNode);
+	return 0;
+}
+
+/*	Returns the position of the first contact to nodeNbr in
+ *	byToNode, contactCount if there is none.		*/
+
+static int	firstContactTo(CgrSearch *search, uvast nodeNbr)
+{
+	int	low = 0;
+	int	high = search->contactCount;
+	int	mid;
 
-		sdr = getIonsdr();
-		CHKNULL(sdr_begin_xn(sdr));	/*	To lock memory.	*/
-		vdbAddress = psm_zalloc(ionwm, sizeof(CgrVdb));
-		if (vdbAddress == 0)
+	while (low < high)
+	{
+		mid = (low + high) >> 1;
+		if (search->byToNode[mid]->toNode < nodeNbr)
 		{
-			sdr_exit_xn(sdr);
-			putErrmsg("No space for volatile database.", *name);
-			return NULL;
+			low = mid + 1;
 		}
-
-		vdb = (CgrVdb *) psp(ionwm, vdbAddress);
-		memset((char *) vdb, 0, sizeof(CgrVdb));
-		if ((vdb->routeLists = sm_list_create(ionwm)) == 0
-		|| psm_catlg(ionwm, *name, vdbAddress) < 0)
+		else
 		{
-			sdr_exit_xn(sdr);
-			putErrmsg("Can't initialize volatile database.", *name);
-			return NULL;
+			high = mid;
 		}
+	}
 
-		clearRoutingObjects(ionwm);
-		sdr_exit_xn(sdr);
+	return low;
+}
+
+/*	Tells whether contact a is visited before contact b by a
+ *	search in which every hop adds some latency: by arrival
+ *	time, then by position in the contact index.  The root is
+ *	visited first.						*/
+
+static int	visitedBefore(CgrSearch *search, IonCXref *a, IonCXref *b)
+{
+	PsmPartition	ionwm = search->ionwm;
+	CgrContactNote	*aWork;
+	CgrContactNote	*bWork;
+
+	if (a == b || b == search->rootContact)
+	{
+		return 0;
 	}
 
-	return vdb;
+	if (a == search->rootContact)
+	{
+		return 1;
+	}
+
+	aWork = (CgrContactNote *) psp(ionwm, a->routingObject);
+	bWork = (CgrContactNote *) psp(ionwm, b->routingObject);
+	if (aWork->arrivalTime != bWork->arrivalTime)
+	{
+		return aWork->arrivalTime < bWork->arrivalTime;
+	}
+
+	return rfx_order_contacts(ionwm, psa(ionwm, a), b) < 0;
 }
 
 /*		Functions for populating the routing table.		*/
@@ -287,292 +654,609 @@ static int	getApplicableRange(IonCXref *contact, unsigned int *owlt)
 			break;
 		}
 
-		/*	Found applicable range.				*/
-
-		*owlt = range->owlt;
-		return 0;
+		/*	Found applicable range.				*/
+
+		*owlt = range->owlt;
+		return 0;
+	}
+
+	/*	No applicable range.					*/
+
+	*owlt = 0;
+	return -1;
+}
+
+/*	Considers contact as next hop after current: if it is
+ *	reached earlier than through any contact considered so
+ *	far, current becomes its predecessor.			*/
+
+static int	considerContact(CgrSearch *search, IonCXref *current,
+			CgrContactNote *currentWork, IonCXref *contact,
+			CgrTrace *trace)
+{
+	PsmPartition	ionwm = search->ionwm;
+	CgrContactNote	*work;
+	unsigned int	owlt;
+	unsigned int	owltMargin;
+	time_t		transmitTime;
+	time_t		arrivalTime;
+
+	TRACE(CgrConsiderContact, contact->fromNode, contact->toNode);
+	if (contact->toTime <= currentWork->arrivalTime)
+	{
+		TRACE(CgrIgnoreContact, CgrContactEndsEarly);
+
+		/*	Can't be a next-hop contact: transmission
+		 *	has stopped by the time of arrival of data
+		 *	during the current contact.			*/
+
+		return 0;
+	}
+
+	work = (CgrContactNote *) psp(ionwm, contact->routingObject);
+	CHKERR(work);
+	if (work->suppressed)
+	{
+		TRACE(CgrIgnoreContact, CgrSuppressed);
+		return 0;
+	}
+
+	if (work->visited)
+	{
+		TRACE(CgrIgnoreContact, CgrVisited);
+		return 0;
+	}
+
+	/*	Exclude contact if its capacity is less than the
+	 *	floor for this payload class.				*/
+
+	if (work->capacity == 0)
+	{
+		work->capacity = contact->xmitRate *
+			(contact->toTime - contact->fromTime);
+	}
+
+	if (work->capacity < search->capacityFloor)
+	{
+		TRACE(CgrIgnoreContact, CgrCapacityTooSmall);
+		return 0;
+	}
+
+	/*	Get OWLT between the nodes in contact, from
+	 *	applicable range in range index.			*/
+
+	if (getApplicableRange(contact, &owlt) < 0)
+	{
+		TRACE(CgrIgnoreContact, CgrNoRange);
+
+		/*	Don't know the OWLT between these BP nodes
+		 *	at this time, so can't consider in CGR.		*/
+
+		return 0;
+	}
+
+	/*	Allow for possible additional latency due to the
+	 *	movement of the receiving node during the
+	 *	propagation of signal from the sending node.		*/
+
+	owltMargin = ((MAX_SPEED_MPH / 3600) * owlt) / 186282;
+	owlt += owltMargin;
+	if (owlt == 0)
+	{
+		/*	Arrival times no longer determine the order
+		 *	of the visits, see repairSearch().		*/
+
+		search->exact = 0;
+	}
+
+	/*	Compute cost of choosing this edge: earliest
+	 *	bundle arrival time.					*/
+
+	if (contact->fromTime < currentWork->arrivalTime)
+	{
+		transmitTime = currentWork->arrivalTime;
+	}
+	else
+	{
+		transmitTime = contact->fromTime;
+	}
+
+	arrivalTime = transmitTime + owlt;
+
+	/*	Note that this arrival time is best case.  It is
+	 *	based on the earliest possible transmit time, which
+	 *	would be applicable to a bundle transmitted on this
+	 *	route immediately; any delay in transmission due to
+	 *	queueing behind other bundles would result in a
+	 *	later transmit time and therefore a later arrival
+	 *	time.							*/
+
+	TRACE(CgrCost, (unsigned int)(transmitTime), owlt,
+			(unsigned int)(arrivalTime));
+
+	/*	On a tie the predecessor is the contact visited
+	 *	first, whatever the order of consideration.  In a
+	 *	search from the root that is always the current
+	 *	predecessor.						*/
+
+	if (arrivalTime < work->arrivalTime
+	|| (search->exact && arrivalTime == work->arrivalTime
+		&& work->predecessor
+		&& visitedBefore(search, current, work->predecessor)))
+	{
+		if (!work->touched)
+		{
+			work->touched = 1;
+			search->touched[search->touchedCount++] = contact;
+		}
+
+		work->arrivalTime = arrivalTime;
+		work->predecessor = current;
+		heapUpdate(&(search->heap), contact, work);
+
+		/*	Note contact if could be final.			*/
+
+		if (contact->toNode == search->terminusNode->nodeNbr)
+		{
+			if (work->arrivalTime < search->earliestFinalArrivalTime)
+			{
+				search->earliestFinalArrivalTime
+						= work->arrivalTime;
+				search->finalContact = contact;
+			}
+		}
+	}
+
+	return 0;
+}
+
+/*	Tells whether the next-hop contacts from the node reached
+ *	by current (the first one is at elt) need no consideration,
+ *	because a contact visited before reached the same node: as
+ *	it arrived no later, current can't improve any arrival time.
+ *	Otherwise current is noted as the contact that led to the
+ *	node.							*/
+
+static int	reachedBefore(CgrSearch *search, IonCXref *current,
+			PsmAddress elt)
+{
+	PsmPartition	ionwm = search->ionwm;
+	IonCXref	*first;
+	CgrContactNote	*firstWork;
+	IonCXref	*earlier;
+	CgrContactNote	*earlierWork;
+
+	first = (IonCXref *) psp(ionwm, sm_rbt_data(ionwm, elt));
+	if (first->fromNode != current->toNode)
+	{
+		return 0;	/*	No contacts from the node.	*/
+	}
+
+	firstWork = (CgrContactNote *) psp(ionwm, first->routingObject);
+	earlier = firstWork->expandedBy;
+	if (firstWork->expandedIn == search->generation && earlier
+	&& earlier != current)
+	{
+		if (earlier == search->rootContact)
+		{
+			earlierWork = search->rootWork;
+		}
+		else
+		{
+			earlierWork = (CgrContactNote *) psp(ionwm,
+					earlier->routingObject);
+		}
+
+		/*	In a repaired search the earlier contact may
+		 *	have lost its label, or got a later one.	*/
+
+		if (earlierWork->visited && (!search->exact
+		|| visitedBefore(search, earlier, current)))
+		{
+			return 1;
+		}
+	}
+
+	firstWork->expandedBy = current;
+	firstWork->expandedIn = search->generation;
+	return 0;
+}
+
+/*	This is an implementation of Dijkstra's Algorithm.  The
+ *	search starts by visiting current, or by selecting the next
+ *	contact to visit if current is NULL.  Contacts reached by
+ *	the search wait in a binary heap, so selecting the next one
+ *	doesn't require a scan of the whole contact index.	*/
+
+static int	visitContacts(CgrSearch *search, IonCXref *current,
+			CgrContactNote *currentWork, CgrTrace *trace)
+{
+	PsmPartition	ionwm = search->ionwm;
+	IonVdb		*ionvdb = getIonVdb();
+	IonCXref	arg;
+	PsmAddress	elt;
+	IonCXref	*contact;
+
+	memset((char *) &arg, 0, sizeof(IonCXref));
+	while (1)
+	{
+		if (current)
+		{
+			/*	Consider all unvisited neighbors
+			 *	(i.e., next-hop contacts) of the
+			 *	current contact.			*/
+
+			arg.fromNode = current->toNode;
+			TRACE(CgrConsiderRoot, current->fromNode,
+					current->toNode);
+			oK(sm_rbt_search(ionwm, ionvdb->contactIndex,
+					rfx_order_contacts, &arg, &elt));
+			if (elt && reachedBefore(search, current, elt))
+			{
+				elt = 0;
+			}
+
+			for (; elt; elt = sm_rbt_next(ionwm, elt))
+			{
+				contact = (IonCXref *) psp(ionwm,
+						sm_rbt_data(ionwm, elt));
+				if (contact->fromNode > arg.fromNode)
+				{
+					/*	No more relevant
+					 *	contacts.		*/
+
+					break;
+				}
+
+				if (considerContact(search, current,
+					currentWork, contact, trace) < 0)
+				{
+					return -1;
+				}
+			}
+
+			currentWork->visited = 1;
+		}
+
+		/*	Select next contact to consider, if any: the
+		 *	unvisited one with the earliest arrival time.
+		 *	Suppressed contacts are never reached, so they
+		 *	are not in the heap.				*/
+
+		if (search->heap.length == 0)
+		{
+			break;		/*	End of search.		*/
+		}
+
+		current = search->heap.entries[1].contact;
+		currentWork = search->heap.entries[1].work;
+		if (currentWork->arrivalTime > search->earliestFinalArrivalTime)
+		{
+			/*	Not on optimal path, nor is any other
+			 *	contact in the heap: end of search.	*/
+
+			break;
+		}
+
+		oK(heapPop(&(search->heap)));
 	}
 
-	/*	No applicable range.					*/
-
-	*owlt = 0;
-	return -1;
+	return 0;
 }
 
-static int	computeDistanceToTerminus(IonCXref *rootContact,
-			CgrContactNote *rootWork, IonNode *terminusNode,
-			int payloadClass, CgrRoute *route, CgrTrace *trace)
+static int	buildRoute(CgrSearch *search, IonCXref *finalContact,
+			CgrRoute *route, CgrTrace *trace)
 {
-	PsmPartition	ionwm = getIonwm();
-	IonVdb		*ionvdb = getIonVdb();
-	uvast		capacityFloor = _minCapacity(payloadClass);
-	IonCXref	*current;
-	CgrContactNote	*currentWork;
-	IonCXref	arg;
-	PsmAddress	elt;
+	PsmPartition	ionwm = search->ionwm;
 	IonCXref	*contact;
 	CgrContactNote	*work;
-	unsigned int	owlt;
-	unsigned int	owltMargin;
-	time_t		transmitTime;
-	time_t		arrivalTime;
-	IonCXref	*finalContact = NULL;
-	time_t		earliestFinalArrivalTime = MAX_TIME;
-	IonCXref	*nextContact;
-	time_t		earliestArrivalTime;
 	time_t		earliestEndTime;
 	uvast		maxCapacity;
 	PsmAddress	addr;
 
-	/*	This is an implementation of Dijkstra's Algorithm.	*/
+	route->arrivalTime = search->earliestFinalArrivalTime;
 
-	TRACE(CgrBeginRoute, payloadClass);
-	current = rootContact;
-	currentWork = rootWork;
-	memset((char *) &arg, 0, sizeof(IonCXref));
-	while (1)
+	/*	Load the entire route into the "hops" list,
+	 *	backtracking to root, and compute the time at which
+	 *	the route will become unusable.				*/
+
+	earliestEndTime = MAX_TIME;
+	maxCapacity = (uvast) -1;
+	for (contact = finalContact; contact != search->rootContact;
+			contact = work->predecessor)
 	{
-		/*	Consider all unvisited neighbors (i.e., next-
-		 *	hop contacts) of the current contact.		*/
+		if (contact->toTime < earliestEndTime)
+		{
+			earliestEndTime = contact->toTime;
+		}
 
-		arg.fromNode = current->toNode;
-		TRACE(CgrConsiderRoot, current->fromNode, current->toNode);
-		for (oK(sm_rbt_search(ionwm, ionvdb->contactIndex,
-				rfx_order_contacts, &arg, &elt));
-				elt; elt = sm_rbt_next(ionwm, elt))
+		work = (CgrContactNote *) psp(ionwm, contact->routingObject);
+		if (work->capacity < maxCapacity)
 		{
-			contact = (IonCXref *) psp(ionwm,
-					sm_rbt_data(ionwm, elt));
-			if (contact->fromNode > arg.fromNode)
-			{
-				/*	No more relevant contacts.	*/
+			maxCapacity = work->capacity;
+		}
 
-				break;
-			}
+		addr = psa(ionwm, contact);
+		TRACE(CgrHop, contact->fromNode, contact->toNode);
+		if (sm_list_insert_first(ionwm, route->hops, addr) == 0)
+		{
+			putErrmsg("Can't insert contact into route.", NULL);
+			return -1;
+		}
+	}
 
-			TRACE(CgrConsiderContact, contact->fromNode,
-					contact->toNode);
-			if (contact->toTime <= currentWork->arrivalTime)
-			{
-				TRACE(CgrIgnoreContact, CgrContactEndsEarly);
+	/*	Now use the first contact in the route to
+	 *	characterize the route.					*/
 
-				/*	Can't be a next-hop contact:
-				 *	transmission has stopped by
-				 *	the time of arrival of data
-				 *	during the current contact.	*/
+	addr = sm_list_data(ionwm, sm_list_first(ionwm, route->hops));
+	contact = (IonCXref *) psp(ionwm, addr);
+	route->toNodeNbr = contact->toNode;
+	route->fromTime = contact->fromTime;
+	route->toTime = earliestEndTime;
+	route->maxCapacity = maxCapacity;
+	route->payloadClass = search->payloadClass;
+	return 0;
+}
 
-				continue;
-			}
+static int	computeDistanceToTerminus(CgrSearch *search, CgrRoute *route,
+			CgrTrace *trace)
+{
+	resetSearch(search);
+	TRACE(CgrBeginRoute, search->payloadClass);
+	if (visitContacts(search, search->rootContact, search->rootWork,
+			trace) < 0)
+	{
+		return -1;
+	}
 
-			work = (CgrContactNote *) psp(ionwm,
-					contact->routingObject);
-			CHKERR(work);
-			if (work->suppressed)
-			{
-				TRACE(CgrIgnoreContact, CgrSuppressed);
-				continue;
-			}
+	/*	Have finished Dijkstra search of contact graph,
+	 *	excluding those contacts that were suppressed.		*/
 
-			if (work->visited)
-			{
-				TRACE(CgrIgnoreContact, CgrVisited);
-				continue;
-			}
+	search->repairable = search->exact;
+	if (search->finalContact)	/*	Found a route.	*/
+	{
+		return buildRoute(search, search->finalContact, route, trace);
+	}
 
-			/*	Exclude contact if its capacity is
-			 *	less than the floor for this payload
-			 *	class.					*/
+	return 0;
+}
 
-			if (work->capacity == 0)
-			{
-				work->capacity = contact->xmitRate *
-					(contact->toTime - contact->fromTime);
-			}
+#define	LABEL_VALID	1
+#define	LABEL_INVALID	2
+
+/*	Same result as computeDistanceToTerminus() once limitContact,
+ *	which is on the route found by the previous search, has been
+ *	suppressed; in the manner of Yen's k shortest paths the
+ *	previous search tree is reused.  Only the contacts whose
+ *	label depended on limitContact lose it: they are reached
+ *	again from the contacts still visited, then the search goes
+ *	on from where it stopped.  As every hop adds some latency,
+ *	contacts are visited in order of label and the route is
+ *	the same as that of a search from scratch.		*/
+
+static int	repairSearch(CgrSearch *search, IonCXref *limitContact,
+			CgrRoute *route, CgrTrace *trace)
+{
+	PsmPartition	ionwm = search->ionwm;
+	uvast		terminusNbr = search->terminusNode->nodeNbr;
+	int		touchedCount = search->touchedCount;
+	int		i;
+	int		j;
+	int		status;
+	IonCXref	*contact;
+	CgrContactNote	*work;
+	IonCXref	*x;
+	IonCXref	*from;
+	CgrContactNote	*fromWork;
+	IonCXref	*finalContact;
+	CgrContactNote	*finalWork;
 
-			if (work->capacity < capacityFloor)
-			{
-				TRACE(CgrIgnoreContact, CgrCapacityTooSmall);
-				continue;
-			}
+	if (!search->repairable)
+	{
+		return computeDistanceToTerminus(search, route, trace);
+	}
 
-			/*	Get OWLT between the nodes in contact,
-			 *	from applicable range in range index.	*/
+	if (search->byToNode == NULL && loadInNeighbors(search) < 0)
+	{
+		return -1;
+	}
 
-			if (getApplicableRange(contact, &owlt) < 0)
-			{
-				TRACE(CgrIgnoreContact, CgrNoRange);
+	TRACE(CgrBeginRoute, search->payloadClass);
 
-				/*	Don't know the OWLT between
-				 *	these BP nodes at this time,
-				 *	so can't consider in CGR.	*/
+	/*	Find the contacts whose predecessors lead back to
+	 *	limitContact (or to a contact not reached any more).	*/
 
-				continue;
+	for (i = 0; i < touchedCount; i++)
+	{
+		contact = search->touched[i];
+		x = contact;
+		status = 0;
+		while (status == 0)
+		{
+			if (x == search->rootContact)
+			{
+				status = LABEL_VALID;
+				break;
 			}
 
-			/*	Allow for possible additional latency
-			 *	due to the movement of the receiving
-			 *	node during the propagation of signal
-			 *	from the sending node.			*/
-
-			owltMargin = ((MAX_SPEED_MPH / 3600) * owlt) / 186282;
-			owlt += owltMargin;
-
-			/*	Compute cost of choosing this edge:
-			 *	earliest bundle arrival time.		*/
-
-			if (contact->fromTime < currentWork->arrivalTime)
+			work = (CgrContactNote *) psp(ionwm, x->routingObject);
+			if (work->mark)
 			{
-				transmitTime = currentWork->arrivalTime;
+				status = work->mark;
 			}
-			else
+			else if (x == limitContact || work->predecessor == NULL)
 			{
-				transmitTime = contact->fromTime;
+				status = LABEL_INVALID;
 			}
-
-			arrivalTime = transmitTime + owlt;
-
-			/*	Note that this arrival time is best
-			 *	case.  It is based on the earliest
-			 *	possible transmit time, which would
-			 *	be applicable to a bundle transmitted
-			 *	on this route immediately; any delay
-			 *	in transmission due to queueing behind
-			 *	other bundles would result in a later
-			 *	transmit time and therefore a later
-			 *	arrival time.				*/
-
-			TRACE(CgrCost, (unsigned int)(transmitTime), owlt,
-					(unsigned int)(arrivalTime));
-
-			if (arrivalTime < work->arrivalTime)
+			else
 			{
-				work->arrivalTime = arrivalTime;
-				work->predecessor = current;
-
-				/*	Note contact if could be final.	*/
-
-				if (contact->toNode == terminusNode->nodeNbr)
-				{
-					if (work->arrivalTime
-						< earliestFinalArrivalTime)
-					{
-						earliestFinalArrivalTime
-							= work->arrivalTime;
-						finalContact = contact;
-					}
-				}
+				x = work->predecessor;
 			}
 		}
 
-		currentWork->visited = 1;
-
-		/*	Select next contact to consider, if any.	*/
-
-		nextContact = NULL;
-		earliestArrivalTime = MAX_TIME;
-		for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex); elt;
-				elt = sm_rbt_next(ionwm, elt))
+		for (x = contact; x != search->rootContact;
+				x = work->predecessor)
 		{
-			contact = (IonCXref *) psp(ionwm, sm_rbt_data(ionwm,
-					elt));
-			CHKERR(contact);
-			work = (CgrContactNote *) psp(ionwm,
-					contact->routingObject);
-			CHKERR(work);
-			if (work->suppressed || work->visited)
-			{
-				continue;	/*	Ineligible.	*/
-			}
-
-			if (work->arrivalTime > earliestFinalArrivalTime)
+			work = (CgrContactNote *) psp(ionwm, x->routingObject);
+			if (work->mark)
 			{
-				/*	Not on optimal path; ignore.	*/
-
-				continue;
+				break;
 			}
 
-			if (work->arrivalTime < earliestArrivalTime)
+			work->mark = status;
+			if (x == limitContact || work->predecessor == NULL)
 			{
-				nextContact = contact;
-				earliestArrivalTime = work->arrivalTime;
+				break;
 			}
 		}
+	}
 
-		/*	If search is complete, stop.  Else repeat,
-		 *	with new value of "current".			*/
+	/*	Forget their labels and rebuild the heap.		*/
 
-		if (nextContact == NULL)
+	search->heap.length = 0;
+	for (i = 0; i < touchedCount; i++)
+	{
+		work = (CgrContactNote *) psp(ionwm,
+				search->touched[i]->routingObject);
+		work->heapIndex = 0;
+		if (work->mark == LABEL_INVALID)
 		{
-			/*	End of search.				*/
-
-			break;
+			work->arrivalTime = MAX_TIME;
+			work->predecessor = NULL;
+			work->visited = 0;
 		}
+	}
 
-		current = nextContact;
-		currentWork = (CgrContactNote *)
-				psp(ionwm, nextContact->routingObject);
+	for (i = 0; i < touchedCount; i++)
+	{
+		contact = search->touched[i];
+		work = (CgrContactNote *) psp(ionwm, contact->routingObject);
+		if (!work->visited && work->arrivalTime < MAX_TIME)
+		{
+			heapUpdate(&(search->heap), contact, work);
+		}
 	}
 
-	/*	Have finished Dijkstra search of contact graph,
-	 *	excluding those contacts that were suppressed.		*/
+	/*	Earliest arrival at terminus still known.		*/
 
-	if (finalContact)	/*	Found a route to terminus node.	*/
+	search->earliestFinalArrivalTime = MAX_TIME;
+	for (j = firstContactTo(search, terminusNbr); j < search->contactCount
+			&& search->byToNode[j]->toNode == terminusNbr; j++)
 	{
-		route->arrivalTime = earliestFinalArrivalTime;
+		work = (CgrContactNote *) psp(ionwm,
+				search->byToNode[j]->routingObject);
+		if (work->arrivalTime < search->earliestFinalArrivalTime)
+		{
+			search->earliestFinalArrivalTime = work->arrivalTime;
+		}
+	}
 
-		/*	Load the entire route into the "hops" list,
-		 *	backtracking to root, and compute the time
-		 *	at which the route will become unusable.	*/
+	/*	Reach again the contacts that lost their label, from
+	 *	the contacts still visited.				*/
 
-		earliestEndTime = MAX_TIME;
-		maxCapacity = (uvast) -1;
-		for (contact = finalContact; contact != rootContact;
-				contact = work->predecessor)
+	for (i = 0; i < touchedCount; i++)
+	{
+		contact = search->touched[i];
+		work = (CgrContactNote *) psp(ionwm, contact->routingObject);
+		if (work->mark != LABEL_INVALID || work->suppressed)
 		{
-			if (contact->toTime < earliestEndTime)
-			{
-				earliestEndTime = contact->toTime;
-			}
+			continue;
+		}
 
-			work = (CgrContactNote *) psp(ionwm,
-					contact->routingObject);
-			if (work->capacity < maxCapacity)
+		if (contact->fromNode == search->rootContact->toNode)
+		{
+			if (considerContact(search, search->rootContact,
+				search->rootWork, contact, NULL) < 0)
 			{
-				maxCapacity = work->capacity;
+				return -1;
 			}
+		}
 
-			addr = psa(ionwm, contact);
-			TRACE(CgrHop, contact->fromNode, contact->toNode);
-			if (sm_list_insert_first(ionwm, route->hops, addr) == 0)
+		for (j = firstContactTo(search, contact->fromNode);
+				j < search->contactCount
+				&& search->byToNode[j]->toNode
+				== contact->fromNode; j++)
+		{
+			from = search->byToNode[j];
+			fromWork = (CgrContactNote *) psp(ionwm,
+					from->routingObject);
+			if (fromWork->visited && fromWork->mark == LABEL_VALID)
 			{
-				putErrmsg("Can't insert contact into route.",
-						NULL);
-				return -1;
+				if (considerContact(search, from, fromWork,
+						contact, NULL) < 0)
+				{
+					return -1;
+				}
 			}
 		}
+	}
+
+	for (i = 0; i < touchedCount; i++)
+	{
+		work = (CgrContactNote *) psp(ionwm,
+				search->touched[i]->routingObject);
+		work->mark = 0;
+	}
+
+	if (visitContacts(search, NULL, NULL, trace) < 0)
+	{
+		return -1;
+	}
+
+	if (!search->exact)
+	{
+		/*	Met a hop without latency: labels alone
+		 *	don't determine the route any more.		*/
+
+		return computeDistanceToTerminus(search, route, trace);
+	}
+
+	/*	The final contact is the one a search from scratch
+	 *	would have reached first at the earliest arrival time:
+	 *	the one whose predecessor is visited first, then the
+	 *	first in the contact index.				*/
+
+	finalContact = NULL;
+	finalWork = NULL;
+	for (j = firstContactTo(search, terminusNbr); j < search->contactCount
+			&& search->byToNode[j]->toNode == terminusNbr; j++)
+	{
+		contact = search->byToNode[j];
+		work = (CgrContactNote *) psp(ionwm, contact->routingObject);
+		if (work->arrivalTime == MAX_TIME || work->predecessor == NULL
+		|| work->arrivalTime != search->earliestFinalArrivalTime)
+		{
+			continue;
+		}
 
-		/*	Now use the first contact in the route to
-		 *	characterize the route.				*/
+		if (finalContact == NULL || visitedBefore(search,
+				work->predecessor, finalWork->predecessor))
+		{
+			finalContact = contact;
+			finalWork = work;
+		}
+	}
 
-		addr = sm_list_data(ionwm, sm_list_first(ionwm, route->hops));
-		contact = (IonCXref *) psp(ionwm, addr);
-		route->toNodeNbr = contact->toNode;
-		route->fromTime = contact->fromTime;
-		route->toTime = earliestEndTime;
-		route->maxCapacity = maxCapacity;
-		route->payloadClass = payloadClass;
+	search->finalContact = finalContact;
+	if (finalContact)
+	{
+		return buildRoute(search, finalContact, route, trace);
 	}
 
 	return 0;
 }
 
-static int	findNextBestRoute(PsmPartition ionwm, IonCXref *rootContact,
-			CgrContactNote *rootWork, IonNode *terminusNode,
-			int payloadClass, PsmAddress *routeAddr,
-			CgrTrace *trace)
+/*	Finds the best route given the suppressed contacts.  If
+ *	limitContact is not NULL, the only change since the previous
+ *	search is its suppression.				*/
+
+static int	findNextBestRoute(CgrSearch *search, IonCXref *limitContact,
+			PsmAddress *routeAddr, CgrTrace *trace)
 {
+	PsmPartition	ionwm = search->ionwm;
 	PsmAddress	addr;
 	CgrRoute	*route;
+	int		result;
 
 	*routeAddr = 0;		/*	Default.			*/
 	addr = psm_zalloc(ionwm, sizeof(CgrRoute));
@@ -594,8 +1278,16 @@ static int	findNextBestRoute(PsmPartition ionwm, IonCXref *rootContact,
 
 	/*	Run Dijkstra search.					*/
 
-	if (computeDistanceToTerminus(rootContact, rootWork, terminusNode,
-			payloadClass, route, trace) < 0)
+	if (limitContact)
+	{
+		result = repairSearch(search, limitContact, route, trace);
+	}
+	else
+	{
+		result = computeDistanceToTerminus(search, route, trace);
+	}
+
+	if (result < 0)
 	{
 		putErrmsg("Can't finish Dijstra search.", NULL);
 		return -1;
@@ -626,7 +1318,8 @@ static int	findNextBestRoute(PsmPartition ionwm, IonCXref *rootContact,
 	return 0;
 }
 
-static void	endAnchoredSearch(PsmAddress routeAddr, CgrRoute *route)
+static void	endAnchoredSearch(CgrSearch *search, PsmAddress routeAddr,
+			CgrRoute *route)
 {
 	PsmPartition	ionwm = getIonwm();
 	IonVdb		*ionvdb = getIonVdb();
@@ -640,7 +1333,7 @@ static void	endAnchoredSearch(PsmAddress routeAddr, CgrRoute *route)
 	 *	routes were only temporarily suppressed to enable the
 	 *	discovery of more routes through the anchor contact,
 	 *	so un-suppress them while clearing all work areas for
-	 *	next search.						*/
+	 *	next search, which can't reuse this search tree.	*/
 
 	for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex); elt;
 			elt = sm_rbt_next(ionwm, elt))
@@ -654,12 +1347,10 @@ static void	endAnchoredSearch(PsmAddress routeAddr, CgrRoute *route)
 
 			work->suppressed = 0;
 		}
-
-		work->arrivalTime = MAX_TIME;
-		work->predecessor = NULL;
-		work->visited = 0;
 	}
 
+	resetSearch(search);
+
 	/*	Also, ditch this route because it may not be optimal
 	 *	per downstream contact suppression.			*/
 
@@ -667,6 +1358,104 @@ static void	endAnchoredSearch(PsmAddress routeAddr, CgrRoute *route)
 	psm_free(ionwm, routeAddr);
 }
 
+static void	findDistinctClasses(PsmPartition ionwm, IonVdb *ionvdb,
+			int *distinct)
+{
+	PsmAddress	elt;
+	IonCXref	*contact;
+	uvast		capacity;
+	int		payloadClass;
+
+	/*	Two payload classes share the same series of searches
+	 *	if no contact has a capacity between their floors, as
+	 *	the same contacts are excluded.			*/
+
+	for (payloadClass = 0; payloadClass < PAYLOAD_CLASSES; payloadClass++)
+	{
+		distinct[payloadClass] = (payloadClass == 0);
+	}
+
+	for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex); elt;
+			elt = sm_rbt_next(ionwm, elt))
+	{
+		contact = (IonCXref *) psp(ionwm, sm_rbt_data(ionwm, elt));
+		capacity = contact->xmitRate
+				* (contact->toTime - contact->fromTime);
+		for (payloadClass = 1; payloadClass < PAYLOAD_CLASSES;
+				payloadClass++)
+		{
+			if (capacity >= _minCapacity(payloadClass - 1)
+			&& capacity < _minCapacity(payloadClass))
+			{
+				distinct[payloadClass] = 1;
+			}
+		}
+	}
+}
+
+static int	copyRoutes(PsmPartition ionwm, PsmAddress routes,
+			PsmAddress firstElt, int payloadClass)
+{
+	PsmAddress	lastElt = sm_list_last(ionwm, routes);
+	PsmAddress	elt;
+	PsmAddress	elt2;
+	PsmAddress	addr;
+	CgrRoute	*route;
+	CgrRoute	*copy;
+
+	/*	Append to the list a copy of every route from firstElt
+	 *	to the current end of the list, for payloadClass.	*/
+
+	for (elt = firstElt; elt; elt = sm_list_next(ionwm, elt))
+	{
+		route = (CgrRoute *) psp(ionwm, sm_list_data(ionwm, elt));
+		addr = psm_zalloc(ionwm, sizeof(CgrRoute));
+		if (addr == 0)
+		{
+			putErrmsg("Can't create CGR route.", NULL);
+			return -1;
+		}
+
+		copy = (CgrRoute *) psp(ionwm, addr);
+		memcpy((char *) copy, (char *) route, sizeof(CgrRoute));
+		copy->payloadClass = payloadClass;
+		copy->hops = sm_list_create(ionwm);
+		if (copy->hops == 0)
+		{
+			psm_free(ionwm, addr);
+			putErrmsg("Can't create CGR route hops list.", NULL);
+			return -1;
+		}
+
+		if (sm_list_insert_last(ionwm, routes, addr) == 0)
+		{
+			sm_list_destroy(ionwm, copy->hops, NULL, NULL);
+			psm_free(ionwm, addr);
+			putErrmsg("Can't add route to list.", NULL);
+			return -1;
+		}
+
+		for (elt2 = sm_list_first(ionwm, route->hops); elt2;
+				elt2 = sm_list_next(ionwm, elt2))
+		{
+			if (sm_list_insert_last(ionwm, copy->hops,
+					sm_list_data(ionwm, elt2)) == 0)
+			{
+				putErrmsg("Can't insert contact into route.",
+						NULL);
+				return -1;
+			}
+		}
+
+		if (elt == lastElt)
+		{
+			break;
+		}
+	}
+
+	return 0;
+}
+
 static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 				CgrTrace *trace)
 {
@@ -682,8 +1471,12 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 	PsmAddress	routeAddr;
 	CgrRoute	*route;
 	IonCXref	*firstContact;
-	IonCXref	*limitContact;
+	IonCXref	*limitContact = NULL;
 	IonCXref	*anchorContact = NULL;
+	CgrSearch	search;
+	int		distinct[PAYLOAD_CLASSES];
+	PsmAddress	classElt = 0;
+	PsmAddress	lastElt;
 
 	CHKZERO(ionvdb);
 	CHKZERO(cgrvdb);
@@ -715,13 +1508,38 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 	 *	to itself and terminating in the "final contact"
 	 *	(which is the terminus node's contact with itself).
 	 *	Each time we search, we exclude from consideration
-	 *	the first contact in every previously computed route.	*/
+	 *	the first contact in every previously computed route.
+	 *	A payload class that excludes the same contacts as
+	 *	the previous one gets a copy of its routes instead.	*/
 
 	rootContact.fromNode = getOwnNodeNbr();
 	rootContact.toNode = rootContact.fromNode;
 	rootWork.arrivalTime = currentTime;
+	if (openSearch(&search, &rootContact, &rootWork, terminusNode) < 0)
+	{
+		putErrmsg("Can't load routes list.", NULL);
+		return 0;
+	}
+
+	findDistinctClasses(ionwm, ionvdb, distinct);
 	for (payloadClass = 0; payloadClass < PAYLOAD_CLASSES; payloadClass++)
 	{
+		lastElt = sm_list_last(ionwm, terminusNode->routingObject);
+		if (!distinct[payloadClass])
+		{
+			if (classElt && copyRoutes(ionwm,
+					terminusNode->routingObject, classElt,
+					payloadClass) < 0)
+			{
+				putErrmsg("Can't load routes list.", NULL);
+				closeSearch(&search);
+				return 0;
+			}
+
+			classElt = lastElt ? sm_list_next(ionwm, lastElt) : 0;
+			continue;
+		}
+
 		/*	For each series of searches, clear Dijkstra
 		 *	work areas for all contacts.			*/
 
@@ -741,6 +1559,7 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 				{
 					putErrmsg("Can't create contact note.",
 							NULL);
+					closeSearch(&search);
 					return 0;
 				}
 			}
@@ -749,16 +1568,25 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 			work->arrivalTime = MAX_TIME;
 		}
 
+		resetSearch(&search);
+		setSearchClass(&search, payloadClass);
+		limitContact = NULL;
 		while (1)
 		{
-			if (findNextBestRoute(ionwm, &rootContact, &rootWork,
-					terminusNode, payloadClass, &routeAddr,
-					trace) < 0)
+			/*	After the first search, limitContact is
+			 *	the only contact suppressed since the
+			 *	previous one, whose tree is repaired.	*/
+
+			if (findNextBestRoute(&search, limitContact,
+					&routeAddr, trace) < 0)
 			{
 				putErrmsg("Can't load routes list.", NULL);
+				closeSearch(&search);
 				return 0;
 			}
 
+			limitContact = NULL;
+
 			if (routeAddr == 0)
 			{
 				/*	No more routes for this class.	*/
@@ -791,7 +1619,8 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 
 				if (firstContact != anchorContact)
 				{
-					endAnchoredSearch(routeAddr, route);
+					endAnchoredSearch(&search, routeAddr,
+							route);
 					work = (CgrContactNote *) psp(ionwm,
 						anchorContact->routingObject);
 					work->suppressed = 1;
@@ -806,12 +1635,13 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 				terminusNode->routingObject, routeAddr) == 0)
 			{
 				putErrmsg("Can't add route to list.", NULL);
+				closeSearch(&search);
 				return 0;
 			}
 
 			/*	Now exclude the earliest-expiring
-			 *	contact in this optimal route, clear
-			 *	work areas, and try again.		*/
+			 *	contact in this optimal route and try
+			 *	again.					*/
 
 			route = (CgrRoute *) psp(ionwm, routeAddr);
 			firstContact = (IonCXref *)
@@ -846,6 +1676,7 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 				if (elt == 0)
 				{
 					putErrmsg("Bug in hops list!", NULL);
+					closeSearch(&search);
 					return 0;
 				}
 
@@ -855,20 +1686,13 @@ static PsmAddress	loadRouteList(IonNode *terminusNode, time_t currentTime,
 			work = (CgrContactNote *)
 					psp(ionwm, limitContact->routingObject);
 			work->suppressed = 1;
-			for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex);
-				       	elt; elt = sm_rbt_next(ionwm, elt))
-			{
-				contact = (IonCXref *)
-					psp(ionwm, sm_rbt_data(ionwm, elt));
-				work = (CgrContactNote *)
-					psp(ionwm, contact->routingObject);
-				work->arrivalTime = MAX_TIME;
-				work->predecessor = NULL;
-				work->visited = 0;
-			}
 		}
+
+		classElt = lastElt ? sm_list_next(ionwm, lastElt)
+				: sm_list_first(ionwm, terminusNode->routingObject);
 	}
 
+	closeSearch(&search);
 	return terminusNode->routingObject;
 }
 
@@ -894,6 +1718,8 @@ static int	recomputeRouteForContact(uvast contactToNodeNbr,
 	PsmAddress	routeAddr;
 	CgrRoute	*newRoute;
 	PsmAddress	elt2;
+	CgrSearch	search;
+	int		result;
 
 	TRACE(CgrRecomputeRoute);
 	routes = terminusNode->routingObject;
@@ -983,8 +1809,16 @@ static int	recomputeRouteForContact(uvast contactToNodeNbr,
 	rootContact.fromNode = getOwnNodeNbr();
 	rootContact.toNode = rootContact.fromNode;
 	rootWork.arrivalTime = currentTime;
-	if (findNextBestRoute(ionwm, &rootContact, &rootWork, terminusNode,
-			payloadClass, &routeAddr, trace) < 0)
+	if (openSearch(&search, &rootContact, &rootWork, terminusNode) < 0)
+	{
+		putErrmsg("Can't recompute route.", NULL);
+		return -1;
+	}
+
+	setSearchClass(&search, payloadClass);
+	result = findNextBestRoute(&search, NULL, &routeAddr, trace);
+	closeSearch(&search);
+	if (result < 0)
 	{
 		putErrmsg("Can't recompute route.", NULL);
 		return -1;
@@ -16,8 +16,23 @@
 void	computePriorClaims(ClProtocol *protocol, Outduct *duct, Bundle *bundle,
 		Scalar *priorClaims, Scalar *totalBacklog)
 {
-	copyScalar(totalBacklog, &(duct->stdBacklog));
-	copyScalar(priorClaims, totalBacklog);
+	/*	As in ION, but urgent bundles of any ordinal
+	 *	are all prior claims of an urgent bundle.		*/
+	loadScalar(priorClaims, 0);
+	switch (COS_FLAGS(bundle->bundleProcFlags) & 0x03)
+	{
+	case 0:				/*	Bulk priority.		*/
+		addToScalar(priorClaims, &(duct->bulkBacklog));
+		/*	Intentional fall-through to next case.	*/
+	case 1:				/*	Standard priority.	*/
+		addToScalar(priorClaims, &(duct->stdBacklog));
+		/*	Intentional fall-through to next case.	*/
+	default:			/*	Urgent priority.	*/
+		addToScalar(priorClaims, &(duct->urgentBacklog));
+	}
+	copyScalar(totalBacklog, &(duct->bulkBacklog));
+	addToScalar(totalBacklog, &(duct->stdBacklog));
+	addToScalar(totalBacklog, &(duct->urgentBacklog));
 }
 
 int	guessBundleSize(Bundle *bundle)
@@ -99,7 +114,10 @@ int	bpEnqueue(FwdDirective *directive, Bundle *bundle, Object bundleObj,
 
 	/*      Now construct transmission parameters.			*/
 
-	bundle->proxNodeEid = sdr_string_create(bpSdr, proxNodeEid);
+	/*	proxNodeEid is never read in ONE, don't allocate it
+	 *	on every enqueue.					*/
+	//bundle->proxNodeEid = sdr_string_create(bpSdr, proxNodeEid);
+	bundle->proxNodeEid = 0;
 
 	bundle->destDuctName = 0;
 
@@ -175,7 +193,10 @@ Object	insertBpTimelineEvent(BpEvent *newEvent)
 	Sdr		bpSdr = getIonsdr();
 	Address		addr;
 
-	addr = sdr_malloc(bpSdr, sizeof(BpEvent));
+	/*	The only event ever posted is xmitOverdue, read back
+	 *	by bpEnqueONE(): reuse the same object.			*/
+	//addr = sdr_malloc(bpSdr, sizeof(BpEvent));
+	addr = getONETimelineEventObj();
 	if (addr == 0)
 	{
 		putErrmsg("No space for timeline event.", NULL);
@@ -8,6 +8,7 @@
 /**
  * Questo e' l'header della libreria delle liste, praticamente ho copiato quello di Lyst in ION.
  * Ho solo cambiato le strutture Lyst e LystElt in modo che puntino a un jobject.
+ * Compilando senza LYST_JAVA invece Lyst e LystElt sono strutture native (lyst_native.c).
  */
 
 #include <jni.h>
@@ -18,10 +19,15 @@
  */
 /* define a lyst */
 
+#ifdef LYST_JAVA
+/* liste Java (cgr_jni.lyst), vedi lyst.c */
 typedef jobject Lyst;
 typedef jobject LystElt;
-//typedef struct LystStruct *Lyst;
-//typedef struct LystEltStruct *LystElt;
+#else
+/* liste native, vedi lyst_native.c */
+typedef struct LystStruct *Lyst;
+typedef struct LystEltStruct *LystElt;
+#endif
 
 typedef enum {
   LIST_SORT_ASCENDING,
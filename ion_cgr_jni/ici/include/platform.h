@@ -707,6 +707,9 @@ extern void			_putErrmsg(const char *, int, const char *,
 #define putSysErrmsg(txt, arg)	_putSysErrmsg(__FILE__, __LINE__, txt, arg)
 extern void			_putSysErrmsg(const char *, int, const char *,
 					const char *);
+typedef void			(*LogWriter)(int isError, const char *text);
+extern void			setLogWriter(LogWriter writer);
+extern void			writeLogText(const char *text);
 extern int			getErrmsg(char *buffer);
 extern void			writeErrmsgMemos();
 extern void			discardErrmsgs();
@@ -44,7 +44,8 @@ typedef struct
 //	long		traceArea[3];	/*	psm_str for sptrace.	*/
 //} PsmView, *PsmPartition;
 
-typedef jobject PsmPartition;
+/*	Native arena emulating a PSM partition, see psm.c.		*/
+typedef struct psm_arena_str *	PsmPartition;
 
 typedef enum { Okay, Redundant, Refused } PsmMgtOutcome;
 //typedef unsigned long	PsmAddress;
@@ -258,6 +259,14 @@ extern void		psm_erase(PsmPartition);
 				space), in addition to terminating psm
 				management of that space and destroying
 				the psm management handle.		*/
+
+#ifdef PSM_JAVA_MIRROR
+extern void		psm_set_mirror(PsmPartition, jobject);
+			/*	Attaches a cgr_jni.psm.PsmPartition
+				object that will receive a copy of every
+				allocation and catalogue operation made
+				on the partition.  Debug only.		*/
+#endif
 #ifdef __cplusplus
 }
 #endif
@@ -7,10 +7,13 @@
 
 #include "lyst.h"
 
+#ifdef LYST_JAVA
+
 #include <stdint.h>
 #include <jni.h>
 
 #include "shared.h"
+#include "jni_handles.h"
 
 /**
  * Questo e' il file piu' incasinato
@@ -24,18 +27,18 @@
  * Le signature dei metodi di una classe java la trovi facendo javap -s -cp path/to/classes pakage.nomeClasse
  * come cartella del classpath devi mettere la cartella dove cominciano package, non la cartella dove sono i .class
  *
+ * Classi e metodi ora vengono risolti una volta sola in JNI_OnLoad (vedi jni_handles.c),
+ * qui si usano solo i riferimenti gia' pronti.
  *
  */
 
-const char * LystClass = "cgr_jni/lyst/Lyst";
 const char * LystEltClass = "cgr_jni/lyst/LystElt";
 
 Lyst Lyst_create_using(const char * s, int n, int idx)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID create_using = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_create_using","(I)Lcgr_jni/lyst/Lyst;");
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, listClass, create_using, idx);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->create_using, idx);
 	return (Lyst) result;
 
 }
@@ -43,46 +46,41 @@ Lyst Lyst_create_using(const char * s, int n, int idx)
 LystElt Lyst_insert_last(const char * s, int n, Lyst list, void * data)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID insert_last = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_insert_last","(Lcgr_jni/lyst/Lyst;J)Lcgr_jni/lyst/LystElt;");
+	LystHandles * h = &(getJniHandles()->lyst);
 	jlong pointer = (jlong) (intptr_t) data;
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, listClass, insert_last, list, pointer);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->insert_last, list, pointer);
 	return (LystElt) result;
 }
 
 LystElt lyst_first(Lyst list)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID first = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_first","(Lcgr_jni/lyst/Lyst;)Lcgr_jni/lyst/LystElt;");
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, listClass, first, list);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->first, list);
 	return (LystElt) result;
 }
 
 LystElt lyst_last(Lyst list)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID last = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_last","(Lcgr_jni/lyst/Lyst;)Lcgr_jni/lyst/LystElt;");
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, listClass, last, list);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->last, list);
 	return (LystElt) result;
 }
 
 LystElt lyst_next(LystElt elt)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID next = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_next","(Lcgr_jni/lyst/LystElt;)Lcgr_jni/lyst/LystElt;");
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, listClass, next, elt);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->next, elt);
 	return (LystElt) result;
 }
 
 void * lyst_data(LystElt elt)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID data = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_data","(Lcgr_jni/lyst/LystElt;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, listClass, data, elt);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->data, elt);
 	return (void *) (intptr_t) result;
 
 }
@@ -91,9 +89,8 @@ void
 lyst_delete_set(Lyst list, LystCallback fn, void *arg)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID delete_set = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_delete_set","(Lcgr_jni/lyst/Lyst;JJ)V");
-	(*jniEnv)->CallStaticVoidMethod(jniEnv, listClass, delete_set, list, (jlong) (intptr_t) fn, (jlong) (intptr_t) arg);
+	LystHandles * h = &(getJniHandles()->lyst);
+	(*jniEnv)->CallStaticVoidMethod(jniEnv, h->clazz, h->delete_set, list, (jlong) (intptr_t) fn, (jlong) (intptr_t) arg);
 }
 void
 Lyst_destroy(const char *file, int line, Lyst list)
@@ -108,48 +105,57 @@ void *
 lyst_data_set(LystElt elt, void *new)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID data_set = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_data_set","(Lcgr_jni/lyst/LystElt;J)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, listClass, data_set, elt, (jlong) (intptr_t) new);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->data_set, elt, (jlong) (intptr_t) new);
 	return (void *) (intptr_t) result;
 }
 
 static jobject getLyst(LystElt elt)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID getLyst = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "getLyst","(Lcgr_jni/lyst/LystElt;)Lcgr_jni/lyst/Lyst;");
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, listClass, getLyst, elt);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->getLyst, elt);
 	return result;
 }
 
 static LystCallback lyst_getDeleteFunction(Lyst list)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID getDeleteFunction = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "getDeleteFunction","(Lcgr_jni/lyst/Lyst;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, listClass, getDeleteFunction, list);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getDeleteFunction, list);
 	return (LystCallback) (intptr_t) result;
 }
 
 static void * lyst_getDeleteUserdata(Lyst list)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID getDeleteUserdata = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "getDeleteUserdata","(Lcgr_jni/lyst/Lyst;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, listClass, getDeleteUserdata, list);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getDeleteUserdata, list);
 	return (void *) (intptr_t) result;
 }
 
+/**
+ * Come in ION: se e' stata registrata una callback di delete viene chiamata
+ * prima di togliere l'elemento dalla lista, altrimenti l'elemento viene solo tolto.
+ */
 void
 Lyst_delete(const char *file, int line, LystElt elt)
 {
-	LystCallback fn = lyst_getDeleteFunction(getLyst(elt));
-	void *userdata = lyst_getDeleteUserdata(getLyst(elt));
-	fn(elt, userdata);
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass listClass = (*jniEnv)->FindClass(jniEnv, LystClass);
-	jmethodID delete = (*jniEnv)->GetStaticMethodID(jniEnv, listClass, "lyst_delete","(Lcgr_jni/lyst/LystElt;)V");
-	(*jniEnv)->CallStaticVoidMethod(jniEnv, listClass, delete, elt);
+	LystHandles * h = &(getJniHandles()->lyst);
+	jobject list = getLyst(elt);
+	LystCallback fn;
+	void *userdata;
+	if (list == NULL) // elemento gia' tolto
+		return;
+	fn = lyst_getDeleteFunction(list);
+	if (fn != NULL)
+	{
+		userdata = lyst_getDeleteUserdata(list);
+		fn(elt, userdata);
+	}
+	(*jniEnv)->DeleteLocalRef(jniEnv, list);
+	(*jniEnv)->CallStaticVoidMethod(jniEnv, h->clazz, h->delete, elt);
 }
 
+#endif /* LYST_JAVA */
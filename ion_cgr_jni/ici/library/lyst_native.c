@@ -0,0 +1,334 @@
+/*
+ * lyst_native.c
+ */
+
+/**
+ * Implementazione nativa delle lyst, usata quando non si compila con LYST_JAVA.
+ * Le lyst di libcgr sono liste temporanee di puntatori C, non serve passare da Java:
+ * liste ed elementi vengono riciclati da un pool per thread, cosi' dopo i primi
+ * instradamenti non si fanno piu' malloc/free.
+ * La versione Java (lyst.c + cgr_jni.lyst) resta per il test harness JNI.
+ */
+
+#include "lyst.h"
+
+#ifndef LYST_JAVA
+
+#include <stdlib.h>
+#include <pthread.h>
+
+#define LYST_POOL_MAX 1024	/* oggetti tenuti da parte per ogni thread */
+
+struct LystStruct
+{
+	LystElt			first;
+	LystElt			last;
+	unsigned long		length;
+	LystCallback		deleteFn;
+	void *			deleteArg;
+	LystCompareFn		compare;
+	LystSortDirection	direction;
+	struct LystStruct *	nextFree;
+};
+
+struct LystEltStruct
+{
+	Lyst			lyst;
+	LystElt			prev;
+	LystElt			next;
+	void *			data;
+};
+
+typedef struct
+{
+	Lyst		freeLysts;
+	LystElt		freeElts;
+	int		freeLystCount;
+	int		freeEltCount;
+} LystPool;
+
+static pthread_key_t lystPool_key;
+static pthread_once_t lystPool_once = PTHREAD_ONCE_INIT;
+
+static void destroyLystPool(void * arg)
+{
+	LystPool * pool = (LystPool *) arg;
+	Lyst list;
+	LystElt elt;
+	while ((list = pool->freeLysts) != NULL)
+	{
+		pool->freeLysts = list->nextFree;
+		free(list);
+	}
+	while ((elt = pool->freeElts) != NULL)
+	{
+		pool->freeElts = elt->next;
+		free(elt);
+	}
+	free(pool);
+}
+
+static void createLystPoolKey()
+{
+	pthread_key_create(&lystPool_key, destroyLystPool);
+}
+
+static LystPool * getLystPool()
+{
+	LystPool * pool;
+	pthread_once(&lystPool_once, createLystPoolKey);
+	if ((pool = pthread_getspecific(lystPool_key)) == NULL)
+	{
+		pool = (LystPool *) calloc(1, sizeof(LystPool));
+		pthread_setspecific(lystPool_key, pool);
+	}
+	return pool;
+}
+
+static Lyst takeLyst()
+{
+	LystPool * pool = getLystPool();
+	Lyst list = pool->freeLysts;
+	if (list == NULL)
+		return (Lyst) malloc(sizeof(struct LystStruct));
+	pool->freeLysts = list->nextFree;
+	pool->freeLystCount--;
+	return list;
+}
+
+static void releaseLyst(Lyst list)
+{
+	LystPool * pool = getLystPool();
+	if (pool->freeLystCount >= LYST_POOL_MAX)
+	{
+		free(list);
+		return;
+	}
+	list->nextFree = pool->freeLysts;
+	pool->freeLysts = list;
+	pool->freeLystCount++;
+}
+
+static LystElt takeElt()
+{
+	LystPool * pool = getLystPool();
+	LystElt elt = pool->freeElts;
+	if (elt == NULL)
+		return (LystElt) malloc(sizeof(struct LystEltStruct));
+	pool->freeElts = elt->next;
+	pool->freeEltCount--;
+	return elt;
+}
+
+static void releaseElt(LystElt elt)
+{
+	LystPool * pool = getLystPool();
+	if (pool->freeEltCount >= LYST_POOL_MAX)
+	{
+		free(elt);
+		return;
+	}
+	elt->lyst = NULL;
+	elt->next = pool->freeElts;
+	pool->freeElts = elt;
+	pool->freeEltCount++;
+}
+
+static LystElt linkElt(Lyst list, LystElt prev, LystElt next, void * data)
+{
+	LystElt elt = takeElt();
+	if (elt == NULL)
+		return NULL;
+	elt->lyst = list;
+	elt->data = data;
+	elt->prev = prev;
+	elt->next = next;
+	if (prev != NULL)
+		prev->next = elt;
+	else
+		list->first = elt;
+	if (next != NULL)
+		next->prev = elt;
+	else
+		list->last = elt;
+	list->length++;
+	return elt;
+}
+
+Lyst Lyst_create(const char * file, int line)
+{
+	Lyst list = takeLyst();
+	if (list == NULL)
+		return NULL;
+	list->first = NULL;
+	list->last = NULL;
+	list->length = 0;
+	list->deleteFn = NULL;
+	list->deleteArg = NULL;
+	list->compare = NULL;
+	list->direction = LIST_SORT_ASCENDING;
+	list->nextFree = NULL;
+	return list;
+}
+
+Lyst Lyst_create_using(const char * file, int line, int idx)
+{
+	return Lyst_create(file, line);
+}
+
+void Lyst_clear(const char * file, int line, Lyst list)
+{
+	while (list->first != NULL)
+		Lyst_delete(file, line, list->first);
+}
+
+void Lyst_destroy(const char * file, int line, Lyst list)
+{
+	Lyst_clear(file, line, list);
+	releaseLyst(list);
+}
+
+void lyst_compare_set(Lyst list, LystCompareFn compare)
+{
+	list->compare = compare;
+}
+
+LystCompareFn lyst_compare_get(Lyst list)
+{
+	return list->compare;
+}
+
+void lyst_direction_set(Lyst list, LystSortDirection direction)
+{
+	list->direction = direction;
+}
+
+void lyst_delete_set(Lyst list, LystCallback fn, void * arg)
+{
+	list->deleteFn = fn;
+	list->deleteArg = arg;
+}
+
+void lyst_delete_get(Lyst list, LystCallback * fn, void ** arg)
+{
+	*fn = list->deleteFn;
+	*arg = list->deleteArg;
+}
+
+unsigned long lyst_length(Lyst list)
+{
+	return list->length;
+}
+
+/**
+ * Inserisce in ordine se e' stata impostata una funzione di confronto,
+ * altrimenti in coda (come in ION).
+ */
+LystElt Lyst_insert(const char * file, int line, Lyst list, void * data)
+{
+	LystElt cur;
+	int result;
+	if (list->compare == NULL)
+		return linkElt(list, list->last, NULL, data);
+	for (cur = list->first; cur != NULL; cur = cur->next)
+	{
+		result = list->compare(data, cur->data);
+		if (list->direction == LIST_SORT_DESCENDING)
+			result = -result;
+		if (result < 0)
+			return linkElt(list, cur->prev, cur, data);
+	}
+	return linkElt(list, list->last, NULL, data);
+}
+
+LystElt Lyst_insert_first(const char * file, int line, Lyst list, void * data)
+{
+	return linkElt(list, NULL, list->first, data);
+}
+
+LystElt Lyst_insert_last(const char * file, int line, Lyst list, void * data)
+{
+	return linkElt(list, list->last, NULL, data);
+}
+
+LystElt Lyst_insert_before(const char * file, int line, LystElt elt, void * data)
+{
+	return linkElt(elt->lyst, elt->prev, elt, data);
+}
+
+LystElt Lyst_insert_after(const char * file, int line, LystElt elt, void * data)
+{
+	return linkElt(elt->lyst, elt, elt->next, data);
+}
+
+/**
+ * Come in ION: la callback di delete, se c'e', viene chiamata
+ * prima di togliere l'elemento dalla lista.
+ */
+void Lyst_delete(const char * file, int line, LystElt elt)
+{
+	Lyst list = elt->lyst;
+	if (list == NULL) // elemento gia' tolto
+		return;
+	if (list->deleteFn != NULL)
+		list->deleteFn(elt, list->deleteArg);
+	if (elt->prev != NULL)
+		elt->prev->next = elt->next;
+	else
+		list->first = elt->next;
+	if (elt->next != NULL)
+		elt->next->prev = elt->prev;
+	else
+		list->last = elt->prev;
+	list->length--;
+	releaseElt(elt);
+}
+
+LystElt lyst_first(Lyst list)
+{
+	return list->first;
+}
+
+LystElt lyst_last(Lyst list)
+{
+	return list->last;
+}
+
+LystElt lyst_next(LystElt elt)
+{
+	return elt->next;
+}
+
+LystElt lyst_prev(LystElt elt)
+{
+	return elt->prev;
+}
+
+Lyst lyst_list(LystElt elt)
+{
+	return elt->lyst;
+}
+
+void * lyst_data(LystElt elt)
+{
+	return elt->data;
+}
+
+void * lyst_data_set(LystElt elt, void * data)
+{
+	void * prevData = elt->data;
+	elt->data = data;
+	return prevData;
+}
+
+void lyst_apply(Lyst list, LystCallback fn, void * arg)
+{
+	LystElt cur, next;
+	for (cur = list->first; cur != NULL; cur = next)
+	{
+		next = cur->next;
+		fn(cur, arg);
+	}
+}
+
+#endif /* LYST_JAVA */
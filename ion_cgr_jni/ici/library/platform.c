@@ -13,11 +13,35 @@
 #define isprintf snprintf
 
 
+static LogWriter logWriter = NULL;
+
+/**
+ * Error messages and admin output are written to stderr/stdout unless
+ * a writer is set (the JNI interface sends them to the Java event log).
+ */
+void	setLogWriter(LogWriter writer)
+{
+	logWriter = writer;
+}
+
+void	writeLogText(const char *text)
+{
+	if (logWriter != NULL)
+		logWriter(0, text);
+	else
+		PUTS(text);
+}
+
 void	_putErrmsg(const char *fileName, int lineNbr, const char *text,
 		const char *arg)
 {
-	//TODO stub
-	fprintf(stderr, "Error in %s:%d, %s: %s\n", fileName, lineNbr, text, arg);
+	char	buffer[1024];
+
+	snprintf(buffer, sizeof buffer, "Error in %s:%d, %s: %s", fileName, lineNbr, text, arg);
+	if (logWriter != NULL)
+		logWriter(1, buffer);
+	else
+		fprintf(stderr, "%s\n", buffer);
 	//writeErrmsgMemos();
 }
 void			_putSysErrmsg(const char * fileName, int lineNbr, const char * text,
@@ -74,14 +98,14 @@ int	iputs(int fd, char * string)
 char	*uToa(unsigned int arg)
 {
 	//TODO stub
-	static char	utoa_str[33];
+	static __thread char	utoa_str[33];
 
 	snprintf(utoa_str, sizeof utoa_str, "%u", arg);
 	return utoa_str;
 }
 char *iToa(int arg)
 {
-	static char	itoa_str[33];
+	static __thread char	itoa_str[33];
 
 	snprintf(itoa_str, sizeof itoa_str, "%d", arg);
 	return itoa_str;
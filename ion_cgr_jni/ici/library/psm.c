@@ -7,74 +7,421 @@
 #include "psm.h"
 
 #include <stdlib.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <string.h>
 
 #include "shared.h"
 #include "jni_thread.h"
+#include "jni_handles.h"
 
+/*
+ * A partition is a native arena: small objects are carved out of big chunks
+ * and recycled through one free list per size class, bigger objects are
+ * malloc'd one by one and kept in a list. Nothing crosses into Java on
+ * allocation, and psm_erase() releases the whole arena walking chunks
+ * instead of objects.
+ */
+#define PSM_SIZE_CLASSES	8
+#define PSM_MIN_CLASS_SIZE	16	/* payload of class 0, doubled for each class */
+#define PSM_LARGE_CLASS		PSM_SIZE_CLASSES
+#define PSM_CHUNK_SIZE		(64 * 1024)
+#define PSM_CATLG_BUCKETS	32
 
-PsmAddress	Psm_zalloc(const char * s, int n, PsmPartition partition, unsigned long length)
+typedef struct psm_block_str	/* header in front of every object */
+{
+	union
+	{
+		struct psm_block_str *	nextFree;	/* while free */
+		PsmPartition		owner;		/* while in use */
+	} link;
+	unsigned int		sizeClass;
+	unsigned int		inUse;
+} PsmBlock;
+
+typedef struct psm_large_str
+{
+	struct psm_large_str *	prev;
+	struct psm_large_str *	next;
+	PsmBlock		block;
+} PsmLargeBlock;
+
+typedef struct psm_chunk_str
+{
+	struct psm_chunk_str *	next;
+	size_t			pad;	/* keeps blocks 16 bytes aligned */
+} PsmChunk;
+
+typedef struct psm_catlg_entry_str
+{
+	struct psm_catlg_entry_str *	nextByName;
+	struct psm_catlg_entry_str *	nextByAddress;
+	PsmAddress			address;
+	char				name[1];
+} PsmCatlgEntry;
+
+struct psm_arena_str
+{
+	char		name[32];
+	unsigned long	chunkSize;
+	PsmChunk *	chunks;
+	char *		bump;
+	char *		bumpEnd;
+	PsmBlock *	freeBlocks[PSM_SIZE_CLASSES];
+	PsmLargeBlock *	largeBlocks;
+	int		catlgCount;
+	PsmCatlgEntry *	byName[PSM_CATLG_BUCKETS];
+	PsmCatlgEntry *	byAddress[PSM_CATLG_BUCKETS];
+#ifdef PSM_JAVA_MIRROR
+	jobject		mirror;
+#endif
+};
+
+static int size_class(unsigned long length)
+{
+	int sizeClass = 0;
+	unsigned long classSize = PSM_MIN_CLASS_SIZE;
+	while (classSize < length && sizeClass < PSM_LARGE_CLASS)
+	{
+		classSize <<= 1;
+		sizeClass++;
+	}
+	return sizeClass;
+}
+
+static unsigned int name_bucket(const char * name)
+{
+	unsigned int hash = 5381;
+	while (*name != '\0')
+		hash = hash * 33 + (unsigned char) *name++;
+	return hash % PSM_CATLG_BUCKETS;
+}
+
+static unsigned int address_bucket(PsmAddress address)
+{
+	return (unsigned int) (((uintptr_t) address >> 4) % PSM_CATLG_BUCKETS);
+}
+
+static PsmBlock * slab_alloc(PsmPartition partition, int sizeClass)
+{
+	PsmChunk * chunk;
+	PsmBlock * block;
+	size_t needed = sizeof(PsmBlock) + (PSM_MIN_CLASS_SIZE << sizeClass);
+	if (partition->bump == NULL || partition->bump + needed > partition->bumpEnd)
+	{
+		chunk = (PsmChunk *) malloc(partition->chunkSize);
+		if (chunk == NULL)
+			return NULL;
+		chunk->next = partition->chunks;
+		partition->chunks = chunk;
+		partition->bump = (char *) (chunk + 1);
+		partition->bumpEnd = ((char *) chunk) + partition->chunkSize;
+	}
+	block = (PsmBlock *) partition->bump;
+	partition->bump += needed;
+	block->sizeClass = sizeClass;
+	return block;
+}
+
+static PsmBlock * large_alloc(PsmPartition partition, unsigned long length)
+{
+	PsmLargeBlock * large = (PsmLargeBlock *) malloc(sizeof(PsmLargeBlock) + length);
+	if (large == NULL)
+		return NULL;
+	large->prev = NULL;
+	large->next = partition->largeBlocks;
+	if (large->next != NULL)
+		large->next->prev = large;
+	partition->largeBlocks = large;
+	large->block.sizeClass = PSM_LARGE_CLASS;
+	return &(large->block);
+}
+
+static void large_free(PsmPartition partition, PsmBlock * block)
+{
+	PsmLargeBlock * large = (PsmLargeBlock *) (((char *) block) - offsetof(PsmLargeBlock, block));
+	if (large->prev != NULL)
+		large->prev->next = large->next;
+	else
+		partition->largeBlocks = large->next;
+	if (large->next != NULL)
+		large->next->prev = large->prev;
+	free(large);
+}
+
+static PsmCatlgEntry * find_entry(PsmPartition partition, const char * name)
+{
+	PsmCatlgEntry * entry = partition->byName[name_bucket(name)];
+	while (entry != NULL && strcmp(entry->name, name) != 0)
+		entry = entry->nextByName;
+	return entry;
+}
+
+static void unlink_by_name(PsmPartition partition, PsmCatlgEntry * entry)
+{
+	PsmCatlgEntry ** cur = &(partition->byName[name_bucket(entry->name)]);
+	while (*cur != entry)
+		cur = &((*cur)->nextByName);
+	*cur = entry->nextByName;
+}
+
+static void unlink_by_address(PsmPartition partition, PsmCatlgEntry * entry)
+{
+	PsmCatlgEntry ** cur = &(partition->byAddress[address_bucket(entry->address)]);
+	while (*cur != entry)
+		cur = &((*cur)->nextByAddress);
+	*cur = entry->nextByAddress;
+}
+
+/**
+ * Drops the catalogue entries pointing to a freed object,
+ * as the java PsmPartition used to do in psmFree().
+ */
+static void uncatlg_address(PsmPartition partition, PsmAddress address)
+{
+	PsmCatlgEntry ** cur = &(partition->byAddress[address_bucket(address)]);
+	PsmCatlgEntry * entry;
+	while ((entry = *cur) != NULL)
+	{
+		if (entry->address != address)
+		{
+			cur = &(entry->nextByAddress);
+			continue;
+		}
+		*cur = entry->nextByAddress;
+		unlink_by_name(partition, entry);
+		partition->catlgCount--;
+		free(entry);
+	}
+}
+
+#ifdef PSM_JAVA_MIRROR
+static void mirror_alloc(PsmPartition partition, PsmAddress address, unsigned long length)
+{
+	JNIEnv * jniEnv;
+	if (partition->mirror == NULL)
+		return;
+	jniEnv = getThreadLocalEnv();
+	(*jniEnv)->CallLongMethod(jniEnv, partition->mirror, getJniHandles()->psmPartition.psmAlloc, (jlong) address, (jlong) length);
+}
+
+static void mirror_free(PsmPartition partition, PsmAddress address)
+{
+	JNIEnv * jniEnv;
+	if (partition->mirror == NULL)
+		return;
+	jniEnv = getThreadLocalEnv();
+	(*jniEnv)->CallVoidMethod(jniEnv, partition->mirror, getJniHandles()->psmPartition.psmFree, (jlong) address);
+}
+
+static void mirror_catlg(PsmPartition partition, char * objName, PsmAddress address, int add)
+{
+	JNIEnv * jniEnv;
+	PsmPartitionHandles * h;
+	jstring name;
+	if (partition->mirror == NULL)
+		return;
+	jniEnv = getThreadLocalEnv();
+	h = &(getJniHandles()->psmPartition);
+	name = (*jniEnv)->NewStringUTF(jniEnv, objName);
+	if (add)
+		(*jniEnv)->CallIntMethod(jniEnv, partition->mirror, h->psmCatlg, name, (jlong) address);
+	else
+		(*jniEnv)->CallIntMethod(jniEnv, partition->mirror, h->psmUncatlg, name);
+	(*jniEnv)->DeleteLocalRef(jniEnv, name);
+}
+
+void psm_set_mirror(PsmPartition partition, jobject mirror)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	void * pointer = (void *) malloc(length);
-	jclass psmPartitionClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionClass);
-	jmethodID zalloc = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmAlloc","(J)J");
-	jlong result = (*jniEnv)->CallLongMethod(jniEnv, partition, zalloc, (jlong) pointer);
-	if (pointer != (void*)(intptr_t) result)
+	if (partition->mirror != NULL)
+		(*jniEnv)->DeleteGlobalRef(jniEnv, partition->mirror);
+	partition->mirror = NULL;
+	if (mirror != NULL)
+		partition->mirror = (*jniEnv)->NewGlobalRef(jniEnv, mirror);
+}
+#endif
+
+/**
+ * Creates a new arena. The memory region given to ION's psm_manage is not
+ * used here as the arena grows on its own: length is only taken as the chunk
+ * size (0 for the default one).
+ * If *psmp already is a partition it is left untouched and outcome is Redundant.
+ */
+int psm_manage(char * start, unsigned long length, char * name, PsmPartition * psmp, PsmMgtOutcome * outcome)
+{
+	PsmPartition partition;
+	if (*psmp != NULL)
+	{
+		*outcome = Redundant;
+		return 0;
+	}
+	partition = (PsmPartition) calloc(1, sizeof(struct psm_arena_str));
+	if (partition == NULL)
+	{
+		*outcome = Refused;
+		return -1;
+	}
+	if (name != NULL)
+		strncpy(partition->name, name, sizeof(partition->name) - 1);
+	partition->chunkSize = PSM_CHUNK_SIZE;
+	if (length > sizeof(PsmChunk) + sizeof(PsmBlock) + (PSM_MIN_CLASS_SIZE << (PSM_SIZE_CLASSES - 1)))
+		partition->chunkSize = length;
+	*psmp = partition;
+	*outcome = Okay;
+	return 0;
+}
+
+char * psm_name(PsmPartition partition)
+{
+	return partition->name;
+}
+
+/**
+ * Releases the whole arena: chunks, large objects and catalogue.
+ * The cost depends on the number of chunks, not on the number of live objects.
+ */
+void psm_erase(PsmPartition partition)
+{
+	PsmChunk * chunk;
+	PsmLargeBlock * large;
+	PsmCatlgEntry * entry;
+	int i;
+	if (partition == NULL)
+		return;
+	while ((chunk = partition->chunks) != NULL)
+	{
+		partition->chunks = chunk->next;
+		free(chunk);
+	}
+	while ((large = partition->largeBlocks) != NULL)
+	{
+		partition->largeBlocks = large->next;
+		free(large);
+	}
+	for (i = 0; i < PSM_CATLG_BUCKETS; i++)
+	{
+		while ((entry = partition->byName[i]) != NULL)
+		{
+			partition->byName[i] = entry->nextByName;
+			free(entry);
+		}
+	}
+#ifdef PSM_JAVA_MIRROR
+	psm_set_mirror(partition, NULL);
+#endif
+	free(partition);
+}
+
+void psm_unmanage(PsmPartition partition)
+{
+	psm_erase(partition);
+}
+
+PsmAddress	Psm_zalloc(const char * s, int n, PsmPartition partition, unsigned long length)
+{
+	PsmBlock * block;
+	PsmAddress address;
+	int sizeClass;
+	if (partition == NULL)
+		return NULL;
+	sizeClass = size_class(length);
+	if (sizeClass == PSM_LARGE_CLASS)
+		block = large_alloc(partition, length);
+	else if ((block = partition->freeBlocks[sizeClass]) != NULL)
+		partition->freeBlocks[sizeClass] = block->link.nextFree;
+	else
+		block = slab_alloc(partition, sizeClass);
+	if (block == NULL)
 		return NULL;
-	return pointer;
+	block->link.owner = partition;
+	block->inUse = 1;
+	address = (PsmAddress) (block + 1);
+#ifdef PSM_JAVA_MIRROR
+	mirror_alloc(partition, address, length);
+#endif
+	return address;
 }
 
+/**
+ * The block goes back to the arena it was allocated from,
+ * the catalogue cleaned is the one of the given partition.
+ */
 void Psm_free(const char * s, int n, PsmPartition partition, PsmAddress address)
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionClass);
-	jmethodID method = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmFree","(J)V");
-	(*jniEnv)->CallVoidMethod(jniEnv, partition, method, address);
-	free((void *)address);
+	PsmBlock * block;
+	PsmPartition owner;
+	if (partition == NULL || address == NULL)
+		return;
+	block = ((PsmBlock *) address) - 1;
+	if (!block->inUse)
+		return;
+#ifdef PSM_JAVA_MIRROR
+	mirror_free(partition, address);
+#endif
+	if (partition->catlgCount > 0)
+		uncatlg_address(partition, address);
+	owner = block->link.owner;
+	block->inUse = 0;
+	if (block->sizeClass == PSM_LARGE_CLASS)
+	{
+		large_free(owner, block);
+		return;
+	}
+	block->link.nextFree = owner->freeBlocks[block->sizeClass];
+	owner->freeBlocks[block->sizeClass] = block;
 }
 
 int	psm_locate(PsmPartition partition , char *objName,	PsmAddress *objLocation, PsmAddress *entryElt)
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionClass);
-	jstring name = (*jniEnv)->NewStringUTF(jniEnv, objName);
-	//jclass psmAddressClass = (*jniEnv)->FindClass(jniEnv, PsmAddressClass);
-	//jmethodID constructor = (*jniEnv)->GetMethodID(jniEnv, psmAddressClass, "<init>","()V");
-	//*objLocation = (*jniEnv)->NewObject(jniEnv, psmAddressClass, constructor);
-	//*entryElt = (*jniEnv)->NewObject(jniEnv, psmAddressClass, constructor);
-	//jmethodID locate = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmLocate","(Ljava/lang/String;Ljni/test/psm/PsmAddress;Ljni/test/psm/PsmAddress;)I");
-	//jint result = (*jniEnv)->CallIntMethod(jniEnv, partition, locate, name, *objLocation, *entryElt);
-	jmethodID locate = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmLocate","(Ljava/lang/String;)J");
-	jlong result = (*jniEnv)->CallLongMethod(jniEnv, partition, locate, name);
-	if (result < 0)
+	PsmCatlgEntry * entry = find_entry(partition, objName);
+	if (entry == NULL)
 	{
 		*entryElt = 0;
 		return 0;
 	}
-	*objLocation = (PsmAddress) result;
-	*entryElt = (PsmAddress) result;
+	*objLocation = entry->address;
+	*entryElt = (PsmAddress) entry;
 	return 0;
 }
 
 int	Psm_catlg(const char * s, int n, PsmPartition partition, char *objName, PsmAddress objLocation)
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionClass);
-	//jmethodID catlg = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmCatlg","(Ljava/lang/String;Ljni/test/psm/PsmAddress;)I");
-	jmethodID catlg = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmCatlg","(Ljava/lang/String;J)I");
-	jstring name = (*jniEnv)->NewStringUTF(jniEnv, objName);
-	jint result = (*jniEnv)->CallIntMethod(jniEnv, partition, catlg, name, (jlong) objLocation);
-	return result;
+	PsmCatlgEntry * entry;
+	unsigned int bucket;
+	if (find_entry(partition, objName) != NULL)
+		return -1;
+	entry = (PsmCatlgEntry *) malloc(sizeof(PsmCatlgEntry) + strlen(objName));
+	if (entry == NULL)
+		return -1;
+	strcpy(entry->name, objName);
+	entry->address = objLocation;
+	bucket = name_bucket(objName);
+	entry->nextByName = partition->byName[bucket];
+	partition->byName[bucket] = entry;
+	bucket = address_bucket(objLocation);
+	entry->nextByAddress = partition->byAddress[bucket];
+	partition->byAddress[bucket] = entry;
+	partition->catlgCount++;
+#ifdef PSM_JAVA_MIRROR
+	mirror_catlg(partition, objName, objLocation, 1);
+#endif
+	return 0;
 }
 
 int	Psm_uncatlg(const char * s, int n, PsmPartition partition, char *objName)
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionClass);
-	jmethodID uncatlg = (*jniEnv)->GetMethodID(jniEnv, psmPartitionClass, "psmUncatlg","(Ljava/lang/String;)I");
-	jstring name = (*jniEnv)->NewStringUTF(jniEnv, objName);
-	jint result = (*jniEnv)->CallIntMethod(jniEnv, partition, uncatlg, name);
-	return result;
+	PsmCatlgEntry * entry = find_entry(partition, objName);
+	if (entry == NULL)
+		return -1;
+	unlink_by_name(partition, entry);
+	unlink_by_address(partition, entry);
+	partition->catlgCount--;
+	free(entry);
+#ifdef PSM_JAVA_MIRROR
+	mirror_catlg(partition, objName, NULL, 0);
+#endif
+	return 0;
 }
 
 void * psp(PsmPartition partition, PsmAddress address)
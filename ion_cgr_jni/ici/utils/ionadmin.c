@@ -10,8 +10,9 @@
 #include "ion.h"
 #include "platform.h"
 #include "rfx.h"
+#include "init_global.h"
 
-#define SYNTAX_ERROR printf("%s\n", "Syntax error.")
+#define SYNTAX_ERROR writeLogText("Syntax error.")
 
 static void	printText(char *text)
 {
@@ -21,19 +22,20 @@ static void	printText(char *text)
 		writeMemo(text);
 	}
 	**/
-	PUTS(text);
+	writeLogText(text);
 }
 
 static time_t	_referenceTime(time_t *newValue)
 {
-	static time_t	reftime = 0;
+	/*	One per simulation, see SimContext.	*/
+	SimContext	*context = getSimContext();
 
 	if (newValue)
 	{
-		reftime = *newValue;
+		context->ionadminReferenceTime = *newValue;
 	}
 
-	return reftime;
+	return context->ionadminReferenceTime;
 }
 
 void executeAdd(int tokenCount, char **tokens)
@@ -7,46 +7,151 @@
 
 #include "utils.h"
 
+#include <pthread.h>
+#include <stdint.h>
+#include <stdio.h>
+
 #include "ion.h"
 #include "sdr.h"
 #include "rfx.h"
 #include "shared.h"
 #include "init_global.h"
+#include "jni_handles.h"
 
 #define WM_PSM_PARTITION 0
 #define SDR_PSM_PARTITION 1
 
 char * getIonvdbName();
 
-PsmPartition getIonPsmPartition(long nodeNum, int partNum)
+/*
+ * Native registry of the PSM partitions, one per (simulation context, node, partition number).
+ * The java PsmPartitionManager is only involved when PSM_JAVA_MIRROR is set.
+ */
+#define PSM_REGISTRY_BUCKETS 64
+
+typedef struct node_partition_str
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionManagerClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionManagerClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, psmPartitionManagerClass, "getPartition","(JI)Lcgr_jni/psm/PsmPartition;");
-	jobject partition = (*jniEnv)->CallStaticObjectMethod(jniEnv, psmPartitionManagerClass, method, nodeNum, partNum);
-	if (partition == NULL)
+	SimContext *			context;
+	long				nodeNum;
+	int				partNum;
+	PsmPartition			partition;
+	struct node_partition_str *	next;
+} NodePartition;
+
+static NodePartition * nodePartitions[PSM_REGISTRY_BUCKETS];
+static pthread_mutex_t nodePartitionsLock = PTHREAD_MUTEX_INITIALIZER;
+
+static NodePartition ** findNodePartition(SimContext * context, long nodeNum, int partNum)
+{
+	unsigned long hash = ((unsigned long) nodeNum * 2 + partNum) ^ (((uintptr_t) context) >> 4);
+	NodePartition ** cur = &(nodePartitions[hash % PSM_REGISTRY_BUCKETS]);
+	while (*cur != NULL && ((*cur)->nodeNum != nodeNum || (*cur)->partNum != partNum
+			|| (*cur)->context != context))
+		cur = &((*cur)->next);
+	return cur;
+}
+
+/**
+ * Creates the partition and links it into the registry.
+ * Has to be called holding nodePartitionsLock.
+ */
+static PsmPartition addNodePartition(NodePartition ** slot, long nodeNum, int partNum)
+{
+	NodePartition * entry;
+	PsmPartition partition = NULL;
+	PsmMgtOutcome outcome;
+	char name[32];
+	snprintf(name, sizeof(name), "%s%ld", partNum == WM_PSM_PARTITION ? "wm" : "sdr", nodeNum);
+	if (psm_manage(NULL, 0, name, &partition, &outcome) < 0)
+		return NULL;
+	entry = (NodePartition *) malloc(sizeof(NodePartition));
+	if (entry == NULL)
+	{
+		psm_erase(partition);
+		return NULL;
+	}
+	entry->context = getSimContext();
+	entry->nodeNum = nodeNum;
+	entry->partNum = partNum;
+	entry->partition = partition;
+	entry->next = NULL;
+	*slot = entry;
+#ifdef PSM_JAVA_MIRROR
 	{
-		method = (*jniEnv)->GetStaticMethodID(jniEnv, psmPartitionManagerClass, "newPartition","(JI)Lcgr_jni/psm/PsmPartition;");
-		partition = (*jniEnv)->CallStaticObjectMethod(jniEnv, psmPartitionManagerClass, method, nodeNum, partNum);
+		JNIEnv * jniEnv = getThreadLocalEnv();
+		PsmPartitionManagerHandles * h = &(getJniHandles()->psmPartitionManager);
+		jobject mirror = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->newPartition, nodeNum, partNum);
+		psm_set_mirror(partition, mirror);
+		(*jniEnv)->DeleteLocalRef(jniEnv, mirror);
 	}
-	return (PsmPartition) partition;
+#endif
+	return partition;
 }
 
+PsmPartition getIonPsmPartition(long nodeNum, int partNum)
+{
+	NodePartition ** slot;
+	PsmPartition partition;
+	pthread_mutex_lock(&nodePartitionsLock);
+	slot = findNodePartition(getSimContext(), nodeNum, partNum);
+	if (*slot != NULL)
+		partition = (*slot)->partition;
+	else
+		partition = addNodePartition(slot, nodeNum, partNum);
+	pthread_mutex_unlock(&nodePartitionsLock);
+	return partition;
+}
+
+/**
+ * Returns the partition of the node, creating it if needed.
+ * An existing partition is kept as it is (same as psm_manage with outcome Redundant).
+ */
 PsmPartition newIonPsmPartition(long nodeNum, int partNum)
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionManagerClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionManagerClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, psmPartitionManagerClass, "newPartition","(JI)Lcgr_jni/psm/PsmPartition;");
-	jobject partition = (*jniEnv)->CallStaticObjectMethod(jniEnv, psmPartitionManagerClass, method, nodeNum, partNum);
-	return (PsmPartition) partition;
+	return getIonPsmPartition(nodeNum, partNum);
 }
 
+/**
+ * Releases the whole partition in one go.
+ */
 void eraseIonPsmPartition(long nodeNum, int partNum)
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass psmPartitionManagerClass = (*jniEnv)->FindClass(jniEnv, PsmPartitionManagerClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, psmPartitionManagerClass, "erasePartition","(JI)V");
-	(*jniEnv)->CallStaticVoidMethod(jniEnv, psmPartitionManagerClass, method, nodeNum, partNum);
+	NodePartition ** slot;
+	NodePartition * entry;
+	pthread_mutex_lock(&nodePartitionsLock);
+	slot = findNodePartition(getSimContext(), nodeNum, partNum);
+	entry = *slot;
+	if (entry != NULL)
+		*slot = entry->next;
+	pthread_mutex_unlock(&nodePartitionsLock);
+	if (entry == NULL)
+		return;
+	if (nodeNum == getNodeNum())
+		setNodePartition(partNum, NULL);
+	psm_erase(entry->partition);
+	free(entry);
+#ifdef PSM_JAVA_MIRROR
+	{
+		JNIEnv * jniEnv = getThreadLocalEnv();
+		PsmPartitionManagerHandles * h = &(getJniHandles()->psmPartitionManager);
+		(*jniEnv)->CallStaticVoidMethod(jniEnv, h->clazz, h->erasePartition, nodeNum, partNum);
+	}
+#endif
+}
+
+/**
+ * Returns the partition of the current node without locking the registry
+ * once it has been resolved for this entry point.
+ */
+static PsmPartition getCurrentNodePartition(int partNum)
+{
+	PsmPartition partition = getNodePartition(partNum);
+	if (partition == NULL)
+	{
+		partition = getIonPsmPartition(getNodeNum(), partNum);
+		setNodePartition(partNum, partition);
+	}
+	return partition;
 }
 
 void initIonWm()
@@ -59,7 +164,7 @@ void destroyIonWm()
 }
 PsmPartition getIonWm()
 {
-	return getIonPsmPartition(getNodeNum(), WM_PSM_PARTITION);
+	return getCurrentNodePartition(WM_PSM_PARTITION);
 }
 
 void initIonSdr()
@@ -72,7 +177,7 @@ void destroyIonSdr()
 }
 Sdr	getIonSdr()
 {
-	return getIonPsmPartition(getNodeNum(), SDR_PSM_PARTITION);
+	return getCurrentNodePartition(SDR_PSM_PARTITION);
 }
 
 IonDB * createIonDb(Sdr ionsdr, IonDB * iondbPtr)
@@ -6,27 +6,64 @@
  */
 
 #include <jni.h>
+#include <stddef.h>
 
 #include "bpP.h"
 #include "cgr.h"
+#include "rfx.h"
 #include "shared.h"
 #include "utils.h"
 #include "init_global.h"
+#include "jni_handles.h"
+#include "jni_log.h"
+#include "ONEtoION_interface.h"
 
 const char * jMessageClass = "core/Message";
 const char * jOuductClass = "routing/ContactGraphRouting$Outduct";
-const char * ONEtoION_interfaceClass = "cgr_jni/IONInterface";
 
 pthread_key_t interfaceInfo_key;
 
+/**
+ * Per node scratch state, kept across the routing calls so that
+ * a steady-state route lookup doesn't allocate anything.
+ * Created on the first routing call for the node and released by wipe_node_scratch().
+ */
+struct NodeScratch_t {
+	SimContext * context;
+	long nodeNum;
+	Object bundleObj;	/* SDR Bundle reused by every call */
+	Object eventObj;	/* SDR BpEvent reused as xmitOverdue event */
+	/* result-out mode: SDR outducts built from the outduct table, same order of the table */
+	Object outductList;
+	Object * outductElts;
+	uvast * outductNodes;
+	int outductCount;
+	int outductCapacity;
+	struct NodeScratch_t * next;
+};
+typedef struct NodeScratch_t NodeScratch;
+
+#define NODE_SCRATCH_BUCKETS 64
+static NodeScratch * nodeScratch[NODE_SCRATCH_BUCKETS];
+static pthread_mutex_t nodeScratchLock = PTHREAD_MUTEX_INITIALIZER;
+
 struct InterfaceInfo_t {
 	jobject currentMessage;
 	Object outductList;
 	int forwardResult;
+	time_t forfeitTime;
+	jlong forwardFlags;
+	int outductIndex;
+	/* result-out mode: outduct table supplied by the caller, no upcalls */
+	jlong * outductTable;
+	int outductCount;
+	NodeScratch * scratch;
 };
 typedef struct InterfaceInfo_t InterfaceInfo;
 
-InterfaceInfo * interfaceInfo;
+/* set at every entry point from getInterfaceInfo(), one per thread
+ * so that nodes can be routed concurrently */
+static __thread InterfaceInfo * interfaceInfo;
 
 
 #ifndef CGR_DEBUG
@@ -39,54 +76,84 @@ static void	printCgrTraceLine(void *data, unsigned int lineNbr,
 {
 	va_list args;
 	const char *text;
+	char line[1024];
 
+	if (!isLogEnabled(JNI_LOG_DEBUG))
+		return;
 	va_start(args, traceType);
 
 	text = cgr_tracepoint_text(traceType);
-	printf("NODE %ld: ", getNodeNum());
-	vprintf(text, args);
-	putchar('\n');
+	vsnprintf(line, sizeof line, text, args);
+	jniLogText(JNI_LOG_DEBUG, line);
 
 	va_end(args);
 }
 #endif
 
 
-static InterfaceInfo * setInterfaceInfo(InterfaceInfo * interfaceInfo)
+/**
+ * Returns the InterfaceInfo of the current thread.
+ * It is allocated on first use and released when the thread exits.
+ */
+static InterfaceInfo * getInterfaceInfo()
 {
-	if ((pthread_getspecific(interfaceInfo_key)) == NULL)
+	InterfaceInfo * result = pthread_getspecific(interfaceInfo_key);
+	if (result == NULL)
 	{
-		pthread_setspecific(interfaceInfo_key, interfaceInfo);
+		result = malloc(sizeof(InterfaceInfo));
+		memset(result, 0, sizeof(InterfaceInfo));
+		pthread_setspecific(interfaceInfo_key, result);
 	}
-	return interfaceInfo;
+	return result;
 }
-static InterfaceInfo * getInterfaceInfo()
+
+/**
+ * Returns the scratch state of the current node, creating it if needed.
+ */
+static NodeScratch * getNodeScratch()
 {
-	return pthread_getspecific(interfaceInfo_key);
+	SimContext * context = getSimContext();
+	long nodeNum = getNodeNum();
+	int bucket = (int) ((unsigned long) nodeNum % NODE_SCRATCH_BUCKETS);
+	NodeScratch * scratch;
+	pthread_mutex_lock(&nodeScratchLock);
+	for (scratch = nodeScratch[bucket]; scratch != NULL; scratch = scratch->next)
+	{
+		if (scratch->nodeNum == nodeNum && scratch->context == context)
+			break;
+	}
+	if (scratch == NULL)
+	{
+		scratch = malloc(sizeof(NodeScratch));
+		memset(scratch, 0, sizeof(NodeScratch));
+		scratch->context = context;
+		scratch->nodeNum = nodeNum;
+		scratch->next = nodeScratch[bucket];
+		nodeScratch[bucket] = scratch;
+	}
+	pthread_mutex_unlock(&nodeScratchLock);
+	return scratch;
 }
 
 static uvast getMessageSenderNbr(jobject message)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getMessageSenderNbr","(Lcore/Message;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, interfaceClass, method, message);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getMessageSenderNbr, message);
 	return (uvast) result;
 }
 static uvast getMessageDestinationNbr(jobject message)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getMessageDestinationNbr","(Lcore/Message;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, interfaceClass, method, message);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getMessageDestinationNbr, message);
 	return (uvast) result;
 }
 static unsigned int getMessageCreationTime(jobject message)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getMessageCreationTime","(Lcore/Message;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, interfaceClass, method, message);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getMessageCreationTime, message);
 	return (uvast) result + getONEReferenceTime();
 }
 /**
@@ -95,9 +162,8 @@ static unsigned int getMessageCreationTime(jobject message)
 static unsigned int getMessageTTL(jobject message)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getMessageTTL","(Lcore/Message;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, interfaceClass, method, message);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getMessageTTL, message);
 	return (uvast) result;
 }
 /**
@@ -106,20 +172,18 @@ static unsigned int getMessageTTL(jobject message)
 static unsigned int getMessageSize(jobject message)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getMessageSize","(Lcore/Message;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, interfaceClass, method, message);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getMessageSize, message);
 	return (uvast) result;
 }
 
 static void updateMessageForfeitTime(jobject message, time_t forfeitTime)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
 	time_t oneTime;
 	oneTime = convertIonTimeToOne(forfeitTime);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "updateMessageForfeitTime","(Lcore/Message;J)V");
-	(*jniEnv)->CallStaticVoidMethod(jniEnv, interfaceClass, method, message, oneTime);
+	(*jniEnv)->CallStaticVoidMethod(jniEnv, h->clazz, h->updateMessageForfeitTime, message, oneTime);
 }
 /**
  * return true if the outduct is blocked (in ONE this should return always false)
@@ -127,9 +191,8 @@ static void updateMessageForfeitTime(jobject message, time_t forfeitTime)
 static bool_t isOutductBlocked(jobject jOutduct)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "isOutductBlocked","(Lrouting/ContactGraphRouter$Outduct;)Z");
-	jboolean result = (*jniEnv)->CallStaticBooleanMethod(jniEnv, interfaceClass, method, jOutduct);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jboolean result = (*jniEnv)->CallStaticBooleanMethod(jniEnv, h->clazz, h->isOutductBlocked, jOutduct);
 	return (bool_t) result;
 }
 /**
@@ -144,9 +207,8 @@ static char * getOutductName(jobject jOutduct, char * outductName)
 	if (outductName == NULL)
 		return NULL;
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getOutductName","(Lrouting/ContactGraphRouter$Outduct;)Ljava/lang/String;");
-	jstring result = (*jniEnv)->CallStaticObjectMethod(jniEnv, interfaceClass, method, jOutduct);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jstring result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->getOutductName, jOutduct);
 	const char * nativeString = (*jniEnv)->GetStringUTFChars(jniEnv, result, NULL);
 	strcpy(outductName, nativeString);
 	(*jniEnv)->ReleaseStringUTFChars(jniEnv, result, nativeString);
@@ -158,9 +220,8 @@ static char * getOutductName(jobject jOutduct, char * outductName)
 static unsigned int getMaxPayloadLen(jobject jOutduct)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getMaxPayloadLen","(Lrouting/ContactGraphRouter$Outduct;)I");
-	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, interfaceClass, method, jOutduct);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, h->clazz, h->getMaxPayloadLen, jOutduct);
 	return (uvast) result;
 }
 /**
@@ -169,9 +230,8 @@ static unsigned int getMaxPayloadLen(jobject jOutduct)
 static jobject getONEOutductToNode(uvast localNodeNbr, uvast toNodeNbr)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getONEOutductToNode","(JJ)Lrouting/ContactGraphRouter$Outduct;");
-	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, interfaceClass, method, localNodeNbr, toNodeNbr);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jobject result = (*jniEnv)->CallStaticObjectMethod(jniEnv, h->clazz, h->getONEOutductToNode, getSimContextHandle(), localNodeNbr, toNodeNbr);
 	return result;
 }
 
@@ -181,9 +241,8 @@ static jobject getONEOutductToNode(uvast localNodeNbr, uvast toNodeNbr)
 static long getOutductTotalEnqueuedBytes(jobject jOutduct)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "getOutductTotalEnququedBytes","(Lrouting/ContactGraphRouter$Outduct;)J");
-	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, interfaceClass, method, jOutduct);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jlong result = (*jniEnv)->CallStaticLongMethod(jniEnv, h->clazz, h->getOutductTotalEnqueuedBytes, jOutduct);
 	return (long) result;
 }
 
@@ -198,9 +257,8 @@ static jobject cloneMessage(jobject jMessage)
 static int insertBundleIntoOutduct(uvast localNodeNbr, jobject message, uvast toNodeNbr)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "insertBundleIntoOutduct","(JLcore/Message;J)I");
-	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, interfaceClass, method, localNodeNbr, message, toNodeNbr);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, h->clazz, h->insertBundleIntoOutduct, getSimContextHandle(), localNodeNbr, message, toNodeNbr);
 	return (int) result;
 }
 /**
@@ -209,26 +267,20 @@ static int insertBundleIntoOutduct(uvast localNodeNbr, jobject message, uvast to
 static int insertBundleIntoLimbo(uvast localNodeNbr, jobject message)
 {
 	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass interfaceClass = (*jniEnv)->FindClass(jniEnv, ONEtoION_interfaceClass);
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, interfaceClass, "insertBundleIntoLimbo","(JLcore/Message;J)I");
-	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, interfaceClass, method, localNodeNbr, message);
+	IONInterfaceHandles * h = &(getJniHandles()->ionInterface);
+	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, h->clazz, h->insertBundleIntoLimbo, getSimContextHandle(), localNodeNbr, message);
 	return (int) result;
 }
 
 /**
- * Convert a java Message object to an ION Bundle
+ * Init the fields of an ION Bundle that don't depend on the java Message
  */
-void ion_bundle(Bundle * bundle, jobject message)
+static void ion_bundle_defaults(Bundle * bundle)
 {
 	memset(bundle, 0, sizeof(Bundle));
 	bundle->returnToSender = 1;
-	bundle->clDossier.senderNodeNbr = getMessageSenderNbr(message);
-	//bundle->expirationTime = getMessageCreationTime(message) + getMessageTTL(message);
-	bundle->expirationTime = getSimulatedUTCTime() + getMessageTTL(message);
-	bundle->destination.c.nodeNbr = getMessageDestinationNbr(message);
 	bundle->destination.c.serviceNbr = 0;
 	bundle->destination.cbhe = 1;
-	bundle->payload.length = getMessageSize(message);
 	bundle->bundleProcFlags = BDL_DOES_NOT_FRAGMENT;
 	bundle->extendedCOS.ordinal = 0;
 	bundle->extendedCOS.flags = 0;
@@ -237,6 +289,35 @@ void ion_bundle(Bundle * bundle, jobject message)
 	bundle->extensionsLength[POST_PAYLOAD] = 0;
 }
 
+/**
+ * Convert a message descriptor (see Libcgr.fillDescriptor()) to an ION Bundle.
+ * No upcalls are performed.
+ */
+void ion_bundle_from_descriptor(Bundle * bundle, const jlong * descriptor)
+{
+	ion_bundle_defaults(bundle);
+	bundle->clDossier.senderNodeNbr = (uvast) descriptor[DESC_SENDER_NBR];
+	//bundle->expirationTime = descriptor[DESC_CREATION_TIME] + getONEReferenceTime() + descriptor[DESC_TTL];
+	bundle->expirationTime = getSimulatedUTCTime() + (unsigned int) descriptor[DESC_TTL];
+	bundle->destination.c.nodeNbr = (uvast) descriptor[DESC_DESTINATION_NBR];
+	bundle->payload.length = (unsigned int) descriptor[DESC_SIZE];
+	bundle->bundleProcFlags |= ((unsigned int) descriptor[DESC_PRIORITY] & 0x03) << 7;
+	bundle->extendedCOS.ordinal = (unsigned char) descriptor[DESC_ORDINAL];
+}
+
+/**
+ * Convert a java Message object to an ION Bundle
+ */
+void ion_bundle(Bundle * bundle, jobject message)
+{
+	ion_bundle_defaults(bundle);
+	bundle->clDossier.senderNodeNbr = getMessageSenderNbr(message);
+	//bundle->expirationTime = getMessageCreationTime(message) + getMessageTTL(message);
+	bundle->expirationTime = getSimulatedUTCTime() + getMessageTTL(message);
+	bundle->destination.c.nodeNbr = getMessageDestinationNbr(message);
+	bundle->payload.length = getMessageSize(message);
+}
+
 /**
  * Convert a java Outduct object into an ION Outduct
  */
@@ -248,10 +329,151 @@ void ion_outduct(Outduct * duct, jobject jOutduct)
 	duct->blocked = isOutductBlocked(jOutduct);
 	duct->maxPayloadLen = getMaxPayloadLen(jOutduct);
 	totEnqueued = getOutductTotalEnqueuedBytes(jOutduct);
-	loadScalar(&(duct->stdBacklog), totEnqueued);
+	// priorities are unknown here: as urgent, every bundle sees them as prior claims
+	loadScalar(&(duct->urgentBacklog), totEnqueued);
 	strncpy(duct->name, getOutductName(jOutduct, buf), MAX_CL_DUCT_NAME_LEN);
 }
 
+/**
+ * Returns the index of nodeNbr into the outduct table of the current call
+ * or -1 if there is no outduct to nodeNbr.
+ */
+static int findOutductInTable(uvast nodeNbr)
+{
+	int i;
+	for (i = 0; i < interfaceInfo->outductCount; i++)
+	{
+		if ((uvast) interfaceInfo->outductTable[i * OUTDUCT_LENGTH + OUTDUCT_NODE_NBR] == nodeNbr)
+			return i;
+	}
+	return -1;
+}
+
+/**
+ * Build an ION Outduct from an entry of the outduct table,
+ * with the same values IONInterface would return.
+ */
+static void table_outduct(Outduct * duct, const jlong * entry)
+{
+	memset(duct, 0, sizeof(Outduct));
+	duct->blocked = 0;
+	duct->maxPayloadLen = ONE_MAX_PAYLOAD_LEN;
+	loadScalar(&(duct->bulkBacklog), (long) entry[OUTDUCT_BULK_BACKLOG]);
+	loadScalar(&(duct->stdBacklog), (long) (entry[OUTDUCT_BACKLOG]
+			- entry[OUTDUCT_BULK_BACKLOG] - entry[OUTDUCT_URGENT_BACKLOG]));
+	loadScalar(&(duct->urgentBacklog), (long) entry[OUTDUCT_URGENT_BACKLOG]);
+	snprintf(duct->name, MAX_CL_DUCT_NAME_LEN, UVAST_FIELDSPEC, (uvast) entry[OUTDUCT_NODE_NBR]);
+}
+
+/**
+ * Releases the SDR outducts cached into scratch.
+ */
+static void wipe_outduct_cache(NodeScratch * scratch)
+{
+	Sdr sdr = getIonsdr();
+	Object outductElt;
+	if (scratch->outductList != NULL)
+	{
+		for (outductElt = sdr_list_first(sdr, scratch->outductList); outductElt != NULL;
+				outductElt = sdr_list_next(sdr, outductElt))
+		{
+			sdr_free(sdr, sdr_list_data(sdr, outductElt));
+		}
+		sdr_list_destroy(sdr, scratch->outductList, NULL, NULL);
+	}
+	scratch->outductList = NULL;
+	scratch->outductCount = 0;
+}
+
+/**
+ * Makes the SDR outducts cached into scratch match the outduct table.
+ * They are rebuilt only if the set of outducts (i.e. the neighbor nodes,
+ * in table order) has changed since the last call; the backlog is
+ * refreshed on every directive lookup.
+ */
+static void sync_outduct_cache(NodeScratch * scratch, const jlong * outductTable, int outductCount)
+{
+	Sdr sdr = getIonsdr();
+	Outduct outduct;
+	Object outductObj;
+	int i;
+	if (scratch->outductList != NULL && scratch->outductCount == outductCount)
+	{
+		for (i = 0; i < outductCount; i++)
+		{
+			if (scratch->outductNodes[i] != (uvast) outductTable[i * OUTDUCT_LENGTH + OUTDUCT_NODE_NBR])
+				break;
+		}
+		if (i == outductCount)
+			return;
+	}
+	// the java outduct set has changed
+	wipe_outduct_cache(scratch);
+	if (scratch->outductCapacity < outductCount)
+	{
+		scratch->outductElts = realloc(scratch->outductElts, outductCount * sizeof(Object));
+		scratch->outductNodes = realloc(scratch->outductNodes, outductCount * sizeof(uvast));
+		scratch->outductCapacity = outductCount;
+	}
+	scratch->outductList = sdr_list_create(sdr);
+	for (i = 0; i < outductCount; i++)
+	{
+		table_outduct(&outduct, outductTable + i * OUTDUCT_LENGTH);
+		outductObj = sdr_malloc(sdr, sizeof(Outduct));
+		sdr_write(sdr, outductObj, (char*)&outduct, sizeof(Outduct));
+		scratch->outductElts[i] = sdr_list_insert_last(sdr, scratch->outductList, outductObj);
+		scratch->outductNodes[i] = (uvast) outductTable[i * OUTDUCT_LENGTH + OUTDUCT_NODE_NBR];
+	}
+	scratch->outductCount = outductCount;
+}
+
+/**
+ * Releases the scratch state of the current node.
+ * Must be called before the node partitions are destroyed.
+ */
+void wipe_node_scratch()
+{
+	SimContext * context = getSimContext();
+	long nodeNum = getNodeNum();
+	int bucket = (int) ((unsigned long) nodeNum % NODE_SCRATCH_BUCKETS);
+	NodeScratch ** prev;
+	NodeScratch * scratch = NULL;
+	pthread_mutex_lock(&nodeScratchLock);
+	for (prev = &(nodeScratch[bucket]); *prev != NULL; prev = &((*prev)->next))
+	{
+		if ((*prev)->nodeNum == nodeNum && (*prev)->context == context)
+		{
+			scratch = *prev;
+			*prev = scratch->next;
+			break;
+		}
+	}
+	pthread_mutex_unlock(&nodeScratchLock);
+	if (scratch == NULL)
+		return;
+	wipe_outduct_cache(scratch);
+	if (scratch->bundleObj != 0)
+		sdr_free(getIonsdr(), scratch->bundleObj);
+	if (scratch->eventObj != 0)
+		sdr_free(getIonsdr(), scratch->eventObj);
+	free(scratch->outductElts);
+	free(scratch->outductNodes);
+	free(scratch);
+}
+
+/**
+ * Returns the SDR object to be used for the xmitOverdue event of the bundle
+ * being routed. In ONE the event is only read back by bpEnqueONE(), so the same
+ * object is reused for every bundle of the node.
+ */
+Object getONETimelineEventObj()
+{
+	NodeScratch * scratch = getNodeScratch();
+	if (scratch->eventObj == 0)
+		scratch->eventObj = sdr_malloc(getIonsdr(), sizeof(BpEvent));
+	return scratch->eventObj;
+}
+
 void init_ouduct_list()
 {
 	interfaceInfo->outductList = sdr_list_create(getIonsdr());
@@ -289,8 +511,28 @@ int	getONEDirective(uvast nodeNbr, Object plans, Bundle *bundle,
 	Outduct outduct;
 	Object outductObj;
 	Object outductElt;
-	jOutduct = getONEOutductToNode(getNodeNum(), nodeNbr);
 	char outductName[MAX_CL_DUCT_NAME_LEN];
+	int tableIndex;
+	Outduct backlog;
+	if (interfaceInfo->outductTable != NULL)
+	{
+		// result-out mode: outducts are cached into the node scratch
+		tableIndex = findOutductInTable(nodeNbr);
+		if (tableIndex < 0)
+			return 0;
+		outductElt = interfaceInfo->scratch->outductElts[tableIndex];
+		outductObj = sdr_list_data(getIonsdr(), outductElt);
+		table_outduct(&backlog, interfaceInfo->outductTable + tableIndex * OUTDUCT_LENGTH);
+		sdr_write(getIonsdr(), (Object) ((char *) outductObj + offsetof(Outduct, bulkBacklog)),
+				(char*)&backlog.bulkBacklog, sizeof(Scalar));
+		sdr_write(getIonsdr(), (Object) ((char *) outductObj + offsetof(Outduct, stdBacklog)),
+				(char*)&backlog.stdBacklog, sizeof(Scalar));
+		sdr_write(getIonsdr(), (Object) ((char *) outductObj + offsetof(Outduct, urgentBacklog)),
+				(char*)&backlog.urgentBacklog, sizeof(Scalar));
+		directive->outductElt = outductElt;
+		return 1;
+	}
+	jOutduct = getONEOutductToNode(getNodeNum(), nodeNbr);
 	if (jOutduct != NULL)
 	{
 		// init outduct list if not yet initialized
@@ -315,17 +557,12 @@ int	getONEDirective(uvast nodeNbr, Object plans, Bundle *bundle,
 }
 
 /**
- * Entry point for Contact Graph Router library
- * Tries to find the best route to terminusNodeNbr using libcgr.
- * If a feasible route is found, the bundle is enqueued into an outduct using bpEnqueONE().
- * If not, no operations are performed.
- * Returns the nodeNbr of the proximate node that the bundle has been enqueued to
- * or 0 if no proximate nodes have been found
- * or -1 in case of any error.
+ * Runs libcgr on an already converted bundle.
+ * bundleONE is the java Message the bundle has been built from.
  */
-int cgrForwardONE(jobject bundleONE, jlong terminusNodeNbr)
+static int cgrForwardBundle(jobject bundleONE, Bundle * bundle, jlong terminusNodeNbr,
+		jlong * outductTable, int outductCount, jlong * forwardResult)
 {
-	Bundle *bundle;
 	Object bundleObj;
 	Object plans = (Object) 42; // this value will never be read but it is needed to pass the null check in cgr_forward()
 	int result;
@@ -336,26 +573,264 @@ int cgrForwardONE(jobject bundleONE, jlong terminusNodeNbr)
 	traceBuf.data = NULL;
 	trace = &traceBuf;
 #endif
-	interfaceInfo = malloc(sizeof(InterfaceInfo));
+	interfaceInfo = getInterfaceInfo();
+	interfaceInfo->scratch = getNodeScratch();
 	interfaceInfo->forwardResult = 0;
+	interfaceInfo->forfeitTime = 0;
+	interfaceInfo->forwardFlags = 0;
+	interfaceInfo->outductIndex = -1;
+	interfaceInfo->outductTable = outductTable;
+	interfaceInfo->outductCount = outductCount;
 	interfaceInfo->currentMessage = bundleONE;
 	interfaceInfo->outductList = NULL;
-	setInterfaceInfo(interfaceInfo);
-	bundle = malloc(sizeof(Bundle));
-	ion_bundle(bundle, bundleONE);
-	bundleObj = sdr_malloc(getIonsdr(), sizeof(Bundle));
+	if (outductTable != NULL)
+		sync_outduct_cache(interfaceInfo->scratch, outductTable, outductCount);
+	if (interfaceInfo->scratch->bundleObj == 0)
+		interfaceInfo->scratch->bundleObj = sdr_malloc(getIonsdr(), sizeof(Bundle));
+	bundleObj = interfaceInfo->scratch->bundleObj;
 	sdr_write(getIonsdr(), bundleObj, (char*)bundle, sizeof(Bundle));
 	result = cgr_forward(bundle, bundleObj, (uvast) terminusNodeNbr,
 			plans, getONEDirective, trace);
-	wipe_outduct_list();
+	if (outductTable == NULL)
+		wipe_outduct_list();
 	if (result >= 0)
 		result = interfaceInfo->forwardResult;
-	sdr_free(getIonsdr(), bundleObj);
-	free(interfaceInfo);
-	free(bundle);
+	if (forwardResult != NULL)
+	{
+		forwardResult[RESULT_PROXIMATE_NODE] = result;
+		forwardResult[RESULT_FORFEIT_TIME] = interfaceInfo->forfeitTime;
+		forwardResult[RESULT_FLAGS] = interfaceInfo->forwardFlags;
+		forwardResult[RESULT_OUTDUCT_INDEX] = interfaceInfo->outductIndex;
+	}
+	interfaceInfo->currentMessage = NULL;
+	interfaceInfo->outductTable = NULL;
 	return result;
 }
 
+/**
+ * Entry point for Contact Graph Router library
+ * Tries to find the best route to terminusNodeNbr using libcgr.
+ * If a feasible route is found, the bundle is enqueued into an outduct using bpEnqueONE().
+ * If not, no operations are performed.
+ * Returns the nodeNbr of the proximate node that the bundle has been enqueued to
+ * or 0 if no proximate nodes have been found
+ * or -1 in case of any error.
+ */
+int cgrForwardONE(jobject bundleONE, jlong terminusNodeNbr)
+{
+	Bundle bundle;
+	ion_bundle(&bundle, bundleONE);
+	return cgrForwardBundle(bundleONE, &bundle, terminusNodeNbr, NULL, 0, NULL);
+}
+
+/**
+ * Same as cgrForwardONE() but the bundle is built from a message descriptor
+ * (see ion_bundle_from_descriptor()) instead of reading each field from bundleONE.
+ */
+int cgrForwardONEDescriptor(jobject bundleONE, const jlong * descriptor, jlong terminusNodeNbr)
+{
+	Bundle bundle;
+	ion_bundle_from_descriptor(&bundle, descriptor);
+	return cgrForwardBundle(bundleONE, &bundle, terminusNodeNbr, NULL, 0, NULL);
+}
+
+/**
+ * Routes count bundles in a row.
+ * descriptors holds count message descriptors (DESC_LENGTH elements each),
+ * termini the terminus node of every bundle.
+ * For every bundle, results receives RESULT_LENGTH elements: the proximate node
+ * as returned by cgrForwardONE(), the forfeit time (ONE time, 0 if not routed),
+ * the RESULT_FLAG_* flags and the outduct index (always -1 here).
+ * Returns the number of bundles processed.
+ */
+int cgrForwardONEBatch(jobjectArray bundlesONE, int count, const jlong * descriptors,
+		const jlong * termini, jlong * results)
+{
+	JNIEnv * jniEnv = getThreadLocalEnv();
+	Bundle bundle;
+	jobject bundleONE;
+	int i;
+	for (i = 0; i < count; i++)
+	{
+		bundleONE = (*jniEnv)->GetObjectArrayElement(jniEnv, bundlesONE, i);
+		ion_bundle_from_descriptor(&bundle, descriptors + i * DESC_LENGTH);
+		cgrForwardBundle(bundleONE, &bundle, termini[i], NULL, 0,
+				results + i * RESULT_LENGTH);
+		(*jniEnv)->DeleteLocalRef(jniEnv, bundleONE);
+	}
+	return i;
+}
+
+/**
+ * Result-out mode: routes count bundles without any upcall.
+ * Outducts are described by outductTable (outductCount entries of
+ * OUTDUCT_LENGTH elements: neighbor node and enqueued bytes) instead of being
+ * read from the ONE router, and no bundle is enqueued: for every bundle the
+ * routing decision is written into results (see cgrForwardONEBatch())
+ * together with the index of the chosen outduct into outductTable.
+ * The backlog of the chosen outduct is increased by the bundle size so that
+ * the following bundles see it.
+ * Returns the number of bundles processed.
+ */
+int cgrForwardONEResult(int count, const jlong * descriptors, const jlong * termini,
+		jlong * outductTable, int outductCount, jlong * results)
+{
+	Bundle bundle;
+	int i;
+	for (i = 0; i < count; i++)
+	{
+		ion_bundle_from_descriptor(&bundle, descriptors + i * DESC_LENGTH);
+		cgrForwardBundle(NULL, &bundle, termini[i], outductTable, outductCount,
+				results + i * RESULT_LENGTH);
+	}
+	return i;
+}
+
+/**
+ * Writes into neighbors the nodes the local node has a contact to,
+ * each node once (contactIndex is sorted by from node and to node).
+ * Returns the number of neighbors, which can be greater than capacity:
+ * in that case only the first capacity ones are written.
+ */
+int getContactPlanNeighbors(jlong * neighbors, int capacity)
+{
+	PsmPartition ionwm = getIonwm();
+	IonVdb * ionvdb = getIonVdb();
+	uvast ownNodeNbr = getNodeNum();
+	uvast lastNodeNbr = 0;
+	PsmAddress elt;
+	IonCXref * contact;
+	int count = 0;
+	if (ionvdb == NULL)
+		return 0;
+	for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex); elt;
+			elt = sm_rbt_next(ionwm, elt))
+	{
+		contact = (IonCXref *) psp(ionwm, sm_rbt_data(ionwm, elt));
+		if (contact->fromNode != ownNodeNbr)
+			continue;
+		if (count > 0 && contact->toNode == lastNodeNbr)
+			continue;
+		if (count < capacity)
+			neighbors[count] = (jlong) contact->toNode;
+		lastNodeNbr = contact->toNode;
+		count++;
+	}
+	return count;
+}
+
+/**
+ * Returns the ONE time of the earliest contact opening after now that
+ * leaves the local node or reaches destination, -1 if there is none.
+ */
+jlong getNextContactOpportunity(uvast destination)
+{
+	PsmPartition ionwm = getIonwm();
+	IonVdb * ionvdb = getIonVdb();
+	uvast ownNodeNbr = getNodeNum();
+	time_t now = getSimulatedUTCTime();
+	time_t next = 0;
+	PsmAddress elt;
+	IonCXref * contact;
+	if (ionvdb == NULL)
+		return -1;
+	for (elt = sm_rbt_first(ionwm, ionvdb->contactIndex); elt;
+			elt = sm_rbt_next(ionwm, elt))
+	{
+		contact = (IonCXref *) psp(ionwm, sm_rbt_data(ionwm, elt));
+		if (contact->fromTime <= now)
+			continue;
+		if (contact->fromNode != ownNodeNbr && contact->toNode != destination)
+			continue;
+		if (next == 0 || contact->fromTime < next)
+			next = contact->fromTime;
+	}
+	if (next == 0)
+		return -1;
+	return (jlong) convertIonTimeToOne(next);
+}
+
+/**
+ * Returns the time of the last contact plan edit (ionvdb->lastEditTime).
+ */
+jlong getContactPlanEditTime()
+{
+	IonVdb * ionvdb = getIonVdb();
+	if (ionvdb == NULL)
+		return -1;
+	return (jlong) ionvdb->lastEditTime;
+}
+
+/**
+ * Finds the first contact from the local node to neighbor that hasn't
+ * ended yet and writes its CONTACT_LENGTH fields (times in ONE time).
+ * Returns 0 if found, -1 otherwise.
+ */
+int getCurrentContact(uvast neighbor, jlong * contact)
+{
+	PsmPartition ionwm = getIonwm();
+	IonVdb * ionvdb = getIonVdb();
+	uvast ownNodeNbr = getNodeNum();
+	time_t now = getSimulatedUTCTime();
+	IonCXref arg;
+	PsmAddress elt;
+	PsmAddress nextElt;
+	IonCXref * cxref;
+	if (ionvdb == NULL)
+		return -1;
+	memset((char *) &arg, 0, sizeof(IonCXref));
+	arg.fromNode = ownNodeNbr;
+	arg.toNode = neighbor;
+	elt = sm_rbt_search(ionwm, ionvdb->contactIndex, rfx_order_contacts, &arg, &nextElt);
+	if (elt == 0)
+		elt = nextElt;
+	for (; elt; elt = sm_rbt_next(ionwm, elt))
+	{
+		cxref = (IonCXref *) psp(ionwm, sm_rbt_data(ionwm, elt));
+		if (cxref->fromNode != ownNodeNbr || cxref->toNode != neighbor)
+			break;
+		if (cxref->toTime <= now)
+			continue;
+		contact[CONTACT_FROM_TIME] = (jlong) convertIonTimeToOne(cxref->fromTime);
+		contact[CONTACT_TO_TIME] = (jlong) convertIonTimeToOne(cxref->toTime);
+		contact[CONTACT_XMIT_RATE] = (jlong) cxref->xmitRate;
+		return 0;
+	}
+	return -1;
+}
+
+/**
+ * Saves the routing decision for the caller (result-out mode).
+ * Only the first proximate node is kept; any further one
+ * would need a clone of the bundle and is just flagged.
+ */
+static void setForwardResult(uvast proximateNodeNbr, time_t forfeitTime, Bundle * bundle)
+{
+	int index;
+	if (interfaceInfo->forwardResult != 0)
+	{
+		interfaceInfo->forwardFlags |= RESULT_FLAG_CLONE;
+		return;
+	}
+	interfaceInfo->forwardResult = proximateNodeNbr;
+	interfaceInfo->forfeitTime = forfeitTime;
+	index = findOutductInTable(proximateNodeNbr);
+	interfaceInfo->outductIndex = index;
+	if (index < 0)
+		return;
+	interfaceInfo->outductTable[index * OUTDUCT_LENGTH + OUTDUCT_BACKLOG] += bundle->payload.length;
+	switch (COS_FLAGS(bundle->bundleProcFlags) & 0x03)
+	{
+	case 0:
+		interfaceInfo->outductTable[index * OUTDUCT_LENGTH + OUTDUCT_BULK_BACKLOG] += bundle->payload.length;
+		break;
+	case 1:
+		break;
+	default:
+		interfaceInfo->outductTable[index * OUTDUCT_LENGTH + OUTDUCT_URGENT_BACKLOG] += bundle->payload.length;
+	}
+}
+
 /**
  * Enqueues the bundle into an outduct.
  * This also update the bundle forfeit time.
@@ -367,11 +842,17 @@ int bpEnqueONE(FwdDirective *directive, Bundle *bundle, Object bundleObj)
 	Outduct outduct;
 	BpEvent forfeitEvent;
 	sdr_read(getIonsdr(), (char*) &forfeitEvent, bundle->overdueElt, sizeof(BpEvent));
-	updateMessageForfeitTime(interfaceInfo->currentMessage, forfeitEvent.time);
 	localNodeNbr = getNodeNum();
 	ductAddr = sdr_list_data(getIonsdr(), directive->outductElt);
 	sdr_read(getIonsdr(), (char*)&outduct, ductAddr, sizeof(Outduct));
 	proximateNodeNbr = atol(outduct.name);
+	if (interfaceInfo->outductTable != NULL)
+	{
+		setForwardResult(proximateNodeNbr, convertIonTimeToOne(forfeitEvent.time), bundle);
+		return 0;
+	}
+	updateMessageForfeitTime(interfaceInfo->currentMessage, forfeitEvent.time);
+	interfaceInfo->forfeitTime = convertIonTimeToOne(forfeitEvent.time);
 	insertBundleIntoOutduct(localNodeNbr, interfaceInfo->currentMessage, proximateNodeNbr);
 	interfaceInfo->forwardResult = proximateNodeNbr;
 	return 0;
@@ -386,6 +867,7 @@ int testMessage(jobject message)
 {
 	Bundle *bundle;
 	Object bundleObj;
+	interfaceInfo = getInterfaceInfo();
 	interfaceInfo->currentMessage = message;
 	bundle = malloc(sizeof(Bundle));
 	ion_bundle(bundle, message);
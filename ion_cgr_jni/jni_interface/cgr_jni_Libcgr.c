@@ -6,6 +6,7 @@
  */
 
 #include <jni.h>
+#include <stdint.h>
 #include <stdio.h>
 
 #include "cgr.h"
@@ -16,90 +17,290 @@
 #include "init_global.h"
 #include "normal_c.h"
 #include "ONEtoION_interface.h"
+#include "jni_log.h"
 
 
 JavaVM *javaVM = NULL;
 
-JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_initializeNode(JNIEnv *env, jclass thisObj, jint nodeNum)
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_initializeNode(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum)
 {
 	jint result;
 	if (javaVM == NULL)
 		(*env)->GetJavaVM(env, &javaVM);
 	init_global();
 	setThreadLocalEnv(env);
+	setSimContext(context);
 	setNodeNum(nodeNum);
 	init_node();
 	result = ionInitialize(NULL, (uvast) nodeNum);
 	if (result == 0)
 		cgr_start();
 	else result = -10;
-	fflush(stdout);
 	return result;
 }
 
-JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_finalizeNode(JNIEnv *env, jclass thisObj, jint nodeNum)
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_finalizeNode(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum)
 {
 
 	if (javaVM == NULL)
 		(*env)->GetJavaVM(env, &javaVM);
 	setThreadLocalEnv(env);
+	setSimContext(context);
 	setNodeNum(nodeNum);
 	//cgr_stop();
+	wipe_node_scratch();
 	ionTerminate();
 	destroy_node();
 	return 0;
 }
 
-JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_readContactPlan(JNIEnv *env, jclass thisObj, jint nodeNum, jstring fileName)
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_readContactPlan(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jstring fileName)
 {
 	jint result;
 	if (javaVM == NULL)
 		(*env)->GetJavaVM(env, &javaVM);
 	init_global();
 	setThreadLocalEnv(env);
+	setSimContext(context);
 	uvast unodeNum = (uvast) nodeNum;
 	setNodeNum(unodeNum);
 	const char *nativeString = (*env)->GetStringUTFChars(env, fileName, 0);
 	result = runIonadmin(nativeString);
-	fflush(stdout);
 	return result;
 }
 
-JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_processLine(JNIEnv *env, jclass thisObj, jint nodeNum, jstring line)
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_processLine(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jstring line)
 {
 	jint result;
 	if (javaVM == NULL)
 		(*env)->GetJavaVM(env, &javaVM);
 	init_global();
 	setThreadLocalEnv(env);
+	setSimContext(context);
 	uvast unodeNum = (uvast) nodeNum;
 	setNodeNum(unodeNum);
 	const char *nativeString = (*env)->GetStringUTFChars(env, line, 0);
 	result = processLine(nativeString, strlen(nativeString));
-	fflush(stdout);
 	return result;
 }
 
-JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForward(JNIEnv *env, jclass thisObj, jint nodeNum, jobject message, jlong terminusNodeNbr)
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForward(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jobject message, jlong terminusNodeNbr)
 {
 	jint result;
 	if (javaVM == NULL)
 		(*env)->GetJavaVM(env, &javaVM);
 	init_global();
 	setThreadLocalEnv(env);
+	setSimContext(context);
 	uvast unodeNum = (uvast) nodeNum;
 	setNodeNum(unodeNum);
 	result = cgrForwardONE(message, terminusNodeNbr);
 	return result;
 }
 
-JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_genericTest  (JNIEnv *env, jclass thisObj, jint nodeNum, jobject message)
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForwardDescriptor(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jobject message, jlong terminusNodeNbr, jlongArray descriptor)
 {
 	jint result;
+	jlong desc[DESC_LENGTH];
 	if (javaVM == NULL)
 		(*env)->GetJavaVM(env, &javaVM);
+	if (descriptor == NULL || (*env)->GetArrayLength(env, descriptor) < DESC_LENGTH)
+		return -1;
+	(*env)->GetLongArrayRegion(env, descriptor, 0, DESC_LENGTH, desc);
 	init_global();
 	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	result = cgrForwardONEDescriptor(message, desc, terminusNodeNbr);
+	return result;
+}
+
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForwardBatch(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jobjectArray messages, jint count, jlongArray descriptors, jlongArray termini, jlongArray results)
+{
+	jint result;
+	jlong * desc, * term, * res;
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	if (messages == NULL || descriptors == NULL || termini == NULL || results == NULL
+			|| count < 0
+			|| (*env)->GetArrayLength(env, messages) < count
+			|| (*env)->GetArrayLength(env, descriptors) < count * DESC_LENGTH
+			|| (*env)->GetArrayLength(env, termini) < count
+			|| (*env)->GetArrayLength(env, results) < count * RESULT_LENGTH)
+		return -1;
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	desc = (*env)->GetLongArrayElements(env, descriptors, NULL);
+	term = (*env)->GetLongArrayElements(env, termini, NULL);
+	res = (*env)->GetLongArrayElements(env, results, NULL);
+	result = cgrForwardONEBatch(messages, count, desc, term, res);
+	(*env)->ReleaseLongArrayElements(env, results, res, 0);
+	(*env)->ReleaseLongArrayElements(env, termini, term, JNI_ABORT);
+	(*env)->ReleaseLongArrayElements(env, descriptors, desc, JNI_ABORT);
+	return result;
+}
+
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForwardResult(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jint count, jlongArray descriptors, jlongArray termini, jlongArray outductTable, jint outductCount, jlongArray results)
+{
+	jint result;
+	jlong * desc, * term, * table, * res;
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	if (descriptors == NULL || termini == NULL || outductTable == NULL || results == NULL
+			|| count < 0 || outductCount < 0
+			|| (*env)->GetArrayLength(env, descriptors) < count * DESC_LENGTH
+			|| (*env)->GetArrayLength(env, termini) < count
+			|| (*env)->GetArrayLength(env, outductTable) < outductCount * OUTDUCT_LENGTH
+			|| (*env)->GetArrayLength(env, results) < count * RESULT_LENGTH)
+		return -1;
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	desc = (*env)->GetLongArrayElements(env, descriptors, NULL);
+	term = (*env)->GetLongArrayElements(env, termini, NULL);
+	table = (*env)->GetLongArrayElements(env, outductTable, NULL);
+	res = (*env)->GetLongArrayElements(env, results, NULL);
+	result = cgrForwardONEResult(count, desc, term, table, outductCount, res);
+	(*env)->ReleaseLongArrayElements(env, results, res, 0);
+	(*env)->ReleaseLongArrayElements(env, outductTable, table, 0);
+	(*env)->ReleaseLongArrayElements(env, termini, term, JNI_ABORT);
+	(*env)->ReleaseLongArrayElements(env, descriptors, desc, JNI_ABORT);
+	return result;
+}
+
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_getContactPlanNeighbors(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jlongArray neighbors)
+{
+	jint result;
+	jlong * buffer;
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	if (neighbors == NULL)
+		return -1;
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	buffer = (*env)->GetLongArrayElements(env, neighbors, NULL);
+	result = getContactPlanNeighbors(buffer, (*env)->GetArrayLength(env, neighbors));
+	(*env)->ReleaseLongArrayElements(env, neighbors, buffer, 0);
+	return result;
+}
+
+JNIEXPORT jlong JNICALL Java_cgr_1jni_Libcgr_getNextContactOpportunity(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jlong destination)
+{
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	return getNextContactOpportunity((uvast) destination);
+}
+
+JNIEXPORT jlong JNICALL Java_cgr_1jni_Libcgr_getContactPlanEditTime(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum)
+{
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	return getContactPlanEditTime();
+}
+
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_getCurrentContact(JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jlong neighbor, jlongArray contact)
+{
+	jint result;
+	jlong buffer[CONTACT_LENGTH];
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	if (contact == NULL || (*env)->GetArrayLength(env, contact) < CONTACT_LENGTH)
+		return -1;
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
+	uvast unodeNum = (uvast) nodeNum;
+	setNodeNum(unodeNum);
+	result = getCurrentContact((uvast) neighbor, buffer);
+	if (result == 0)
+		(*env)->SetLongArrayRegion(env, contact, 0, CONTACT_LENGTH, buffer);
+	return result;
+}
+
+JNIEXPORT void JNICALL Java_cgr_1jni_Libcgr_setLogLevel(JNIEnv *env, jclass thisObj, jlong context, jint level)
+{
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	setSimContext(context);
+	setLogLevel(level);
+}
+
+/**
+ * Registers the direct buffer Libcgr.setTime() writes the simulation time into.
+ * The buffer is kept alive by the static field of Libcgr.
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_setTimeCell(JNIEnv *env, jclass thisObj, jobject cell)
+{
+	jlong * address = NULL;
+	init_global();
+	setSimContext(0);
+	if (cell != NULL && (*env)->GetDirectBufferCapacity(env, cell) >= (jlong) sizeof(jlong))
+		address = (jlong *) (*env)->GetDirectBufferAddress(env, cell);
+	setTimeCell(address);
+	return address == NULL ? -1 : 0;
+}
+
+/**
+ * Creates a simulation context reading its time from timeCell.
+ * The buffer is kept alive until deleteContext().
+ */
+JNIEXPORT jlong JNICALL Java_cgr_1jni_Libcgr_newContext(JNIEnv *env, jclass thisObj, jobject timeCell)
+{
+	SimContext * context;
+	jlong * address;
+	if (timeCell == NULL || (*env)->GetDirectBufferCapacity(env, timeCell) < (jlong) sizeof(jlong))
+		return 0;
+	address = (jlong *) (*env)->GetDirectBufferAddress(env, timeCell);
+	if (address == NULL)
+		return 0;
+	init_global();
+	context = newSimContext();
+	if (context == NULL)
+		return 0;
+	context->timeCellRef = (*env)->NewGlobalRef(env, timeCell);
+	context->simTimeCell = address;
+	return (jlong) (intptr_t) context;
+}
+
+JNIEXPORT void JNICALL Java_cgr_1jni_Libcgr_deleteContext(JNIEnv *env, jclass thisObj, jlong context)
+{
+	SimContext * simContext = (SimContext *) (intptr_t) context;
+	if (simContext == NULL)
+		return;
+	if (getSimContext() == simContext)
+		setSimContext(0);
+	if (simContext->timeCellRef != NULL)
+		(*env)->DeleteGlobalRef(env, simContext->timeCellRef);
+	deleteSimContext(simContext);
+}
+
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_genericTest  (JNIEnv *env, jclass thisObj, jlong context, jint nodeNum, jobject message)
+{
+	jint result;
+	if (javaVM == NULL)
+		(*env)->GetJavaVM(env, &javaVM);
+	init_global();
+	setThreadLocalEnv(env);
+	setSimContext(context);
 	uvast unodeNum = (uvast) nodeNum;
 	setNodeNum(unodeNum);
 	result = testMessage(message);
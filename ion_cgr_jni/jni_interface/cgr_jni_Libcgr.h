@@ -7,53 +7,189 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+#undef cgr_jni_Libcgr_DEFAULT_CONTEXT
+#define cgr_jni_Libcgr_DEFAULT_CONTEXT 0LL
+#undef cgr_jni_Libcgr_DESC_SENDER_NBR
+#define cgr_jni_Libcgr_DESC_SENDER_NBR 0L
+#undef cgr_jni_Libcgr_DESC_DESTINATION_NBR
+#define cgr_jni_Libcgr_DESC_DESTINATION_NBR 1L
+#undef cgr_jni_Libcgr_DESC_CREATION_TIME
+#define cgr_jni_Libcgr_DESC_CREATION_TIME 2L
+#undef cgr_jni_Libcgr_DESC_TTL
+#define cgr_jni_Libcgr_DESC_TTL 3L
+#undef cgr_jni_Libcgr_DESC_SIZE
+#define cgr_jni_Libcgr_DESC_SIZE 4L
+#undef cgr_jni_Libcgr_DESC_PRIORITY
+#define cgr_jni_Libcgr_DESC_PRIORITY 5L
+#undef cgr_jni_Libcgr_DESC_ORDINAL
+#define cgr_jni_Libcgr_DESC_ORDINAL 6L
+#undef cgr_jni_Libcgr_DESC_LENGTH
+#define cgr_jni_Libcgr_DESC_LENGTH 7L
+#undef cgr_jni_Libcgr_RESULT_PROXIMATE_NODE
+#define cgr_jni_Libcgr_RESULT_PROXIMATE_NODE 0L
+#undef cgr_jni_Libcgr_RESULT_FORFEIT_TIME
+#define cgr_jni_Libcgr_RESULT_FORFEIT_TIME 1L
+#undef cgr_jni_Libcgr_RESULT_FLAGS
+#define cgr_jni_Libcgr_RESULT_FLAGS 2L
+#undef cgr_jni_Libcgr_RESULT_OUTDUCT_INDEX
+#define cgr_jni_Libcgr_RESULT_OUTDUCT_INDEX 3L
+#undef cgr_jni_Libcgr_RESULT_LENGTH
+#define cgr_jni_Libcgr_RESULT_LENGTH 4L
+#undef cgr_jni_Libcgr_RESULT_FLAG_CLONE
+#define cgr_jni_Libcgr_RESULT_FLAG_CLONE 1L
+#undef cgr_jni_Libcgr_OUTDUCT_NODE_NBR
+#define cgr_jni_Libcgr_OUTDUCT_NODE_NBR 0L
+#undef cgr_jni_Libcgr_OUTDUCT_BACKLOG
+#define cgr_jni_Libcgr_OUTDUCT_BACKLOG 1L
+#undef cgr_jni_Libcgr_OUTDUCT_BULK_BACKLOG
+#define cgr_jni_Libcgr_OUTDUCT_BULK_BACKLOG 2L
+#undef cgr_jni_Libcgr_OUTDUCT_URGENT_BACKLOG
+#define cgr_jni_Libcgr_OUTDUCT_URGENT_BACKLOG 3L
+#undef cgr_jni_Libcgr_OUTDUCT_LENGTH
+#define cgr_jni_Libcgr_OUTDUCT_LENGTH 4L
+#undef cgr_jni_Libcgr_CONTACT_FROM_TIME
+#define cgr_jni_Libcgr_CONTACT_FROM_TIME 0L
+#undef cgr_jni_Libcgr_CONTACT_TO_TIME
+#define cgr_jni_Libcgr_CONTACT_TO_TIME 1L
+#undef cgr_jni_Libcgr_CONTACT_XMIT_RATE
+#define cgr_jni_Libcgr_CONTACT_XMIT_RATE 2L
+#undef cgr_jni_Libcgr_CONTACT_LENGTH
+#define cgr_jni_Libcgr_CONTACT_LENGTH 3L
 /*
  * Class:     cgr_jni_Libcgr
  * Method:    initializeNode
- * Signature: (I)I
+ * Signature: (JI)I
  */
 JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_initializeNode
-  (JNIEnv *, jclass, jint);
+  (JNIEnv *, jclass, jlong, jint);
 
 /*
  * Class:     cgr_jni_Libcgr
  * Method:    finalizeNode
- * Signature: (I)I
+ * Signature: (JI)I
  */
 JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_finalizeNode
-  (JNIEnv *, jclass, jint);
+  (JNIEnv *, jclass, jlong, jint);
 
 /*
  * Class:     cgr_jni_Libcgr
  * Method:    readContactPlan
- * Signature: (ILjava/lang/String;)I
+ * Signature: (JILjava/lang/String;)I
  */
 JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_readContactPlan
-  (JNIEnv *, jclass, jint, jstring);
+  (JNIEnv *, jclass, jlong, jint, jstring);
 
 /*
  * Class:     cgr_jni_Libcgr
  * Method:    processLine
- * Signature: (ILjava/lang/String;)I
+ * Signature: (JILjava/lang/String;)I
  */
 JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_processLine
-  (JNIEnv *, jclass, jint, jstring);
+  (JNIEnv *, jclass, jlong, jint, jstring);
 
 /*
  * Class:     cgr_jni_Libcgr
  * Method:    cgrForward
- * Signature: (ILcore/Message;J)I
+ * Signature: (JILcore/Message;J)I
  */
 JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForward
-  (JNIEnv *, jclass, jint, jobject, jlong);
+  (JNIEnv *, jclass, jlong, jint, jobject, jlong);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    cgrForwardDescriptor
+ * Signature: (JILcore/Message;J[J)I
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForwardDescriptor
+  (JNIEnv *, jclass, jlong, jint, jobject, jlong, jlongArray);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    cgrForwardBatch
+ * Signature: (JI[Lcore/Message;I[J[J[J)I
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForwardBatch
+  (JNIEnv *, jclass, jlong, jint, jobjectArray, jint, jlongArray, jlongArray, jlongArray);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    cgrForwardResult
+ * Signature: (JII[J[J[JI[J)I
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_cgrForwardResult
+  (JNIEnv *, jclass, jlong, jint, jint, jlongArray, jlongArray, jlongArray, jint, jlongArray);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    getContactPlanNeighbors
+ * Signature: (JI[J)I
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_getContactPlanNeighbors
+  (JNIEnv *, jclass, jlong, jint, jlongArray);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    getNextContactOpportunity
+ * Signature: (JIJ)J
+ */
+JNIEXPORT jlong JNICALL Java_cgr_1jni_Libcgr_getNextContactOpportunity
+  (JNIEnv *, jclass, jlong, jint, jlong);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    getContactPlanEditTime
+ * Signature: (JI)J
+ */
+JNIEXPORT jlong JNICALL Java_cgr_1jni_Libcgr_getContactPlanEditTime
+  (JNIEnv *, jclass, jlong, jint);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    setLogLevel
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_cgr_1jni_Libcgr_setLogLevel
+  (JNIEnv *, jclass, jlong, jint);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    getCurrentContact
+ * Signature: (JIJ[J)I
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_getCurrentContact
+  (JNIEnv *, jclass, jlong, jint, jlong, jlongArray);
 
 /*
  * Class:     cgr_jni_Libcgr
  * Method:    genericTest
- * Signature: (ILcore/Message;)I
+ * Signature: (JILcore/Message;)I
  */
 JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_genericTest
-  (JNIEnv *, jclass, jint, jobject);
+  (JNIEnv *, jclass, jlong, jint, jobject);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    setTimeCell
+ * Signature: (Ljava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_cgr_1jni_Libcgr_setTimeCell
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    newContext
+ * Signature: (Ljava/nio/ByteBuffer;)J
+ */
+JNIEXPORT jlong JNICALL Java_cgr_1jni_Libcgr_newContext
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     cgr_jni_Libcgr
+ * Method:    deleteContext
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_cgr_1jni_Libcgr_deleteContext
+  (JNIEnv *, jclass, jlong);
 
 #ifdef __cplusplus
 }
@@ -12,13 +12,69 @@
 #ifndef JNI_JNI_INTERFACE_INCLUDE_ONETOION_INTERFACE_H_
 #define JNI_JNI_INTERFACE_INCLUDE_ONETOION_INTERFACE_H_
 
+/*
+ * Layout of the message descriptor built by Libcgr.fillDescriptor()
+ */
+#define DESC_SENDER_NBR		0
+#define DESC_DESTINATION_NBR	1
+#define DESC_CREATION_TIME	2
+#define DESC_TTL		3
+#define DESC_SIZE		4
+#define DESC_PRIORITY		5
+#define DESC_ORDINAL		6
+#define DESC_LENGTH		7
+
+/*
+ * Layout of the per bundle results of cgrForwardBatch() and cgrForwardResult()
+ */
+#define RESULT_PROXIMATE_NODE	0
+#define RESULT_FORFEIT_TIME	1
+#define RESULT_FLAGS		2
+#define RESULT_OUTDUCT_INDEX	3
+#define RESULT_LENGTH		4
+
+/* CGR selected more than one proximate node (only the first one is returned) */
+#define RESULT_FLAG_CLONE	1
+
+/*
+ * Layout of the outduct table passed to cgrForwardResult()
+ */
+#define OUTDUCT_NODE_NBR	0
+#define OUTDUCT_BACKLOG		1
+#define OUTDUCT_BULK_BACKLOG	2
+#define OUTDUCT_URGENT_BACKLOG	3
+#define OUTDUCT_LENGTH		4
+
+/*
+ * Layout of the contact returned by getCurrentContact()
+ */
+#define CONTACT_FROM_TIME	0
+#define CONTACT_TO_TIME		1
+#define CONTACT_XMIT_RATE	2
+#define CONTACT_LENGTH		3
+
+/* must match IONInterface.getMaxPayloadLen() */
+#define ONE_MAX_PAYLOAD_LEN	(1024*1024*1024)
+
 void ion_bundle(Bundle * bundle, jobject message);
+void ion_bundle_from_descriptor(Bundle * bundle, const jlong * descriptor);
 void ion_outduct(Outduct * duct, jobject jOutduct);
 void init_ouduct_list();
 int	getONEDirective(uvast nodeNbr, Object plans, Bundle *bundle,
 			FwdDirective *directive);
 int cgrForwardONE(jobject bundleONE, jlong terminusNodeNbr);
+int cgrForwardONEDescriptor(jobject bundleONE, const jlong * descriptor, jlong terminusNodeNbr);
+int cgrForwardONEBatch(jobjectArray bundlesONE, int count, const jlong * descriptors,
+		const jlong * termini, jlong * results);
+int cgrForwardONEResult(int count, const jlong * descriptors, const jlong * termini,
+		jlong * outductTable, int outductCount, jlong * results);
+int getContactPlanNeighbors(jlong * neighbors, int capacity);
+jlong getNextContactOpportunity(uvast destination);
+jlong getContactPlanEditTime();
+int getCurrentContact(uvast neighbor, jlong * contact);
 int bpEnqueONE(FwdDirective *directive, Bundle *bundle, Object bundleObj);
+Object getONETimelineEventObj();
+void wipe_node_scratch();
 int bpCloneONE(Bundle *oldBundle, Bundle *newBundle, Object *newBundleObj);
 int testMessage(jobject message);
 int testOutduct(jobject jOuduct);
@@ -10,17 +10,47 @@
 
 #include <pthread.h>
 #include <time.h>
+#include <jni.h>
+
+#include "psm.h"
 
 #define ONEClockClass "core/SimClock"
 
+/**
+ * A simulation as seen by the library: nodes with the same number
+ * in different contexts don't share any state.
+ * Contexts are created by Libcgr.newContext(), the handle 0
+ * is the default context.
+ */
+struct SimContext_t {
+	time_t ONEreferenceTime;
+	/* simulation time published by Java, see setTimeCell() */
+	volatile jlong * simTimeCell;
+	/* global reference to the direct buffer holding simTimeCell */
+	jobject timeCellRef;
+	/* reference time of the ionadmin relative times */
+	time_t ionadminReferenceTime;
+	/* level of the messages sent to the event log, see jni_log.h */
+	volatile int logLevel;
+};
+typedef struct SimContext_t SimContext;
+
 void init_global();
 void finalize_global();
 void init_node();
 void destroy_node();
 long getNodeNum();
 void setNodeNum(long nodeNum_new);
+PsmPartition getNodePartition(int partNum);
+void setNodePartition(int partNum, PsmPartition partition);
+SimContext * newSimContext();
+void deleteSimContext(SimContext * context);
+SimContext * getSimContext();
+void setSimContext(jlong handle);
+jlong getSimContextHandle();
 time_t getONEReferenceTime();
 void setONEReferenceTime(time_t time);
+void setTimeCell(jlong * cell);
 int getTimeFromONE();
 time_t getSimulatedUTCTime();
 time_t convertIonTimeToOne(time_t ionTime);
@@ -0,0 +1,90 @@
+/*
+ * jni_handles.h
+ */
+
+#ifndef JNI_INCLUDE_JNI_HANDLES_H_
+#define JNI_INCLUDE_JNI_HANDLES_H_
+
+#include <jni.h>
+
+#define IONInterfaceClass "cgr_jni/IONInterface"
+#define LystClass "cgr_jni/lyst/Lyst"
+
+/**
+ * Registry of every Java class and method invoked from the native side.
+ * Classes are kept as global references and methods as cached jmethodIDs,
+ * so that upcalls don't need FindClass + Get(Static)MethodID every time.
+ * The registry is populated once in JNI_OnLoad and released in JNI_OnUnload.
+ * A NULL class means that class is not available in the current runtime
+ * (e.g. core/SimClock when not running inside ONE).
+ */
+typedef struct {
+	jclass		clazz;
+	jmethodID	getMessageSenderNbr;
+	jmethodID	getMessageDestinationNbr;
+	jmethodID	getMessageCreationTime;
+	jmethodID	getMessageTTL;
+	jmethodID	getMessageSize;
+	jmethodID	updateMessageForfeitTime;
+	jmethodID	isOutductBlocked;
+	jmethodID	getOutductName;
+	jmethodID	getMaxPayloadLen;
+	jmethodID	getONEOutductToNode;
+	jmethodID	getOutductTotalEnqueuedBytes;
+	jmethodID	insertBundleIntoOutduct;
+	jmethodID	insertBundleIntoLimbo;
+	jmethodID	logNativeEvent;
+} IONInterfaceHandles;
+
+typedef struct {
+	jclass		clazz;
+	jmethodID	create_using;
+	jmethodID	insert_last;
+	jmethodID	first;
+	jmethodID	last;
+	jmethodID	next;
+	jmethodID	data;
+	jmethodID	data_set;
+	jmethodID	delete_set;
+	jmethodID	delete;
+	jmethodID	getLyst;
+	jmethodID	getDeleteFunction;
+	jmethodID	getDeleteUserdata;
+} LystHandles;
+
+typedef struct {
+	jclass		clazz;
+	jmethodID	psmAlloc;
+	jmethodID	psmFree;
+	jmethodID	psmLocate;
+	jmethodID	psmCatlg;
+	jmethodID	psmUncatlg;
+} PsmPartitionHandles;
+
+typedef struct {
+	jclass		clazz;
+	jmethodID	getPartition;
+	jmethodID	newPartition;
+	jmethodID	erasePartition;
+} PsmPartitionManagerHandles;
+
+typedef struct {
+	jclass		clazz;
+	jmethodID	getIntTime;
+} SimClockHandles;
+
+typedef struct {
+	int				loaded;
+	IONInterfaceHandles		ionInterface;
+	LystHandles			lyst;
+	PsmPartitionHandles		psmPartition;
+	PsmPartitionManagerHandles	psmPartitionManager;
+	SimClockHandles			simClock;
+} JniHandles;
+
+int init_jni_handles(JNIEnv * env);
+void finalize_jni_handles(JNIEnv * env);
+int refresh_jni_handles(JNIEnv * env);
+JniHandles * getJniHandles();
+
+#endif /* JNI_INCLUDE_JNI_HANDLES_H_ */
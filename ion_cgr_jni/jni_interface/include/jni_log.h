@@ -0,0 +1,21 @@
+/*
+ * jni_log.h
+ */
+
+#ifndef JNI_INCLUDE_JNI_LOG_H_
+#define JNI_INCLUDE_JNI_LOG_H_
+
+/*
+ * Levels of cgr_jni.log.EventLog
+ */
+#define JNI_LOG_OFF		0
+#define JNI_LOG_ERROR	1
+#define JNI_LOG_INFO	2
+#define JNI_LOG_DEBUG	3
+
+void setLogLevel(int level);
+int isLogEnabled(int level);
+void jniLog(int level, const char * format, ...);
+void jniLogText(int level, const char * text);
+
+#endif /* JNI_INCLUDE_JNI_LOG_H_ */
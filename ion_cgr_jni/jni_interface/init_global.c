@@ -10,37 +10,69 @@
 #include "shared.h"
 
 #include <pthread.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
 #include <time.h>
 #include <jni.h>
 
 #include "psm.h"
 #include "utils.h"
+#include "jni_handles.h"
+#include "jni_log.h"
 
 #define WM_PSM_PARTITION 0
 #define SDR_PSM_PARTITION 1
 
-static time_t ONEreferenceTime = 0;
+/*
+ * Node the current thread is working for, with its wm and sdr partitions.
+ * The partitions are resolved at the first use after setNodeNum() or
+ * setSimContext(), so every entry point looks them up at most once.
+ */
+typedef struct
+{
+	long		nodeNum;
+	PsmPartition	partitions[2];
+} NodeState;
+
+/* used by the callers that don't create a context (handle 0) */
+static SimContext defaultContext;
 pthread_key_t nodeNum_key;
 pthread_key_t jniEnv_key;
+static pthread_key_t context_key;
 //int initialized = 0;
+static pthread_mutex_t initLock = PTHREAD_MUTEX_INITIALIZER;
 
 
 
+/**
+ * Creates the thread keys once, even if the first calls
+ * come from more threads at the same time.
+ */
 void init_global()
 {
+	if (initialized)
+		return;
+	pthread_mutex_lock(&initLock);
 	if (initialized == 0)
 	{
-		pthread_key_create(&nodeNum_key, NULL);
+		pthread_key_create(&nodeNum_key, free);
 		pthread_key_create(&jniEnv_key, NULL);
-		ONEreferenceTime = time(NULL);
+		pthread_key_create(&interfaceInfo_key, free);
+		pthread_key_create(&context_key, NULL);
+		defaultContext.ONEreferenceTime = time(NULL);
+		defaultContext.logLevel = JNI_LOG_ERROR;
 		initialized = 1;
 	}
+	pthread_mutex_unlock(&initLock);
 }
 
 void finalize_global()
 {
 	pthread_key_delete(nodeNum_key);
 	pthread_key_delete(jniEnv_key);
+	pthread_key_delete(interfaceInfo_key);
+	pthread_key_delete(context_key);
 	initialized = 0;
 }
 
@@ -59,51 +91,124 @@ void destroy_node()
 
 long getNodeNum()
 {
-	long * result = (long *) pthread_getspecific(nodeNum_key);
-	return * result;
+	NodeState * state = (NodeState *) pthread_getspecific(nodeNum_key);
+	return state->nodeNum;
 }
 
 void setNodeNum(long nodeNum_new)
 {
-	long * nodeNumPtr;
-	if ((nodeNumPtr = pthread_getspecific(nodeNum_key)) == NULL)
+	NodeState * state;
+	if ((state = pthread_getspecific(nodeNum_key)) == NULL)
 	{
-		nodeNumPtr = (long *) malloc(sizeof(long));
-		pthread_setspecific(nodeNum_key, nodeNumPtr);
+		state = (NodeState *) malloc(sizeof(NodeState));
+		pthread_setspecific(nodeNum_key, state);
 	}
-	*nodeNumPtr = nodeNum_new;
+	state->nodeNum = nodeNum_new;
+	state->partitions[WM_PSM_PARTITION] = NULL;
+	state->partitions[SDR_PSM_PARTITION] = NULL;
+}
+
+/**
+ * Returns the partition partNum of the current node cached by
+ * setNodePartition(), NULL if not resolved yet.
+ */
+PsmPartition getNodePartition(int partNum)
+{
+	NodeState * state = (NodeState *) pthread_getspecific(nodeNum_key);
+	if (state == NULL)
+		return NULL;
+	return state->partitions[partNum];
+}
+
+void setNodePartition(int partNum, PsmPartition partition)
+{
+	NodeState * state = (NodeState *) pthread_getspecific(nodeNum_key);
+	if (state != NULL)
+		state->partitions[partNum] = partition;
+}
+
+SimContext * newSimContext()
+{
+	SimContext * context = (SimContext *) malloc(sizeof(SimContext));
+	if (context == NULL)
+		return NULL;
+	memset(context, 0, sizeof(SimContext));
+	context->ONEreferenceTime = time(NULL);
+	context->logLevel = JNI_LOG_ERROR;
+	return context;
+}
+
+/**
+ * Frees a context, its nodes must have been finalized.
+ */
+void deleteSimContext(SimContext * context)
+{
+	if (context != NULL && context != &defaultContext)
+		free(context);
+}
+
+/**
+ * Returns the context of the current thread (the default one if not set).
+ */
+SimContext * getSimContext()
+{
+	SimContext * result = (SimContext *) pthread_getspecific(context_key);
+	if (result == NULL)
+		return &defaultContext;
+	return result;
+}
+
+/**
+ * Sets the context the following calls of the current thread refer to.
+ * handle is the value returned by Libcgr.newContext(), 0 for the default context.
+ */
+void setSimContext(jlong handle)
+{
+	pthread_setspecific(context_key, (SimContext *) (intptr_t) handle);
+	setNodePartition(WM_PSM_PARTITION, NULL);
+	setNodePartition(SDR_PSM_PARTITION, NULL);
+}
+
+/**
+ * Returns the handle of the context set by the current thread, 0 if none.
+ * It is passed back to the upcalls that resolve nodes.
+ */
+jlong getSimContextHandle()
+{
+	return (jlong) (intptr_t) pthread_getspecific(context_key);
 }
 
 time_t getONEReferenceTime()
 {
-	return ONEreferenceTime;
+	return getSimContext()->ONEreferenceTime;
 }
 
 void setONEReferenceTime(time_t ref)
 {
 	if (ref == 0)
-		ONEreferenceTime = time(NULL);
+		getSimContext()->ONEreferenceTime = time(NULL);
 	else
-		ONEreferenceTime = ref;
+		getSimContext()->ONEreferenceTime = ref;
 }
+void setTimeCell(jlong * cell)
+{
+	getSimContext()->simTimeCell = cell;
+}
+
 int getTimeFromONE()
 {
-	JNIEnv * jniEnv = getThreadLocalEnv();
-	jclass oneClockClass = (*jniEnv)->FindClass(jniEnv, ONEClockClass);
-	if (oneClockClass == NULL) //not using ONE environment
+	JNIEnv * jniEnv;
+	SimClockHandles * h;
+	volatile jlong * simTimeCell = getSimContext()->simTimeCell;
+	if (simTimeCell != NULL && *simTimeCell >= 0)
+		return (int) *simTimeCell;
+	jniEnv = getThreadLocalEnv();
+	h = &(getJniHandles()->simClock);
+	if (h->clazz == NULL || h->getIntTime == NULL) //not using ONE environment
 	{
-		(*jniEnv)->ExceptionClear(jniEnv);
-		return -1;
-	}
-	jmethodID method = (*jniEnv)->GetStaticMethodID(jniEnv, oneClockClass, "getIntTime","()I");
-	if (method == NULL) //not using ONE environment
-	{
-		(*jniEnv)->ExceptionDescribe(jniEnv);
-		(*jniEnv)->ExceptionClear(jniEnv);
-
 		return -1;
 	}
-	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, oneClockClass, method);
+	jint result = (*jniEnv)->CallStaticIntMethod(jniEnv, h->clazz, h->getIntTime);
 	return result;
 }
 
@@ -0,0 +1,198 @@
+/*
+ * jni_handles.c
+ */
+
+#include "jni_handles.h"
+
+#include <jni.h>
+#include <string.h>
+
+#include "shared.h"
+#include "init_global.h"
+#include "psm.h"
+
+static JniHandles handles;
+
+/**
+ * Resolves a class and keeps a global reference to it.
+ * Returns NULL (and clears the pending exception) if the class can't be found.
+ */
+static jclass findGlobalClass(JNIEnv * env, const char * className)
+{
+	jclass localClass = (*env)->FindClass(env, className);
+	jclass globalClass;
+	if (localClass == NULL)
+	{
+		(*env)->ExceptionClear(env);
+		return NULL;
+	}
+	globalClass = (*env)->NewGlobalRef(env, localClass);
+	(*env)->DeleteLocalRef(env, localClass);
+	return globalClass;
+}
+
+static jmethodID findStaticMethod(JNIEnv * env, jclass clazz, const char * name, const char * signature)
+{
+	jmethodID method;
+	if (clazz == NULL)
+		return NULL;
+	method = (*env)->GetStaticMethodID(env, clazz, name, signature);
+	if (method == NULL)
+		(*env)->ExceptionClear(env);
+	return method;
+}
+
+static jmethodID findMethod(JNIEnv * env, jclass clazz, const char * name, const char * signature)
+{
+	jmethodID method;
+	if (clazz == NULL)
+		return NULL;
+	method = (*env)->GetMethodID(env, clazz, name, signature);
+	if (method == NULL)
+		(*env)->ExceptionClear(env);
+	return method;
+}
+
+static void loadIONInterfaceHandles(JNIEnv * env, IONInterfaceHandles * h)
+{
+	h->clazz = findGlobalClass(env, IONInterfaceClass);
+	h->getMessageSenderNbr = findStaticMethod(env, h->clazz, "getMessageSenderNbr","(Lcore/Message;)J");
+	h->getMessageDestinationNbr = findStaticMethod(env, h->clazz, "getMessageDestinationNbr","(Lcore/Message;)J");
+	h->getMessageCreationTime = findStaticMethod(env, h->clazz, "getMessageCreationTime","(Lcore/Message;)J");
+	h->getMessageTTL = findStaticMethod(env, h->clazz, "getMessageTTL","(Lcore/Message;)J");
+	h->getMessageSize = findStaticMethod(env, h->clazz, "getMessageSize","(Lcore/Message;)J");
+	h->updateMessageForfeitTime = findStaticMethod(env, h->clazz, "updateMessageForfeitTime","(Lcore/Message;J)V");
+	h->isOutductBlocked = findStaticMethod(env, h->clazz, "isOutductBlocked","(Lrouting/ContactGraphRouter$Outduct;)Z");
+	h->getOutductName = findStaticMethod(env, h->clazz, "getOutductName","(Lrouting/ContactGraphRouter$Outduct;)Ljava/lang/String;");
+	h->getMaxPayloadLen = findStaticMethod(env, h->clazz, "getMaxPayloadLen","(Lrouting/ContactGraphRouter$Outduct;)I");
+	h->getONEOutductToNode = findStaticMethod(env, h->clazz, "getONEOutductToNode","(JJJ)Lrouting/ContactGraphRouter$Outduct;");
+	h->getOutductTotalEnqueuedBytes = findStaticMethod(env, h->clazz, "getOutductTotalEnququedBytes","(Lrouting/ContactGraphRouter$Outduct;)J");
+	h->insertBundleIntoOutduct = findStaticMethod(env, h->clazz, "insertBundleIntoOutduct","(JJLcore/Message;J)I");
+	h->insertBundleIntoLimbo = findStaticMethod(env, h->clazz, "insertBundleIntoLimbo","(JJLcore/Message;)I");
+	h->logNativeEvent = findStaticMethod(env, h->clazz, "logNativeEvent","(IJJLjava/lang/String;)V");
+}
+
+static void loadLystHandles(JNIEnv * env, LystHandles * h)
+{
+	h->clazz = findGlobalClass(env, LystClass);
+	h->create_using = findStaticMethod(env, h->clazz, "lyst_create_using","(I)Lcgr_jni/lyst/Lyst;");
+	h->insert_last = findStaticMethod(env, h->clazz, "lyst_insert_last","(Lcgr_jni/lyst/Lyst;J)Lcgr_jni/lyst/LystElt;");
+	h->first = findStaticMethod(env, h->clazz, "lyst_first","(Lcgr_jni/lyst/Lyst;)Lcgr_jni/lyst/LystElt;");
+	h->last = findStaticMethod(env, h->clazz, "lyst_last","(Lcgr_jni/lyst/Lyst;)Lcgr_jni/lyst/LystElt;");
+	h->next = findStaticMethod(env, h->clazz, "lyst_next","(Lcgr_jni/lyst/LystElt;)Lcgr_jni/lyst/LystElt;");
+	h->data = findStaticMethod(env, h->clazz, "lyst_data","(Lcgr_jni/lyst/LystElt;)J");
+	h->data_set = findStaticMethod(env, h->clazz, "lyst_data_set","(Lcgr_jni/lyst/LystElt;J)J");
+	h->delete_set = findStaticMethod(env, h->clazz, "lyst_delete_set","(Lcgr_jni/lyst/Lyst;JJ)V");
+	h->delete = findStaticMethod(env, h->clazz, "lyst_delete","(Lcgr_jni/lyst/LystElt;)V");
+	h->getLyst = findStaticMethod(env, h->clazz, "getLyst","(Lcgr_jni/lyst/LystElt;)Lcgr_jni/lyst/Lyst;");
+	h->getDeleteFunction = findStaticMethod(env, h->clazz, "getDeleteFunction","(Lcgr_jni/lyst/Lyst;)J");
+	h->getDeleteUserdata = findStaticMethod(env, h->clazz, "getDeleteUserdata","(Lcgr_jni/lyst/Lyst;)J");
+}
+
+static void loadPsmPartitionHandles(JNIEnv * env, PsmPartitionHandles * h)
+{
+	h->clazz = findGlobalClass(env, PsmPartitionClass);
+	h->psmAlloc = findMethod(env, h->clazz, "psmAlloc","(JJ)J");
+	h->psmFree = findMethod(env, h->clazz, "psmFree","(J)V");
+	h->psmLocate = findMethod(env, h->clazz, "psmLocate","(Ljava/lang/String;)J");
+	h->psmCatlg = findMethod(env, h->clazz, "psmCatlg","(Ljava/lang/String;J)I");
+	h->psmUncatlg = findMethod(env, h->clazz, "psmUncatlg","(Ljava/lang/String;)I");
+}
+
+static void loadPsmPartitionManagerHandles(JNIEnv * env, PsmPartitionManagerHandles * h)
+{
+	h->clazz = findGlobalClass(env, PsmPartitionManagerClass);
+	h->getPartition = findStaticMethod(env, h->clazz, "getPartition","(JI)Lcgr_jni/psm/PsmPartition;");
+	h->newPartition = findStaticMethod(env, h->clazz, "newPartition","(JI)Lcgr_jni/psm/PsmPartition;");
+	h->erasePartition = findStaticMethod(env, h->clazz, "erasePartition","(JI)V");
+}
+
+static void loadSimClockHandles(JNIEnv * env, SimClockHandles * h)
+{
+	h->clazz = findGlobalClass(env, ONEClockClass);
+	h->getIntTime = findStaticMethod(env, h->clazz, "getIntTime","()I");
+}
+
+static void releaseGlobalClass(JNIEnv * env, jclass * clazz)
+{
+	if (*clazz != NULL)
+		(*env)->DeleteGlobalRef(env, *clazz);
+	*clazz = NULL;
+}
+
+/**
+ * Populates the handle registry.
+ * Returns 0 on success, -1 if env is NULL.
+ */
+int init_jni_handles(JNIEnv * env)
+{
+	if (env == NULL)
+		return -1;
+	if (handles.loaded)
+		return 0;
+	memset(&handles, 0, sizeof(JniHandles));
+	loadIONInterfaceHandles(env, &(handles.ionInterface));
+	loadLystHandles(env, &(handles.lyst));
+	loadPsmPartitionHandles(env, &(handles.psmPartition));
+	loadPsmPartitionManagerHandles(env, &(handles.psmPartitionManager));
+	loadSimClockHandles(env, &(handles.simClock));
+	handles.loaded = 1;
+	return 0;
+}
+
+/**
+ * Releases all global references held by the registry.
+ * Cached jmethodIDs are no longer valid after this call.
+ */
+void finalize_jni_handles(JNIEnv * env)
+{
+	if (!handles.loaded || env == NULL)
+		return;
+	releaseGlobalClass(env, &(handles.ionInterface.clazz));
+	releaseGlobalClass(env, &(handles.lyst.clazz));
+	releaseGlobalClass(env, &(handles.psmPartition.clazz));
+	releaseGlobalClass(env, &(handles.psmPartitionManager.clazz));
+	releaseGlobalClass(env, &(handles.simClock.clazz));
+	memset(&handles, 0, sizeof(JniHandles));
+}
+
+/**
+ * Drops every cached handle and resolves them again.
+ * Needed when the classes have been unloaded and reloaded.
+ */
+int refresh_jni_handles(JNIEnv * env)
+{
+	finalize_jni_handles(env);
+	return init_jni_handles(env);
+}
+
+/**
+ * Returns the handle registry.
+ * If JNI_OnLoad has not been run (e.g. the library has been linked into
+ * another one) the registry is populated using the thread local JNIEnv.
+ */
+JniHandles * getJniHandles()
+{
+	if (!handles.loaded)
+		init_jni_handles(getThreadLocalEnv());
+	return &handles;
+}
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
+{
+	JNIEnv * env;
+	if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK)
+		return JNI_ERR;
+	javaVM = vm;
+	refresh_jni_handles(env);
+	return JNI_VERSION_1_6;
+}
+
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved)
+{
+	JNIEnv * env;
+	if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK)
+		return;
+	finalize_jni_handles(env);
+	javaVM = NULL;
+}
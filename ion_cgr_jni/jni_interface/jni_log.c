@@ -0,0 +1,74 @@
+/*
+ * jni_log.c
+ */
+
+#include "jni_log.h"
+
+#include <jni.h>
+#include <stdio.h>
+#include <stdarg.h>
+
+#include "platform.h"
+#include "init_global.h"
+#include "jni_handles.h"
+#include "jni_thread.h"
+
+#define LOG_LINE_LEN	1024
+
+/**
+ * Error messages go to the ERROR level, admin output (ionadmin) to INFO.
+ */
+static void writeLogLine(int isError, const char * text)
+{
+	jniLogText(isError ? JNI_LOG_ERROR : JNI_LOG_INFO, text);
+}
+
+/**
+ * Sets the level of the current context (see setSimContext()).
+ */
+void setLogLevel(int level)
+{
+	getSimContext()->logLevel = level;
+	setLogWriter(writeLogLine);
+}
+
+int isLogEnabled(int level)
+{
+	return level <= getSimContext()->logLevel;
+}
+
+/**
+ * Sends text to cgr_jni.log.EventLog. Falls back to stderr
+ * if there is no JNIEnv or the Java side is not loaded.
+ */
+void jniLogText(int level, const char * text)
+{
+	JNIEnv * env;
+	JniHandles * h;
+	jstring jtext;
+	if (!isLogEnabled(level))
+		return;
+	env = getThreadLocalEnv();
+	h = getJniHandles();
+	if (env == NULL || h->ionInterface.clazz == NULL || h->ionInterface.logNativeEvent == NULL)
+	{
+		fprintf(stderr, "NODE %ld: %s\n", getNodeNum(), text);
+		return;
+	}
+	jtext = (*env)->NewStringUTF(env, text);
+	(*env)->CallStaticVoidMethod(env, h->ionInterface.clazz, h->ionInterface.logNativeEvent,
+			(jint) level, getSimContextHandle(), (jlong) getNodeNum(), jtext);
+	(*env)->DeleteLocalRef(env, jtext);
+}
+
+void jniLog(int level, const char * format, ...)
+{
+	char text[LOG_LINE_LEN];
+	va_list args;
+	if (!isLogEnabled(level))
+		return;
+	va_start(args, format);
+	vsnprintf(text, sizeof text, format, args);
+	va_end(args);
+	jniLogText(level, text);
+}
@@ -2,13 +2,28 @@ package cgr_jni;
 
 import routing.ContactGraphRouter;
 import routing.ContactGraphRouter.Outduct;
+import cgr_jni.log.EventLog;
 import core.DTNHost;
 import core.Message;
 
 public class IONInterface {	
 
-	private static DTNHost getNodeFromNbr(long nodeNbr){
-		return Utils.getHostFromNumber(nodeNbr);
+	/**
+	 * Resolves a node through the simulation context of the native call,
+	 * through {@link Utils} for the default context.
+	 */
+	private static DTNHost getNodeFromNbr(long context, long nodeNbr){
+		SimContext simContext = SimContext.fromHandle(context);
+		if (simContext == null)
+			return Utils.getHostFromNumber(nodeNbr);
+		return simContext.getHost(nodeNbr);
+	}
+	
+	private static ContactGraphRouter getRouterFromNbr(long context, long nodeNbr){
+		DTNHost host = getNodeFromNbr(context, nodeNbr);
+		if (host == null)
+			return null;
+		return (ContactGraphRouter) host.getRouter();
 	}
 	
 	//// STATIC METHODS ACCESSED FROM JNI /////
@@ -58,39 +73,42 @@ public class IONInterface {
 		return jOutduct.getTotalEnqueuedBytes();
 	}
 	
-	static Outduct getONEOutductToNode(long localNodeNbr, long toNodeNbr){
-		DTNHost local = getNodeFromNbr(localNodeNbr);
-		DTNHost to= getNodeFromNbr(toNodeNbr);
-		
-		ContactGraphRouter localRouter = (ContactGraphRouter) local.getRouter();
-		Outduct result = localRouter.getOutducts().get(to);
-		return result;
-		
+	static Outduct getONEOutductToNode(long context, long localNodeNbr, long toNodeNbr){
+		ContactGraphRouter localRouter = getRouterFromNbr(context, localNodeNbr);
+		DTNHost to= getNodeFromNbr(context, toNodeNbr);
+		if (to == null)
+			return null;
+		return localRouter.getOutduct(to);
 	}
-	static int insertBundleIntoOutduct(long localNodeNbr, Message message, long toNodeNbr)
+	static int insertBundleIntoOutduct(long context, long localNodeNbr, Message message, long toNodeNbr)
 	{
-		DTNHost local = getNodeFromNbr(localNodeNbr);
-		DTNHost to = getNodeFromNbr(toNodeNbr);
-		ContactGraphRouter localRouter = (ContactGraphRouter) local.getRouter();
-		if(localRouter.getOutducts().containsKey(to)){
-			localRouter.getOutducts().get(to).insertMessageIntoOutduct(message);
+		ContactGraphRouter localRouter = getRouterFromNbr(context, localNodeNbr);
+		DTNHost to = getNodeFromNbr(context, toNodeNbr);
+		Outduct outduct = to == null ? null : localRouter.getOutduct(to);
+		if(outduct != null){
+			outduct.insertMessageIntoOutduct(message);
 			return 0;
 		}
 		return -1;
 	}
 
-	static int insertBundleIntoLimbo(long localNodeNbr, Message message)
+	static int insertBundleIntoLimbo(long context, long localNodeNbr, Message message)
 	{
-		DTNHost local = getNodeFromNbr(localNodeNbr);
-		ContactGraphRouter localRouter = (ContactGraphRouter) local.getRouter();
+		ContactGraphRouter localRouter = getRouterFromNbr(context, localNodeNbr);
 		localRouter.putMessageIntoLimbo(message);
 		return 0;	
 	}
 	
-	static void cloneMessage(long localNodeNbr, Message message)
+	static void logNativeEvent(int level, long context, long localNodeNbr, String text)
+	{
+		SimContext simContext = SimContext.fromHandle(context);
+		EventLog log = simContext == null ? EventLog.getDefault() : simContext.getLog();
+		log.publish(level, EventLog.NATIVE, localNodeNbr, text, 0);
+	}
+	
+	static void cloneMessage(long context, long localNodeNbr, Message message)
 	{
-		DTNHost local = getNodeFromNbr(localNodeNbr);
-		ContactGraphRouter localRouter = (ContactGraphRouter) local.getRouter();
+		ContactGraphRouter localRouter = getRouterFromNbr(context, localNodeNbr);
 		localRouter.createNewMessage(message.replicate());
 	}
 }
@@ -1,6 +1,10 @@
 package cgr_jni;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import core.Message;
+import routing.ContactGraphRouter;
 
 public class Libcgr {
 
@@ -8,11 +12,179 @@ public class Libcgr {
 		 System.loadLibrary("cgr_jni");
 	}
 	
-	public static native int initializeNode(int nodeNum);
-	public static native int finalizeNode(int nodeNum);
-	public static native int readContactPlan(int nodeNum, String fileName);
-	public static native int processLine(int nodeNum, String contactLine);
-	public static native int cgrForward(int nodeNum, Message bundle, long terminusNodeNbr);
-	public static native int genericTest(int nodeNum, Message message);
+	/**
+	 * Current simulation time, shared with the native library so that ION 
+	 * time queries don't need to call back into SimClock.
+	 * A negative value means "not set", the library falls back to SimClock.
+	 */
+	private static final ByteBuffer simTimeCell = 
+			ByteBuffer.allocateDirect(Long.BYTES).order(ByteOrder.nativeOrder());
+	static {
+		simTimeCell.putLong(0, -1);
+		setTimeCell(simTimeCell);
+	}
+	
+	/**
+	 * Publishes the current simulation time to the native library.
+	 * It is a plain memory write, no JNI call is performed.
+	 * @param time simulation time (sec), negative to unset it
+	 */
+	public static void setTime(long time)
+	{
+		simTimeCell.putLong(0, time);
+	}
+	
+	/**
+	 * Handle of the default simulation context, the one used by callers
+	 * that don't create a {@link SimContext}. Its time is set by {@link Libcgr#setTime(long)}.
+	 */
+	public static final long DEFAULT_CONTEXT = 0;
+	
+	/*
+	 * Layout of the message descriptor passed to cgrForwardDescriptor().
+	 * It must match the DESC_* defines in ONEtoION_interface.h
+	 */
+	public static final int DESC_SENDER_NBR = 0;
+	public static final int DESC_DESTINATION_NBR = 1;
+	public static final int DESC_CREATION_TIME = 2;
+	public static final int DESC_TTL = 3;
+	public static final int DESC_SIZE = 4;
+	/** ION class of service: 0 bulk, 1 normal, 2 expedited */
+	public static final int DESC_PRIORITY = 5;
+	public static final int DESC_ORDINAL = 6;
+	public static final int DESC_LENGTH = 7;
+	
+	/*
+	 * Layout of the per bundle results written by cgrForwardBatch() and 
+	 * cgrForwardResult().
+	 * It must match the RESULT_* defines in ONEtoION_interface.h
+	 */
+	public static final int RESULT_PROXIMATE_NODE = 0;
+	public static final int RESULT_FORFEIT_TIME = 1;
+	public static final int RESULT_FLAGS = 2;
+	public static final int RESULT_OUTDUCT_INDEX = 3;
+	public static final int RESULT_LENGTH = 4;
+	/** CGR selected more than one proximate node, only the first one is returned */
+	public static final int RESULT_FLAG_CLONE = 1;
+	
+	/*
+	 * Layout of the outduct table passed to cgrForwardResult().
+	 * It must match the OUTDUCT_* defines in ONEtoION_interface.h
+	 */
+	public static final int OUTDUCT_NODE_NBR = 0;
+	/** all the enqueued bytes */
+	public static final int OUTDUCT_BACKLOG = 1;
+	/** enqueued bytes of bulk and expedited priority, the rest is normal */
+	public static final int OUTDUCT_BULK_BACKLOG = 2;
+	public static final int OUTDUCT_URGENT_BACKLOG = 3;
+	public static final int OUTDUCT_LENGTH = 4;
+	
+	/*
+	 * Layout of the contact returned by getCurrentContact().
+	 * It must match the CONTACT_* defines in ONEtoION_interface.h
+	 */
+	public static final int CONTACT_FROM_TIME = 0;
+	public static final int CONTACT_TO_TIME = 1;
+	public static final int CONTACT_XMIT_RATE = 2;
+	public static final int CONTACT_LENGTH = 3;
+	
+	/**
+	 * Fills descriptor with the fields of m needed to build the native Bundle,
+	 * the same values returned by the IONInterface getters.
+	 * @param m the message
+	 * @param descriptor array of at least DESC_LENGTH elements
+	 * @return descriptor
+	 */
+	public static long[] fillDescriptor(Message m, long[] descriptor)
+	{
+		return fillDescriptor(m, descriptor, 0);
+	}
+	
+	/**
+	 * Same as {@link Libcgr#fillDescriptor(Message, long[])} but the descriptor
+	 * is written starting from offset, as needed by cgrForwardBatch().
+	 */
+	public static long[] fillDescriptor(Message m, long[] descriptor, int offset)
+	{
+		descriptor[offset + DESC_SENDER_NBR] = m.getFrom().getAddress();
+		descriptor[offset + DESC_DESTINATION_NBR] = m.getTo().getAddress();
+		descriptor[offset + DESC_CREATION_TIME] = (int) m.getCreationTime();
+		descriptor[offset + DESC_TTL] = (long) m.getTtl();
+		descriptor[offset + DESC_SIZE] = m.getSize();
+		descriptor[offset + DESC_PRIORITY] = ContactGraphRouter.getPriority(m);
+		descriptor[offset + DESC_ORDINAL] = ContactGraphRouter.getOrdinal(m);
+		return descriptor;
+	}
+	
+	public static native int initializeNode(long context, int nodeNum);
+	public static native int finalizeNode(long context, int nodeNum);
+	public static native int readContactPlan(long context, int nodeNum, String fileName);
+	public static native int processLine(long context, int nodeNum, String contactLine);
+	public static native int cgrForward(long context, int nodeNum, Message bundle, long terminusNodeNbr);
+	public static native int cgrForwardDescriptor(long context, int nodeNum, Message bundle, long terminusNodeNbr, long[] descriptor);
+	/**
+	 * Routes the first count bundles with a single JNI call.
+	 * @param descriptors count message descriptors, one after the other
+	 * @param termini the terminus node of every bundle
+	 * @param results filled with RESULT_LENGTH values for every bundle
+	 * @return the number of bundles processed or -1 if the arrays are too short
+	 */
+	public static native int cgrForwardBatch(long context, int nodeNum, Message[] bundles, int count,
+			long[] descriptors, long[] termini, long[] results);
+	/**
+	 * Result-out mode: routes the first count bundles without calling back 
+	 * into Java. Nothing is enqueued, the caller is in charge of it.
+	 * @param descriptors count message descriptors, one after the other
+	 * @param termini the terminus node of every bundle
+	 * @param outductTable outductCount entries of OUTDUCT_LENGTH values (neighbor
+	 * node and enqueued bytes, total and by priority). The backlog of the chosen 
+	 * outducts is updated.
+	 * @param results filled with RESULT_LENGTH values for every bundle, 
+	 * RESULT_OUTDUCT_INDEX is the index of the chosen entry into outductTable
+	 * @return the number of bundles processed or -1 if the arrays are too short
+	 */
+	public static native int cgrForwardResult(long context, int nodeNum, int count, long[] descriptors,
+			long[] termini, long[] outductTable, int outductCount, long[] results);
+	/**
+	 * Gets the nodes the local node has at least one contact to in its contact plan.
+	 * @param neighbors filled with the node numbers
+	 * @return the number of neighbors, if greater than neighbors.length only 
+	 * the first neighbors.length ones have been written. -1 on error.
+	 */
+	public static native int getContactPlanNeighbors(long context, int nodeNum, long[] neighbors);
+	/**
+	 * Gets the start time of the first contact, after the current time, that
+	 * leaves the local node or reaches destination.
+	 * @return the start time (ONE time) or -1 if there is no such contact
+	 */
+	public static native long getNextContactOpportunity(long context, int nodeNum, long destination);
+	/**
+	 * @return the (ION) time of the last contact plan edit, -1 on error
+	 */
+	public static native long getContactPlanEditTime(long context, int nodeNum);
+	/**
+	 * Sets the level (see {@link cgr_jni.log.EventLog}) of the messages the nodes 
+	 * of context send to the event log. Disabled messages are not even formatted.
+	 */
+	public static native void setLogLevel(long context, int level);
+	/**
+	 * Gets the first contact from the local node to neighbor that hasn't ended yet.
+	 * @param contact receives CONTACT_LENGTH values (times in simulation time, rate in bytes/s)
+	 * @return 0 if found, -1 if there is no such contact
+	 */
+	public static native int getCurrentContact(long context, int nodeNum, long neighbor, long[] contact);
+	public static native int genericTest(long context, int nodeNum, Message message);
+	private static native int setTimeCell(ByteBuffer cell);
+	/**
+	 * Creates a simulation context: nodes of different contexts don't share 
+	 * any native state, so independent simulations can run in the same JVM.
+	 * @param timeCell direct buffer the simulation time of the context is read from
+	 * @return the handle to pass to the other calls, 0 on error
+	 */
+	static native long newContext(ByteBuffer timeCell);
+	/**
+	 * Releases a context created by newContext(), its nodes must have been finalized.
+	 */
+	static native void deleteContext(long context);
 
 }
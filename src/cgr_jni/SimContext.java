@@ -0,0 +1,187 @@
+package cgr_jni;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cgr_jni.log.EventLog;
+import core.DTNHost;
+
+/**
+ * A simulation as seen by the native library. Every native call is made
+ * on behalf of a context: nodes with the same number in different contexts
+ * have separate contact plans, partitions and simulation time.
+ * All the nodes of a simulation share its context, which also resolves
+ * their addresses to hosts, and its event log. The context is released when
+ * the last of its nodes releases it.
+ */
+public class SimContext {
+
+	/** live contexts by simulation */
+	private static final IdentityHashMap<Object, SimContext> bySimulation =
+			new IdentityHashMap<Object, SimContext>();
+	/** live contexts by handle, to resolve the upcalls of the native library */
+	private static final ConcurrentHashMap<Long, SimContext> byHandle =
+			new ConcurrentHashMap<Long, SimContext>();
+	private static int nextId = 1;
+
+	private final ByteBuffer timeCell =
+			ByteBuffer.allocateDirect(Long.BYTES).order(ByteOrder.nativeOrder());
+	private final Object simulation;
+	private final int id;
+	private long handle;
+	private int users = 0;
+	/** hosts of the nodes, indexed by address */
+	private volatile DTNHost[] hostsByAddress = new DTNHost[0];
+	private volatile EventLog log = EventLog.getDefault();
+
+	private SimContext(Object simulation)
+	{
+		this.simulation = simulation;
+		this.id = nextId++;
+		timeCell.putLong(0, -1);
+		handle = Libcgr.newContext(timeCell);
+		if (handle == 0)
+			throw new IllegalStateException("Can't create the native simulation context");
+	}
+
+	/**
+	 * Gets the context of a simulation, creating it if needed,
+	 * and counts a new user of it.
+	 * @param simulation any object identifying the simulation, compared by identity.
+	 * ONE passes the message listeners list of the scenario to the init() of every router.
+	 */
+	public static synchronized SimContext acquire(Object simulation)
+	{
+		SimContext context = bySimulation.get(simulation);
+		if (context == null)
+		{
+			context = new SimContext(simulation);
+			bySimulation.put(simulation, context);
+			byHandle.put(context.handle, context);
+		}
+		context.users++;
+		return context;
+	}
+
+	/**
+	 * @return the live context with this handle, null if there is none
+	 * (e.g. {@link Libcgr#DEFAULT_CONTEXT})
+	 */
+	public static SimContext fromHandle(long handle)
+	{
+		return byHandle.get(handle);
+	}
+
+	/**
+	 * @return the handle to pass to the {@link Libcgr} calls
+	 */
+	public long getHandle()
+	{
+		return handle;
+	}
+
+	/**
+	 * @return the id of the simulation in the event log, 1 for the first one
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	public EventLog getLog()
+	{
+		return log;
+	}
+
+	/**
+	 * Replaces the event log of this simulation, also for its nodes in the
+	 * native library. The previous log is closed.
+	 */
+	public void setLog(EventLog newLog)
+	{
+		EventLog old = log;
+		log = newLog;
+		Libcgr.setLogLevel(handle, newLog.getLevel());
+		if (old != EventLog.getDefault())
+			old.close();
+	}
+
+	/**
+	 * Publishes the simulation time of this context to the native library.
+	 * @param time simulation time (sec), negative to unset it
+	 */
+	public void setTime(long time)
+	{
+		timeCell.putLong(0, time);
+	}
+
+	/**
+	 * @return the number of nodes using this context
+	 */
+	public int getUsers()
+	{
+		synchronized (SimContext.class)
+		{
+			return users;
+		}
+	}
+
+	/**
+	 * Releases the context after its last user has finalized its node.
+	 */
+	public void release()
+	{
+		synchronized (SimContext.class)
+		{
+			if (users == 0 || --users > 0 || handle == 0)
+				return;
+			bySimulation.remove(simulation);
+			byHandle.remove(handle);
+			Libcgr.deleteContext(handle);
+			handle = 0;
+			if (log != EventLog.getDefault())
+				log.close();
+			log = EventLog.getDefault();
+		}
+	}
+
+	/**
+	 * Makes host reachable through {@link SimContext#getHost(long)}.
+	 */
+	public synchronized void addHost(DTNHost host)
+	{
+		DTNHost[] index = hostsByAddress;
+		int address = host.getAddress();
+		if (address < 0)
+			return;
+		if (address >= index.length)
+			index = Arrays.copyOf(index, Math.max(address + 1, index.length * 2));
+		index[address] = host;
+		hostsByAddress = index;
+	}
+
+	public synchronized void removeHost(DTNHost host)
+	{
+		DTNHost[] index = hostsByAddress;
+		int address = host.getAddress();
+		if (address < 0 || address >= index.length || index[address] != host)
+			return;
+		index[address] = null;
+	}
+
+	/**
+	 * @return the host of the node nodeNbr of this simulation, null if there is none.
+	 * Only the hosts added by their router are known: contact plan neighbors
+	 * with other routers are reached only through a connection.
+	 */
+	public DTNHost getHost(long nodeNbr)
+	{
+		DTNHost[] index = hostsByAddress;
+		if (nodeNbr < 0 || nodeNbr >= index.length)
+			return null;
+		return index[(int) nodeNbr];
+	}
+}
@@ -4,11 +4,16 @@ import java.util.Collection;
 
 import core.DTNHost;
 import core.SimScenario;
+import routing.MessageRouter;
 
 public class Utils {
 	
 	protected static Utils instance = null;
 	protected Collection<DTNHost> hostsReference;
+	/** Hosts indexed by address, rebuilt when the hosts collection changes */
+	private volatile DTNHost[] hostsByAddress = new DTNHost[0];
+	/** Size of the hosts collection when the index was built */
+	private volatile int indexedHosts = -1;
 	
 	/**
 	 * Default constructor.
@@ -55,14 +60,73 @@ public class Utils {
 		return getInstance().getAllNodesFromEnv();
 	}
 
-	public static DTNHost getHostFromNumber(long nodeNbr)
+	/**
+	 * Rebuilds the address index from the hosts collection.
+	 * Lookups do it on their own only when the collection changes size:
+	 * hosts replaced without changing their number need a refresh().
+	 */
+	public static void refresh()
+	{
+		getInstance().indexHosts();
+	}
+	
+	protected synchronized void indexHosts()
 	{
-		for(DTNHost host : getAllNodes()){
-			if(host.getAddress() == nodeNbr){
-				return host;
-			}
+		Collection<DTNHost> hosts = getAllNodesFromEnv();
+		DTNHost[] index;
+		int max = -1;
+		for (DTNHost host : hosts)
+		{
+			if (host.getAddress() > max)
+				max = host.getAddress();
 		}
+		index = new DTNHost[max + 1];
+		for (DTNHost host : hosts)
+		{
+			if (host.getAddress() >= 0)
+				index[host.getAddress()] = host;
+		}
+		hostsByAddress = index;
+		indexedHosts = hosts.size();
+	}
+	
+	private DTNHost lookupHost(long nodeNbr)
+	{
+		DTNHost[] index = hostsByAddress;
+		DTNHost host;
+		if (nodeNbr < 0 || nodeNbr >= index.length)
+			return null;
+		host = index[(int) nodeNbr];
+		if (host != null && host.getAddress() == nodeNbr)
+			return host;
 		return null;
 	}
+	
+	/**
+	 * @return the host with address nodeNbr, null if there is none
+	 */
+	protected DTNHost getHostFromEnv(long nodeNbr)
+	{
+		if (indexedHosts != getAllNodesFromEnv().size())
+			indexHosts();
+		return lookupHost(nodeNbr);
+	}
+
+	public static DTNHost getHostFromNumber(long nodeNbr)
+	{
+		return getInstance().getHostFromEnv(nodeNbr);
+	}
+	
+	/**
+	 * @return the router of the host nodeNbr, null if there's no such host.
+	 * The router is read from the host, as it may be replaced after init.
+	 */
+	public static MessageRouter getRouterFromNumber(long nodeNbr)
+	{
+		DTNHost host = getHostFromNumber(nodeNbr);
+		if (host == null)
+			return null;
+		return host.getRouter();
+	}
 
 }
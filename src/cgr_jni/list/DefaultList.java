@@ -1,132 +1,174 @@
 package cgr_jni.list;
 
-import java.util.LinkedList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Doubly linked list whose links are kept in the elements,
+ * so every positional insert and delete is O(1).
+ * A concurrent list serializes updates with a lock, reads don't lock.
+ * A list created with concurrent = false skips locking entirely
+ * and must be used by one thread only.
+ */
 public abstract class DefaultList {
 
 	protected Object userData;
-	private LinkedList<DefaultListElt> list;
+	private volatile DefaultListElt first;
+	private volatile DefaultListElt last;
+	private volatile long length;
 	private Lock lock;
-	
+
 	public DefaultList()
 	{
-		this.list = new LinkedList<>();
-		this.lock = new ReentrantLock();
+		this(true);
+	}
+
+	public DefaultList(boolean concurrent)
+	{
+		this.first = null;
+		this.last = null;
+		this.length = 0;
+		this.lock = concurrent ? new ReentrantLock() : null;
+	}
+
+	public boolean isConcurrent()
+	{
+		return lock != null;
+	}
+
+	private void lock()
+	{
+		if (lock != null)
+			lock.lock();
+	}
+
+	private void unlock()
+	{
+		if (lock != null)
+			lock.unlock();
 	}
-	
+
 	public long getLength()
 	{
-		return list.size();
+		return length;
 	}
-	
+
+	/**
+	 * @return the first element, null if the list is empty
+	 */
 	public DefaultListElt getFirst()
 	{
-		return list.getFirst();
+		return first;
 	}
-	
+
+	/**
+	 * @return the last element, null if the list is empty
+	 */
 	public DefaultListElt getLast()
 	{
-		return list.getLast();
+		return last;
 	}
-	
+
 	public Object getUserData()
 	{
 		return userData;
 	}
-	
+
 	public void setUserData(Object userData)
 	{
-		lock.lock();
+		lock();
 		this.userData = userData;
-		lock.unlock();
+		unlock();
 	}
-	
+
 	public void destroy()
 	{
-		lock.lock();
-		for(DefaultListElt elt : list)
+		DefaultListElt cur, next;
+		lock();
+		for (cur = first; cur != null; cur = next)
 		{
-			elt.destroy();
+			next = cur.getNext();
+			cur.destroy();
 		}
-		list.clear();
-		list = null;
-		lock.unlock();
-		lock = null;
+		first = null;
+		last = null;
+		length = 0;
+		unlock();
 	}
-	
+
 	public DefaultListElt insertFirst(Object data)
 	{
-		lock.lock();
-		DefaultListElt first = list.getFirst();
-		DefaultListElt elt = new DefaultListElt(this, null, first, data);
-		first.setPrev(elt);
-		list.addFirst(elt);
-		lock.unlock();
+		DefaultListElt elt;
+		lock();
+		elt = link(null, first, data);
+		unlock();
 		return elt;
 	}
-	
+
 	public DefaultListElt insertLast(Object data)
 	{
-		lock.lock();
-		DefaultListElt last = list.getLast();
-		DefaultListElt elt = new DefaultListElt(this, last, null, data);
-		last.setNext(elt);
-		list.addLast(elt);
-		lock.unlock();
-		return elt;		
+		DefaultListElt elt;
+		lock();
+		elt = link(last, null, data);
+		unlock();
+		return elt;
 	}
-	
+
 	public DefaultListElt insertBefore(DefaultListElt ref, Object data)
 	{
-		lock.lock();
 		DefaultListElt elt;
-		int i = list.indexOf(ref);
-		if (i == 0)
-		{
-			elt = new DefaultListElt(this, null, ref, data);			
-		}
-		else
-		{
-			elt = new DefaultListElt(this, ref.getPrev(), ref, data);
-			ref.getPrev().setNext(elt);
-		}
-		ref.setPrev(elt);
-		list.add(i, elt);
-		lock.unlock();
+		lock();
+		elt = link(ref.getPrev(), ref, data);
+		unlock();
 		return elt;
 	}
-	
+
 	public DefaultListElt insertAfter(DefaultListElt ref, Object data)
 	{
-		lock.lock();
 		DefaultListElt elt;
-		int i = list.indexOf(ref);
-		if (i + 1 == list.size())
-		{
-			elt = new DefaultListElt(this, ref, null, data);
-		}
-		else
-		{
-			elt = new DefaultListElt(this, ref, ref.getNext(), data);
-			ref.getNext().setPrev(elt);
-		}
-		ref.setNext(elt);
-		list.add(i + 1, elt);
-		lock.unlock();
+		lock();
+		elt = link(ref, ref.getNext(), data);
+		unlock();
 		return elt;
 	}
-	
+
+	/**
+	 * Removes elt from the list, nothing is done if elt doesn't belong to this list.
+	 */
 	public void delete(DefaultListElt elt)
 	{
-		lock.lock();
-		if (elt.getNext() != null)
-			elt.getNext().setPrev(elt.getPrev());
-		if (elt.getPrev() != null)
-			elt.getPrev().setNext(elt.getNext());
-		list.remove(elt);
-		elt.destroy();
-		lock.unlock();
+		lock();
+		if (elt.getList() == this)
+		{
+			if (elt.getNext() != null)
+				elt.getNext().setPrev(elt.getPrev());
+			else
+				last = elt.getPrev();
+			if (elt.getPrev() != null)
+				elt.getPrev().setNext(elt.getNext());
+			else
+				first = elt.getNext();
+			length--;
+			elt.destroy();
+		}
+		unlock();
+	}
+
+	/**
+	 * Links a new element between prev and next. Must be called holding the lock.
+	 */
+	private DefaultListElt link(DefaultListElt prev, DefaultListElt next, Object data)
+	{
+		DefaultListElt elt = new DefaultListElt(this, prev, next, data);
+		if (prev != null)
+			prev.setNext(elt);
+		else
+			first = elt;
+		if (next != null)
+			next.setPrev(elt);
+		else
+			last = elt;
+		length++;
+		return elt;
 	}
 }
@@ -4,8 +4,8 @@ public class DefaultListElt {
 	
 	protected Object data;
 	private DefaultList list;
-	private DefaultListElt prev;
-	private DefaultListElt next;
+	private volatile DefaultListElt prev;
+	private volatile DefaultListElt next;
 	
 	public DefaultListElt(DefaultList list, DefaultListElt prev, DefaultListElt next, Object data)
 	{
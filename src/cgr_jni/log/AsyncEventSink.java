@@ -0,0 +1,222 @@
+package cgr_jni.log;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Sink that copies the events into a preallocated ring buffer and
+ * writes them from a background thread, one compact line per event:
+ * <pre>time LEVEL TYPE simulation node subject value</pre>
+ * When the ring is full publish() waits for the writer or, if the sink is
+ * not blocking, drops the event: the number of dropped events is written
+ * as soon as the writer gets to the next event.
+ */
+public class AsyncEventSink implements EventSink, Runnable {
+
+	private static class Slot
+	{
+		int level;
+		int type;
+		double time;
+		int simulation;
+		long node;
+		String subject;
+		long value;
+	}
+
+	private final Slot[] ring;
+	private final Writer out;
+	private final Thread writer;
+	private final boolean blocking;
+	private final StringBuilder line = new StringBuilder(128);
+	/** next slot to be written by publish() and to be read by the writer */
+	private long head = 0;
+	private long tail = 0;
+	private long dropped = 0;
+	/** dropped events already reported in the output */
+	private long reportedDrops = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param out where the lines are written, flushed whenever the ring is drained
+	 * @param capacity number of events the ring can hold
+	 */
+	public AsyncEventSink(Writer out, int capacity)
+	{
+		this(out, capacity, true);
+	}
+
+	/**
+	 * @param blocking if true publish() waits for room when the ring is full,
+	 * otherwise the event is dropped
+	 */
+	public AsyncEventSink(Writer out, int capacity, boolean blocking)
+	{
+		this.out = out;
+		this.blocking = blocking;
+		this.ring = new Slot[capacity > 0 ? capacity : 1];
+		for (int i = 0; i < ring.length; i++)
+			ring[i] = new Slot();
+		this.writer = new Thread(this, "cgr-event-log");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	@Override
+	public synchronized void publish(int level, int type, double time, int simulation,
+			long node, String subject, long value)
+	{
+		Slot slot;
+		while (blocking && head - tail == ring.length && !closed && writer.isAlive())
+		{
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (closed)
+			return;
+		if (head - tail == ring.length)
+		{
+			dropped++;
+			return;
+		}
+		slot = ring[(int) (head % ring.length)];
+		slot.level = level;
+		slot.type = type;
+		slot.time = time;
+		slot.simulation = simulation;
+		slot.node = node;
+		slot.subject = subject;
+		slot.value = value;
+		if (head++ == tail)
+			notifyAll();
+	}
+
+	/**
+	 * @return the number of events dropped because the ring was full,
+	 * always 0 for a blocking sink
+	 */
+	public synchronized long getDropped()
+	{
+		return dropped;
+	}
+
+	@Override
+	public synchronized void flush()
+	{
+		while (tail != head && writer.isAlive())
+		{
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		synchronized (this)
+		{
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		Slot slot;
+		long drops;
+		while (true)
+		{
+			synchronized (this)
+			{
+				while (tail == head && !closed)
+				{
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (tail == head)
+					break; // closed and drained
+				slot = ring[(int) (tail % ring.length)];
+				drops = dropped - reportedDrops;
+				reportedDrops = dropped;
+				format(slot, drops);
+				slot.subject = null;
+				if (head - tail++ == ring.length)
+					notifyAll(); // room for a blocked publish()
+			}
+			write();
+			synchronized (this)
+			{
+				if (tail == head)
+				{
+					flushWriter();
+					notifyAll();
+				}
+			}
+		}
+		synchronized (this)
+		{
+			if (dropped > reportedDrops)
+			{
+				line.setLength(0);
+				line.append(dropped - reportedDrops).append(" events dropped\n");
+				reportedDrops = dropped;
+				write();
+			}
+			flushWriter();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @param drops events dropped since the previous line, reported before slot
+	 */
+	private void format(Slot slot, long drops)
+	{
+		line.setLength(0);
+		if (drops > 0)
+			line.append(drops).append(" events dropped\n");
+		line.append(slot.time).append(' ')
+			.append(EventLog.levelName(slot.level)).append(' ')
+			.append(EventLog.typeName(slot.type)).append(' ')
+			.append(slot.simulation).append(' ')
+			.append(slot.node).append(' ')
+			.append(slot.subject == null ? "-" : slot.subject).append(' ')
+			.append(slot.value).append('\n');
+	}
+
+	private void write()
+	{
+		try {
+			out.append(line);
+		} catch (IOException e) {
+			// nothing better to do with a failing log
+		}
+	}
+
+	private void flushWriter()
+	{
+		try {
+			out.flush();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package cgr_jni.log;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+
+import core.SimClock;
+
+/**
+ * Event log of a simulation: its CGR routers and its nodes in the native library.
+ * Events are filtered by level before reaching the sink: callers pass only
+ * primitives and already existing strings, so a disabled level costs a
+ * comparison and no allocation. Events go to an {@link AsyncEventSink} on the
+ * standard output or on a file; logs writing to the same file share the sink
+ * and every event carries the id of its simulation.
+ * The {@link #getDefault() default log} is used outside of any simulation.
+ */
+public final class EventLog {
+
+	public static final int OFF = 0;
+	public static final int ERROR = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+
+	/** free text, in subject */
+	public static final int TEXT = 0;
+	/** subject is the message id, value the receiving node */
+	public static final int BEGIN_TRANSMISSION = 1;
+	/** subject is the message id, value the receiving node */
+	public static final int END_TRANSMISSION = 2;
+	/** trace line of the native library, in subject */
+	public static final int NATIVE = 3;
+
+	private static final String[] LEVEL_NAMES = {"OFF", "ERROR", "INFO", "DEBUG"};
+	private static final String[] TYPE_NAMES = {"TEXT", "BEGIN_TX", "END_TX", "NATIVE"};
+	private static final int RING_CAPACITY = 8192;
+
+	/** A sink shared by the logs writing to the same file */
+	private static class SharedSink
+	{
+		final EventSink sink;
+		int users = 0;
+
+		SharedSink(EventSink sink)
+		{
+			this.sink = sink;
+		}
+	}
+
+	/** sinks in use by file name, "" is the standard output */
+	private static final HashMap<String, SharedSink> sinks = new HashMap<String, SharedSink>();
+	private static final EventLog defaultLog = new EventLog(0, ERROR, "", true);
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				synchronized (EventLog.class)
+				{
+					for (SharedSink s : sinks.values())
+						s.sink.close();
+					sinks.clear();
+				}
+			}
+		});
+	}
+
+	private final int simulation;
+	private final int level;
+	private final String file;
+	private final boolean blocking;
+	/** acquired at the first event */
+	private volatile EventSink sink = null;
+	private boolean closed = false;
+
+	/**
+	 * @param simulation id of the simulation, written with every event
+	 * @param level events above this level are discarded
+	 * @param file destination of the events, an empty name means standard output
+	 * @param blocking if false events are dropped while the sink can't keep up,
+	 * see {@link AsyncEventSink}
+	 */
+	public EventLog(int simulation, int level, String file, boolean blocking)
+	{
+		this.simulation = simulation;
+		this.level = level;
+		this.file = file == null ? "" : file;
+		this.blocking = blocking;
+	}
+
+	/**
+	 * @return the log of the events that don't belong to a simulation (ERROR level)
+	 */
+	public static EventLog getDefault()
+	{
+		return defaultLog;
+	}
+
+	public boolean isEnabled(int eventLevel)
+	{
+		return eventLevel <= level;
+	}
+
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * @return the level named name (case insensitive), defaultLevel if there is none
+	 */
+	public static int parseLevel(String name, int defaultLevel)
+	{
+		for (int i = 0; i < LEVEL_NAMES.length; i++)
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name))
+				return i;
+		return defaultLevel;
+	}
+
+	/**
+	 * @return the sink of this log, opening it (or joining the log already
+	 * writing to the same file) at the first call. null if the log is closed.
+	 */
+	private EventSink sink()
+	{
+		synchronized (EventLog.class)
+		{
+			SharedSink shared;
+			if (sink != null || closed)
+				return sink;
+			shared = sinks.get(file);
+			if (shared == null)
+			{
+				try {
+					if (file.equals(""))
+						shared = new SharedSink(new AsyncEventSink(
+								new OutputStreamWriter(System.out), RING_CAPACITY, blocking));
+					else
+						shared = new SharedSink(new AsyncEventSink(
+								new BufferedWriter(new FileWriter(file)), RING_CAPACITY, blocking));
+				} catch (IOException e) {
+					System.err.println("Can't open event log " + file + ": " + e.getMessage());
+					closed = true;
+					return null;
+				}
+				sinks.put(file, shared);
+			}
+			shared.users++;
+			sink = shared.sink;
+			return sink;
+		}
+	}
+
+	/**
+	 * Publishes an event if eventLevel is enabled.
+	 */
+	public void publish(int eventLevel, int type, long node, String subject, long value)
+	{
+		EventSink s;
+		if (eventLevel > level)
+			return;
+		s = sink;
+		if (s == null && (s = sink()) == null)
+			return;
+		s.publish(eventLevel, type, SimClock.getTime(), simulation, node, subject, value);
+	}
+
+	public void error(long node, String text)
+	{
+		publish(ERROR, TEXT, node, text, 0);
+	}
+
+	/**
+	 * Waits until the published events have been written.
+	 */
+	public void flush()
+	{
+		EventSink s = sink;
+		if (s != null)
+			s.flush();
+	}
+
+	/**
+	 * Flushes the log and releases its sink, which is closed when no other
+	 * log is writing to it. Later events are discarded.
+	 */
+	public void close()
+	{
+		synchronized (EventLog.class)
+		{
+			SharedSink shared;
+			if (closed)
+				return;
+			closed = true;
+			if (sink == null)
+				return;
+			sink.flush();
+			shared = sinks.get(file);
+			if (shared != null && shared.sink == sink && --shared.users == 0)
+			{
+				sinks.remove(file);
+				sink.close();
+			}
+			sink = null;
+		}
+	}
+
+	static String levelName(int eventLevel)
+	{
+		if (eventLevel < 0 || eventLevel >= LEVEL_NAMES.length)
+			return String.valueOf(eventLevel);
+		return LEVEL_NAMES[eventLevel];
+	}
+
+	static String typeName(int type)
+	{
+		if (type < 0 || type >= TYPE_NAMES.length)
+			return String.valueOf(type);
+		return TYPE_NAMES[type];
+	}
+}
@@ -0,0 +1,31 @@
+package cgr_jni.log;
+
+/**
+ * Destination of the events published through {@link EventLog}.
+ * publish() is invoked by the simulation threads: it should return quickly,
+ * blocking them only while the sink can't keep up.
+ */
+public interface EventSink {
+
+	/**
+	 * @param level one of the EventLog levels
+	 * @param type one of the EventLog event types
+	 * @param time simulation time
+	 * @param simulation id of the simulation the node belongs to
+	 * @param node local node number
+	 * @param subject message id or free text, can be null
+	 * @param value peer node number or any other numeric detail
+	 */
+	void publish(int level, int type, double time, int simulation, long node, 
+			String subject, long value);
+
+	/**
+	 * Waits until all the published events have been written.
+	 */
+	void flush();
+
+	/**
+	 * Flushes and releases the sink, events published later are dropped.
+	 */
+	void close();
+}
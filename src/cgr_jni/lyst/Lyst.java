@@ -1,8 +1,8 @@
 package cgr_jni.lyst;
 
-import java.util.LinkedList;
 /**
- * Classe che implementa un gestore di LinkedList
+ * Classe che implementa una lista doppiamente collegata:
+ * i collegamenti stanno dentro LystElt, quindi next/prev/delete sono O(1)
  * 
  * @author michele
  *
@@ -10,35 +10,103 @@ import java.util.LinkedList;
 
 public class Lyst {
 	
-	private LinkedList<LystElt> list;
+	private LystElt first = null;
+	private LystElt last = null;
+	private int length = 0;
 	private long deleteCallbackFunction = 0;
 	private long deleteFunctionUserdata = 0;
 		
 	public Lyst()
 	{
-		this.list = new LinkedList<>();
 	}
 	
+	/**
+	 * Stacca tutti gli elementi senza chiamare la callback di delete
+	 * (la callback e' una funzione C, la chiama lyst.c in Lyst_delete).
+	 */
 	public void clear()
 	{
-		list.clear();
+		LystElt cur = first;
+		LystElt next;
+		while (cur != null)
+		{
+			next = cur.getNext();
+			cur.unlink();
+			cur = next;
+		}
+		first = null;
+		last = null;
+		length = 0;
+	}
+	
+	public int getLength()
+	{
+		return length;
 	}
 	
 	public LystElt insertFirst(long data)
 	{
 		LystElt el = new LystElt(data);
-		el.setList(this);
-		list.addFirst(el);
+		link(el, null, first);
 		return el;
 	}
 	
 	public LystElt insertLast(long data)
 	{
 		LystElt el = new LystElt(data);
-		el.setList(this);
-		list.addLast(el);
+		link(el, last, null);
 		return el;
 	}
+	
+	public LystElt insertBefore(LystElt ref, long data)
+	{
+		LystElt el = new LystElt(data);
+		link(el, ref.getPrev(), ref);
+		return el;
+	}
+	
+	public LystElt insertAfter(LystElt ref, long data)
+	{
+		LystElt el = new LystElt(data);
+		link(el, ref, ref.getNext());
+		return el;
+	}
+	
+	/**
+	 * Toglie el dalla lista in O(1).
+	 * Non fa nulla se el non appartiene a questa lista.
+	 */
+	public void remove(LystElt el)
+	{
+		if (el.getList() != this)
+			return;
+		if (el.getPrev() != null)
+			el.getPrev().setNext(el.getNext());
+		else
+			first = el.getNext();
+		if (el.getNext() != null)
+			el.getNext().setPrev(el.getPrev());
+		else
+			last = el.getPrev();
+		el.unlink();
+		length--;
+	}
+	
+	private void link(LystElt el, LystElt prev, LystElt next)
+	{
+		el.setList(this);
+		el.setPrev(prev);
+		el.setNext(next);
+		if (prev != null)
+			prev.setNext(el);
+		else
+			first = el;
+		if (next != null)
+			next.setPrev(el);
+		else
+			last = el;
+		length++;
+	}
 		
 	public static Lyst lyst_create_using(int idx)
 	{
@@ -65,48 +133,41 @@ public class Lyst {
 		return list.insertLast(data);
 	}
 	
+	public static LystElt lyst_insert_first(Lyst list, long data)
+	{
+		return list.insertFirst(data);
+	}
+	
 	public static void lyst_delete(LystElt el)
 	{
-		el.getList().list.remove(el);
-		el = null;
+		Lyst list = el.getList();
+		if (list != null)
+			list.remove(el);
 	}
 	
 	public static LystElt lyst_first(Lyst list)
 	{
-		if (list.list.isEmpty())
-			return null;
-		return list.list.getFirst();
+		return list.first;
 	}
 	
 	public static LystElt lyst_last(Lyst list)
 	{
-		if (list.list.isEmpty())
-			return null;
-		return list.list.getLast();
+		return list.last;
 	}
 	
 	public static LystElt lyst_next(LystElt el)
 	{
-		LinkedList<LystElt> list = el.getList().list;
-		LystElt result = null;
-		int i = list.indexOf(el);
-		try {
-			result = list.get(i + 1);
-		} catch (IndexOutOfBoundsException e)
-		{
-			return null;
-		}
-		return result;
+		return el.getNext();
 	}
 	
 	public static LystElt lyst_prev(LystElt el)
 	{
-		LinkedList<LystElt> list = el.getList().list;
-		int i = list.indexOf(el);
-		if (i == 0)
-			return null; // el is the first element of the list
-		else
-			return list.get(i - 1);
+		return el.getPrev();
+	}
+	
+	public static long lyst_length(Lyst list)
+	{
+		return list.length;
 	}
 	
 	public static long lyst_data(LystElt el)
@@ -9,7 +9,7 @@ public class LystElt {
 	
 	private Lyst list;
 	/**
-	 * Queste sono inutili
+	 * Collegamenti all'elemento precedente e successivo, gestiti da Lyst
 	 */
 	private LystElt prev, next;
 	/**
@@ -51,6 +51,15 @@ public class LystElt {
 		this.next = next;
 	}
 
+	/**
+	 * Stacca l'elemento dalla lista (chiamato da Lyst quando l'elemento viene tolto)
+	 */
+	void unlink() {
+		this.list = null;
+		this.prev = null;
+		this.next = null;
+	}
+
 	public long getData() {
 		return data;
 	}
@@ -0,0 +1,145 @@
+package cgr_jni.psm;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of psm addresses, kept as primitive longs.
+ * Every address carries the size of the object allocated there.
+ */
+class PsmAddressTable {
+	private static final int INITIAL_CAPACITY = 64;
+	// 0 marks an empty slot, address 0 is kept aside
+	private static final long EMPTY = 0;
+
+	private long[] keys;
+	private long[] sizes;
+	private int mask;
+	private int count;
+	private boolean hasZero;
+	private long zeroSize;
+
+	PsmAddressTable()
+	{
+		keys = new long[INITIAL_CAPACITY];
+		sizes = new long[INITIAL_CAPACITY];
+		mask = INITIAL_CAPACITY - 1;
+	}
+
+	private static int hash(long address)
+	{
+		long h = address * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int slotOf(long address)
+	{
+		int i = hash(address) & mask;
+		while (keys[i] != EMPTY && keys[i] != address)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * @return false if the address is already in the table
+	 */
+	boolean add(long address, long size)
+	{
+		int i;
+		if (address == EMPTY)
+		{
+			if (hasZero)
+				return false;
+			hasZero = true;
+			zeroSize = size;
+			count++;
+			return true;
+		}
+		i = slotOf(address);
+		if (keys[i] == address)
+			return false;
+		keys[i] = address;
+		sizes[i] = size;
+		if (++count * 2 > keys.length)
+			grow();
+		return true;
+	}
+
+	boolean contains(long address)
+	{
+		if (address == EMPTY)
+			return hasZero;
+		return keys[slotOf(address)] == address;
+	}
+
+	/**
+	 * @return the size of the removed object, -1 if the address was not in the table
+	 */
+	long remove(long address)
+	{
+		int i, j, home;
+		long size;
+		if (address == EMPTY)
+		{
+			if (!hasZero)
+				return -1;
+			hasZero = false;
+			count--;
+			return zeroSize;
+		}
+		i = slotOf(address);
+		if (keys[i] != address)
+			return -1;
+		size = sizes[i];
+		// backward shift, so that no tombstones are needed
+		j = i;
+		while (true)
+		{
+			j = (j + 1) & mask;
+			if (keys[j] == EMPTY)
+				break;
+			home = hash(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask))
+			{
+				keys[i] = keys[j];
+				sizes[i] = sizes[j];
+				i = j;
+			}
+		}
+		keys[i] = EMPTY;
+		sizes[i] = 0;
+		count--;
+		return size;
+	}
+
+	int size()
+	{
+		return count;
+	}
+
+	void clear()
+	{
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(sizes, 0);
+		hasZero = false;
+		count = 0;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		long[] oldSizes = sizes;
+		int i;
+		keys = new long[oldKeys.length * 2];
+		sizes = new long[oldKeys.length * 2];
+		mask = keys.length - 1;
+		for (i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != EMPTY)
+			{
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				sizes[slot] = oldSizes[i];
+			}
+		}
+	}
+}
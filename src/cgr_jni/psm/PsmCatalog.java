@@ -0,0 +1,189 @@
+package cgr_jni.psm;
+
+import java.util.HashMap;
+
+/**
+ * Catalogue of a psm partition, indexed both by name and by address
+ * so that the entries of a freed object are found without scanning.
+ */
+class PsmCatalog {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long EMPTY = 0;
+
+	private static class Entry
+	{
+		final String name;
+		final long address;
+		Entry nextSameAddress;
+
+		Entry(String name, long address)
+		{
+			this.name = name;
+			this.address = address;
+		}
+	}
+
+	private final HashMap<String, Entry> byName = new HashMap<>();
+	// open addressing index address -> entries, address 0 kept aside
+	private long[] addresses = new long[INITIAL_CAPACITY];
+	private Entry[] entries = new Entry[INITIAL_CAPACITY];
+	private int mask = INITIAL_CAPACITY - 1;
+	private int used;
+	private Entry zeroEntries;
+
+	private static int hash(long address)
+	{
+		long h = address * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int slotOf(long address)
+	{
+		int i = hash(address) & mask;
+		while (addresses[i] != EMPTY && addresses[i] != address)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * @return the address catalogued as name, -1 if name is not in the catalogue
+	 */
+	long locate(String name)
+	{
+		Entry entry = byName.get(name);
+		if (entry == null)
+			return -1;
+		return entry.address;
+	}
+
+	/**
+	 * @return 0 on success, -1 if name is already in the catalogue
+	 */
+	int catlg(String name, long address)
+	{
+		Entry entry;
+		int i;
+		if (byName.containsKey(name))
+			return -1;
+		entry = new Entry(name, address);
+		byName.put(name, entry);
+		if (address == EMPTY)
+		{
+			entry.nextSameAddress = zeroEntries;
+			zeroEntries = entry;
+			return 0;
+		}
+		i = slotOf(address);
+		if (addresses[i] == EMPTY)
+		{
+			addresses[i] = address;
+			used++;
+		}
+		entry.nextSameAddress = entries[i];
+		entries[i] = entry;
+		if (used * 2 > addresses.length)
+			grow();
+		return 0;
+	}
+
+	/**
+	 * @return 0 on success, -1 if name is not in the catalogue
+	 */
+	int uncatlg(String name)
+	{
+		Entry entry = byName.remove(name);
+		Entry cur, prev = null;
+		int i;
+		if (entry == null)
+			return -1;
+		if (entry.address == EMPTY)
+		{
+			for (cur = zeroEntries; cur != entry; cur = cur.nextSameAddress)
+				prev = cur;
+			if (prev == null)
+				zeroEntries = entry.nextSameAddress;
+			else
+				prev.nextSameAddress = entry.nextSameAddress;
+			return 0;
+		}
+		i = slotOf(entry.address);
+		for (cur = entries[i]; cur != entry; cur = cur.nextSameAddress)
+			prev = cur;
+		if (prev != null)
+			prev.nextSameAddress = entry.nextSameAddress;
+		else if (entry.nextSameAddress != null)
+			entries[i] = entry.nextSameAddress;
+		else
+			removeSlot(i);
+		return 0;
+	}
+
+	/**
+	 * Drops every entry pointing to address.
+	 */
+	void uncatlgAddress(long address)
+	{
+		Entry cur;
+		int i;
+		if (address == EMPTY)
+		{
+			cur = zeroEntries;
+			zeroEntries = null;
+		}
+		else
+		{
+			i = slotOf(address);
+			if (addresses[i] == EMPTY)
+				return;
+			cur = entries[i];
+			removeSlot(i);
+		}
+		for (; cur != null; cur = cur.nextSameAddress)
+			byName.remove(cur.name);
+	}
+
+	int size()
+	{
+		return byName.size();
+	}
+
+	private void removeSlot(int i)
+	{
+		int j = i, home;
+		while (true)
+		{
+			j = (j + 1) & mask;
+			if (addresses[j] == EMPTY)
+				break;
+			home = hash(addresses[j]) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask))
+			{
+				addresses[i] = addresses[j];
+				entries[i] = entries[j];
+				i = j;
+			}
+		}
+		addresses[i] = EMPTY;
+		entries[i] = null;
+		used--;
+	}
+
+	private void grow()
+	{
+		long[] oldAddresses = addresses;
+		Entry[] oldEntries = entries;
+		int i, slot;
+		addresses = new long[oldAddresses.length * 2];
+		entries = new Entry[oldAddresses.length * 2];
+		mask = addresses.length - 1;
+		for (i = 0; i < oldAddresses.length; i++)
+		{
+			if (oldAddresses[i] != EMPTY)
+			{
+				slot = slotOf(oldAddresses[i]);
+				addresses[slot] = oldAddresses[i];
+				entries[slot] = oldEntries[i];
+			}
+		}
+	}
+}
@@ -1,10 +1,10 @@
 package cgr_jni.psm;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PsmNodePartitionManager {
 	private long nodeNum;
-	private HashMap<Integer, PsmPartition> partitions = new HashMap<>();
+	private ConcurrentHashMap<Integer, PsmPartition> partitions = new ConcurrentHashMap<>();
 	
 	public PsmNodePartitionManager(long nodeNum)
 	{
@@ -36,4 +36,15 @@ public class PsmNodePartitionManager {
 	{
 		partitions.remove(partNum);
 	}
+
+	/**
+	 * @return the bytes currently allocated in all the partitions of the node
+	 */
+	public long getLiveBytes()
+	{
+		long result = 0;
+		for (PsmPartition partition : partitions.values())
+			result += partition.getLiveBytes();
+		return result;
+	}
 }
@@ -1,26 +1,25 @@
 package cgr_jni.psm;
 
-import java.util.LinkedHashMap;
-import java.util.TreeSet;
-
 public class PsmPartition {
 	private int id;
-	private TreeSet<Long> addresses;
-	private LinkedHashMap<String, Long> catalog;
-	
+	private PsmAddressTable addresses;
+	private PsmCatalog catalog;
+	private long liveBytes = 0;
+	private long highWaterBytes = 0;
+
 	public PsmPartition(int id)
 	{
 		this.id = id;
-		this.catalog = new LinkedHashMap<>(1);
-		this.addresses = new TreeSet<>();
+		this.catalog = new PsmCatalog();
+		this.addresses = new PsmAddressTable();
 	}
-	
+
 	public int getId()
 	{
 		return this.id;
 	}
 	/**
-	 * 
+	 *
 	 * @param name
 	 * @param objLocation
 	 * @param entry
@@ -28,60 +27,50 @@ public class PsmPartition {
 	 */
 	public long psmLocate(String name)
 	{
-		Long add = catalog.get(name);
-		if (add == null)
-		{
-			return -1;
-		}
-		else
-		{
-			return add.longValue();
-		}
+		return catalog.locate(name);
 	}
-	
+
 	public int psmCatlg(String name, long objLocation)
 	{
-		if (catalog.containsKey(name))
-		{
-			return -1;
-		}
-		catalog.put(name, objLocation);
-		return 0;
+		return catalog.catlg(name, objLocation);
 	}
-	
+
 	public int psmUncatlg(String name)
 	{
-		if (! catalog.containsKey(name))
-		{
-			return -1;
-		}
-		catalog.remove(name);
-		return 0;
+		return catalog.uncatlg(name);
 	}
-	
+
 	public long psmAlloc(long pointer)
 	{
-		if (addresses.add(pointer) == false)
+		return psmAlloc(pointer, 0);
+	}
+
+	/**
+	 * @param pointer the address of the new object
+	 * @param size the size of the new object in bytes
+	 * @return pointer on success, -1 if pointer was already allocated
+	 */
+	public long psmAlloc(long pointer, long size)
+	{
+		if (addresses.add(pointer, size) == false)
 			return -1;
+		liveBytes += size;
+		if (liveBytes > highWaterBytes)
+			highWaterBytes = liveBytes;
 		return pointer;
 	}
-	
+
+	/**
+	 * Releases the object and drops the catalogue entries pointing to it.
+	 */
 	public void psmFree(long address)
 	{
-		String key = null;
-		addresses.remove(address);
-		for (String cur : catalog.keySet())
-		{
-			if (catalog.get(cur) == address)
-			{
-				key = cur;
-				break;
-			}
-		}
-		if (key != null)
-			catalog.remove(key);
+		long size = addresses.remove(address);
+		if (size > 0)
+			liveBytes -= size;
+		catalog.uncatlgAddress(address);
 	}
-	
+
 	public long getAddress(long pointer)
 	{
 		if (addresses.contains(pointer))
@@ -89,4 +78,36 @@ public class PsmPartition {
 		return -1;
 	}
 
+	/**
+	 * @return the number of objects currently allocated
+	 */
+	public int getLiveObjects()
+	{
+		return addresses.size();
+	}
+
+	/**
+	 * @return the bytes currently allocated
+	 */
+	public long getLiveBytes()
+	{
+		return liveBytes;
+	}
+
+	/**
+	 * @return the highest value reached by getLiveBytes()
+	 */
+	public long getHighWaterBytes()
+	{
+		return highWaterBytes;
+	}
+
+	/**
+	 * @return the number of catalogued objects
+	 */
+	public int getCatalogSize()
+	{
+		return catalog.size();
+	}
+
 }
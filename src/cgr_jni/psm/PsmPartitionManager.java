@@ -1,22 +1,22 @@
 package cgr_jni.psm;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PsmPartitionManager {
 	
-	private static HashMap<Long, PsmNodePartitionManager> nodes = new HashMap<>();
+	/** nodes can be routed by different threads at the same time */
+	private static ConcurrentHashMap<Long, PsmNodePartitionManager> nodes = new ConcurrentHashMap<>();
 	
 	public static PsmPartition newPartition(long nodeNum, int partNum)
 	{
-		PsmNodePartitionManager nodeMan;
-		if (! nodes.keySet().contains(nodeNum))
+		PsmNodePartitionManager nodeMan = nodes.get(nodeNum);
+		if (nodeMan == null)
 		{
+			PsmNodePartitionManager existing;
 			nodeMan = new PsmNodePartitionManager(nodeNum);
-			nodes.put(nodeNum, nodeMan);
-		}
-		else
-		{
-			nodeMan = nodes.get(nodeNum);
+			existing = nodes.putIfAbsent(nodeNum, nodeMan);
+			if (existing != null)
+				nodeMan = existing;
 		}
 		return nodeMan.newPartition(partNum);
 	}
@@ -39,4 +39,15 @@ public class PsmPartitionManager {
 		}
 	}
 
+	/**
+	 * @return the bytes currently allocated by the node, 0 if the node is unknown
+	 */
+	public static long getLiveBytes(long nodeNum)
+	{
+		PsmNodePartitionManager nodeMan = nodes.get(nodeNum);
+		if (nodeMan != null)
+			return nodeMan.getLiveBytes();
+		return 0;
+	}
+
 }
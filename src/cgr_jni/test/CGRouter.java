@@ -20,23 +20,23 @@ public class CGRouter {
 	public void init(int host)
 	{
 		this.nodeNum = host;
-		Libcgr.initializeNode(host);
+		Libcgr.initializeNode(Libcgr.DEFAULT_CONTEXT, host);
 	}
 	
 	public void readContactPlan(String fileName)
 	{
-		Libcgr.readContactPlan(nodeNum, fileName);
+		Libcgr.readContactPlan(Libcgr.DEFAULT_CONTEXT, nodeNum, fileName);
 	}
 	
 	public void processLine(String line)
 	{
-		Libcgr.processLine(nodeNum, line);
+		Libcgr.processLine(Libcgr.DEFAULT_CONTEXT, nodeNum, line);
 	}
 	
 	public void testMessage()
 	{
 		Message message = new Message(null, null, "pippo", 100);
-		int result = Libcgr.genericTest(nodeNum, message);
+		int result = Libcgr.genericTest(Libcgr.DEFAULT_CONTEXT, nodeNum, message);
 		assert(result == 0);
 	}
 }
@@ -1,13 +1,22 @@
 package routing;
 import java.util.List;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import cgr_jni.Libcgr;
-import cgr_jni.Utils;
+import cgr_jni.SimContext;
+import cgr_jni.log.EventLog;
 import core.Connection;
 import core.DTNHost;
 import core.Message;
@@ -22,12 +31,19 @@ public class ContactGraphRouter extends ActiveRouter {
 		public static final int LIMBO_ID = -1;
 		public static final int NONE_ID = -2;
 		private DTNHost host;
-		private LinkedList<Message> queue;
+		/** Enqueued messages by priority, indexed by message id */
+		private OutductQueue queue;
 		private long totalEnqueuedBytes;
+		/** Contact in use to this neighbor, as seen at plan epoch contactEpoch.
+		 *  contactXmitRate is -1 if there is none. */
+		private long contactFromTime;
+		private long contactToTime;
+		private long contactXmitRate;
+		private long contactEpoch = -1;
 		
 		public Outduct(DTNHost host) {
 			this.host = host;
-			this.queue = new LinkedList<Message>();
+			this.queue = new OutductQueue();
 			this.totalEnqueuedBytes = 0;
 		}		
 		
@@ -38,8 +54,27 @@ public class ContactGraphRouter extends ActiveRouter {
 			this.host = host;
 		}
 		
+		/**
+		 * @return a copy of the enqueued messages in transmission order: expedited 
+		 * (highest ordinal first), normal, bulk; FIFO within each class
+		 */
 		public LinkedList<Message> getQueue() {
-			return queue;
+			return new LinkedList<Message>(queue.values());
+		}
+		
+		/**
+		 * Same as {@link #getQueue()}, without copying.
+		 * @return a read only view of the enqueued messages
+		 */
+		public Collection<Message> getMessages() {
+			return queue.values();
+		}
+		
+		/**
+		 * @return the next message to send, null if the outduct is empty
+		 */
+		public Message getFirstMessage() {
+			return queue.first();
 		}
 		
 		public long getTotalEnqueuedBytes() {
@@ -48,17 +83,17 @@ public class ContactGraphRouter extends ActiveRouter {
 		
 		public boolean containsMessage(Message m)
 		{
-			for(Message m1 : queue){
-				if( m.getId().equals(m1.getId())){
-					return true;
-				}
-			}
-			return false;
+			return queue.contains(m.getId());
 		}
 		
+		/**
+		 * Appends the message to the queue of its priority ({@link ContactGraphRouter#PRIORITY_PROP}).
+		 * A message already enqueued keeps its position and is not counted twice.
+		 */
 		public void insertMessageIntoOutduct(Message message){
-			this.queue.add(message);
+			boolean alreadyEnqueued = !queue.add(message, getPriority(message), getOrdinal(message));
 			boolean thisIsLimbo = host == null;
+			queueVersion++;
 			if (thisIsLimbo)
 			{
 				message.updateProperty(OUTDUCT_REF_PROP, LIMBO_ID);
@@ -69,29 +104,60 @@ public class ContactGraphRouter extends ActiveRouter {
 				removeMessageFromLimbo(message);
 			}
 			message.updateProperty(OUTDUCT_REF_PROP, host.getAddress());
-			totalEnqueuedBytes += message.getSize();
+			if (!alreadyEnqueued)
+				totalEnqueuedBytes += message.getSize();
+			scheduleRouteExpiration(message);
 		}
 
 		public void removeMessageFromOutduct(Message m){
-			Iterator<Message> iter = queue.iterator();
-			Message m1;
-			while (iter.hasNext())
-			{
-				m1 = iter.next();
-				if (m1.equals(m))
-				{	
-					iter.remove();
-					m.updateProperty(OUTDUCT_REF_PROP, NONE_ID);
-					totalEnqueuedBytes -= m.getSize();
-					return;
-				}
-			}
+			Message m1 = queue.get(m.getId());
+			if (m1 == null || !m1.equals(m))
+				return;
+			queue.remove(m.getId());
+			queueVersion++;
+			m.updateProperty(OUTDUCT_REF_PROP, NONE_ID);
+			if (host != null)
+				totalEnqueuedBytes -= m.getSize();
+			else
+				parkedMessages.remove(m.getId());
 		}
 		
 		public int getEnqueuedMessageNum(){
 			return queue.size();
 		}
 		
+		/**
+		 * @return the bytes the contact in use to this neighbor can still carry,
+		 * -1 if there is no such contact. The contact is looked up again only when
+		 * it ends or the contact plan changes.
+		 */
+		public long getResidualVolume()
+		{
+			long now = SimClock.getIntTime();
+			if (host == null)
+				return -1;
+			if (contactEpoch != planEpoch || now >= contactToTime)
+			{
+				contactEpoch = planEpoch;
+				if (Libcgr.getCurrentContact(simContext.getHandle(), 
+						ContactGraphRouter.this.getHost().getAddress(), 
+						host.getAddress(), contactBuffer) < 0)
+				{
+					contactToTime = Long.MAX_VALUE;
+					contactXmitRate = -1;
+				}
+				else
+				{
+					contactFromTime = contactBuffer[Libcgr.CONTACT_FROM_TIME];
+					contactToTime = contactBuffer[Libcgr.CONTACT_TO_TIME];
+					contactXmitRate = contactBuffer[Libcgr.CONTACT_XMIT_RATE];
+				}
+			}
+			if (contactXmitRate < 0)
+				return -1;
+			return (contactToTime - Math.max(now, contactFromTime)) * contactXmitRate;
+		}
+		
 		@Override
 		public int compareTo(Outduct o) {
 			return host.compareTo(o.host);
@@ -109,7 +175,7 @@ public class ContactGraphRouter extends ActiveRouter {
 			b.append(", size: ");
 			b.append(queue.size());
 			b.append(", msgs: [ ");
-			for (Message m : queue)
+			for (Message m : queue.values())
 			{
 				b.append(m.toString() + ",");
 			}
@@ -118,21 +184,164 @@ public class ContactGraphRouter extends ActiveRouter {
 		}
 	}
 	
+	/**
+	 * A message scheduled at some time: the forfeit time of its route 
+	 * or the time it leaves the limbo parking.
+	 * Ordered by time, then by registration order.
+	 */
+	private static class TimedMessage implements Comparable<TimedMessage> {
+		private final Message message;
+		private final long time;
+		private final long seq;
+		
+		TimedMessage(Message message, long time, long seq) {
+			this.message = message;
+			this.time = time;
+			this.seq = seq;
+		}
+		
+		@Override
+		public int compareTo(TimedMessage o) {
+			if (time != o.time)
+				return time < o.time ? -1 : 1;
+			return Long.compare(seq, o.seq);
+		}
+	}
+	
 	public static final String CGR_NS = "ContactGraphRouter";
 	public static final String CONTACT_PLAN_PATH_S = "ContactPlanPath";
+	/** Max number of routing decisions cached by every node, 0 disables the cache */
+	public static final String ROUTE_CACHE_SIZE_S = "RouteCacheSize";
+	/** Length (sec) of the time windows sharing a cached decision */
+	public static final String ROUTE_CACHE_WINDOW_S = "RouteCacheWindow";
+	/** If true every cache hit is checked against CGR, counting the mismatches */
+	public static final String ROUTE_CACHE_VERIFY_S = "RouteCacheVerify";
+	/** Level of the event log (OFF, ERROR, INFO, DEBUG), INFO by default.
+	 *  INFO logs every transmission, DEBUG the native CGR traces too.
+	 *  The log is set up by the first node of the simulation. */
+	public static final String EVENT_LOG_LEVEL_S = "EventLogLevel";
+	/** File the event log is written to, standard output by default.
+	 *  Simulations logging to the same file share it, see {@link EventLog} */
+	public static final String EVENT_LOG_FILE_S = "EventLogFile";
+	/** What the event log does when events come faster than it writes them:
+	 *  BLOCK (default) slows down the simulation, DROP drops the events */
+	public static final String EVENT_LOG_OVERFLOW_S = "EventLogOverflow";
+	/** If true (default) a bundle enqueued into an overbooked contact bumps 
+	 *  lower priority bundles back to routing, as ION does */
+	public static final String MANAGE_OVERBOOKING_S = "ManageOverbooking";
+	/** Number of threads routing the nodes in parallel at every update, 
+	 *  1 (default) routes every node in its own update(). The outcome is the same:
+	 *  a node whose queues changed since the start of the update is routed again
+	 *  in its own update() */
+	public static final String ROUTING_THREADS_S = "RoutingThreads";
 	public static final String ROUTE_FORWARD_TIMELIMIT_PROP = "ForwardTimelimit";
 	public static final String OUTDUCT_REF_PROP = "OutducReference";
+	/** Priority of a message: {@link #PRIORITY_BULK}, {@link #PRIORITY_NORMAL} (default) 
+	 *  or {@link #PRIORITY_EXPEDITED} */
+	public static final String PRIORITY_PROP = "Priority";
+	/** Ordinal (0-255) of an expedited message, higher ordinals are sent first */
+	public static final String ORDINAL_PROP = "Ordinal";
+	public static final int PRIORITY_BULK = OutductQueue.BULK;
+	public static final int PRIORITY_NORMAL = OutductQueue.NORMAL;
+	public static final int PRIORITY_EXPEDITED = OutductQueue.EXPEDITED;
 	
 	/** counter incremented every time a message is delivered to the local node,
 	 *  i.e. the message has reached its final destination. */
 	protected int deliveredCount = 0;
 	private boolean contactPlanChanged = false;
-	/** Used as reference for round-robin outducts sorting */
-	private DTNHost firstOutductIndex;
+	/** Used as reference for round-robin outducts sorting: 
+	 *  address of the first neighbor to try */
+	private int firstOutductIndex;
 	protected String contactPlanPath;
 	
-	private TreeMap<DTNHost, Outduct> outducts = new TreeMap<DTNHost, Outduct>();
+	/** Outducts indexed by neighbor address, created on demand */
+	private Outduct[] outductsByAddress = new Outduct[0];
+	/** The same outducts sorted by neighbor address */
+	private ArrayList<Outduct> outductList = new ArrayList<Outduct>();
+	private OutductMap outducts = new OutductMap();
+	/** Set when contact plan neighbors may have changed */
+	private boolean planNeighborsStale = false;
+	private long[] planNeighbors = new long[16];
 	private Outduct limbo = new Outduct(null);
+	/** Forfeit times of the enqueued messages, earliest first.
+	 *  Entries of messages rerouted or removed meanwhile are dropped when popped. */
+	private PriorityQueue<TimedMessage> routeDeadlines = new PriorityQueue<TimedMessage>();
+	/** Limbo messages without a route, waiting for the next contact opportunity.
+	 *  Only the entry in parkedMessages is valid, older ones are dropped when popped. */
+	private PriorityQueue<TimedMessage> limboWakeups = new PriorityQueue<TimedMessage>();
+	private HashMap<String, TimedMessage> parkedMessages = new HashMap<String, TimedMessage>();
+	private long timedMessageSeq = 0;
+	/** Reused by cgrForward() to pass message fields to the native library */
+	private long[] messageDescriptor = new long[Libcgr.DESC_LENGTH];
+	private long[] messageTerminus = new long[1];
+	private long[] messageResult = new long[Libcgr.RESULT_LENGTH];
+	private Message[] singleMessage = new Message[1];
+	/** Buffers reused by cgrForwardBatch(), grown on demand */
+	private long[] batchDescriptors = new long[0];
+	private long[] batchTermini = new long[0];
+	private long[] batchResults = new long[0];
+	/** Outducts as seen by the native library, rebuilt before each routing call */
+	private long[] outductTable = new long[0];
+	private Outduct[] outductTableRefs = new Outduct[0];
+	/** Routing decisions cache, null if disabled */
+	private RouteCache routeCache;
+	private int routeCacheSize;
+	private int routeCacheWindow;
+	private boolean routeCacheVerify;
+	/** Incremented at every contact plan change, cached decisions of older epochs are ignored */
+	private long planEpoch = 0;
+	private long lastPlanEditTime = -1;
+	/** Buffers for the bundles missing from the cache, grown on demand */
+	private long[] missDescriptors = new long[0];
+	private long[] missTermini = new long[0];
+	private long[] missResults = new long[0];
+	private int[] missPositions = new int[0];
+	private boolean[] missCached = new boolean[0];
+	private boolean manageOverbooking;
+	/** Messages bumped from an overbooked contact, waiting to be routed again */
+	private ArrayList<Message> bumped = new ArrayList<Message>();
+	private boolean reroutingBumped = false;
+	private long[] contactBuffer = new long[Libcgr.CONTACT_LENGTH];
+	/** Buffers used to route the bumped messages, grown on demand */
+	private long[] bumpDescriptors = new long[0];
+	private long[] bumpTermini = new long[0];
+	private long[] bumpResults = new long[0];
+	/** Shared by the routers of the simulation, null if routing is sequential */
+	private RoutingExecutor routingExecutor;
+	private int routingThreads;
+	private int eventLogLevel;
+	private String eventLogFile;
+	private boolean eventLogBlocking;
+	/** Native context of the simulation, shared by all its routers */
+	private SimContext simContext;
+	/** Identifies the simulation of this node, see {@link SimContext#acquire(Object)} */
+	private Object simulation;
+	/** true between initCGR() and finalizeCGR() */
+	private boolean nodeInitialized = false;
+	/** Messages collected by prepareRouting(), routed by routingJob
+	 *  and enqueued by applyPendingRouting() */
+	private Message[] pendingMessages = new Message[0];
+	private int pendingCount = 0;
+	/** the first pendingExpired messages are the ones whose route expired */
+	private int pendingExpired = 0;
+	private int pendingResult = -1;
+	private long pendingEpoch;
+	private long pendingVersion;
+	/** Incremented at every change of the outducts (limbo included) and of the 
+	 *  parked messages: the decisions taken by the routing threads are applied 
+	 *  only if nothing changed since prepareRouting() */
+	private long queueVersion = 0;
+	private long[] pendingDescriptors = new long[0];
+	private long[] pendingTermini = new long[0];
+	private long[] pendingResults = new long[0];
+	private Outduct[] pendingOutducts = new Outduct[0];
+	private final Callable<Void> routingJob = new Callable<Void>() {
+		@Override
+		public Void call() {
+			routePending();
+			return null;
+		}
+	};
 
 	/**
 	 * Copy constructor.
@@ -141,6 +350,16 @@ public class ContactGraphRouter extends ActiveRouter {
 	protected ContactGraphRouter(ActiveRouter r) {
 		super(r);
 		contactPlanPath = ((ContactGraphRouter) r).contactPlanPath;
+		routeCacheSize = ((ContactGraphRouter) r).routeCacheSize;
+		routeCacheWindow = ((ContactGraphRouter) r).routeCacheWindow;
+		routeCacheVerify = ((ContactGraphRouter) r).routeCacheVerify;
+		manageOverbooking = ((ContactGraphRouter) r).manageOverbooking;
+		routingThreads = ((ContactGraphRouter) r).routingThreads;
+		eventLogLevel = ((ContactGraphRouter) r).eventLogLevel;
+		eventLogFile = ((ContactGraphRouter) r).eventLogFile;
+		eventLogBlocking = ((ContactGraphRouter) r).eventLogBlocking;
+		if (routeCacheSize > 0)
+			routeCache = new RouteCache(routeCacheSize, routeCacheWindow);
 	}
 	
 	/**
@@ -152,7 +371,19 @@ public class ContactGraphRouter extends ActiveRouter {
 		super(s);
 		Settings cgrSettings = new Settings(CGR_NS);
 		contactPlanPath = cgrSettings.getSetting(CONTACT_PLAN_PATH_S, "");
-		firstOutductIndex = null;
+		routeCacheSize = cgrSettings.getInt(ROUTE_CACHE_SIZE_S, 0);
+		routeCacheWindow = cgrSettings.getInt(ROUTE_CACHE_WINDOW_S, 60);
+		routeCacheVerify = cgrSettings.getBoolean(ROUTE_CACHE_VERIFY_S, false);
+		manageOverbooking = cgrSettings.getBoolean(MANAGE_OVERBOOKING_S, true);
+		routingThreads = cgrSettings.getInt(ROUTING_THREADS_S, 1);
+		if (routeCacheSize > 0)
+			routeCache = new RouteCache(routeCacheSize, routeCacheWindow);
+		eventLogLevel = EventLog.parseLevel(
+				cgrSettings.getSetting(EVENT_LOG_LEVEL_S, "INFO"), EventLog.INFO);
+		eventLogFile = cgrSettings.getSetting(EVENT_LOG_FILE_S, "");
+		eventLogBlocking = !cgrSettings.getSetting(EVENT_LOG_OVERFLOW_S, "BLOCK")
+				.equalsIgnoreCase("DROP");
+		firstOutductIndex = 0;
 	}
 	
 	/**
@@ -165,7 +396,15 @@ public class ContactGraphRouter extends ActiveRouter {
 	@Override
 	public void init(DTNHost host, List<MessageListener> mListeners) {
 		super.init(host, mListeners);
+		simulation = mListeners;
 		initCGR();
+		if (simContext.getUsers() == 1)
+		{
+			simContext.setLog(new EventLog(simContext.getId(), 
+					eventLogLevel, eventLogFile, eventLogBlocking));
+		}
+		if (routingThreads > 1)
+			routingExecutor = RoutingExecutor.join(simContext, routingThreads, this);
 		if(contactPlanPath.equals(""))
 			return;
 		else
@@ -179,22 +418,121 @@ public class ContactGraphRouter extends ActiveRouter {
 	}
 	
 	/**
-	 * Gets all the outducts currently used by this node
-	 * @return the outducts
+	 * Read only view of the outducts, which are created only for contact plan 
+	 * neighbors and connected peers. Iteration is in neighbor address order.
+	 * As when every node had an outduct, get() of a node without one 
+	 * returns an outduct anyway: an empty one, not used by this router.
 	 */
-	public TreeMap<DTNHost, Outduct> getOutducts() {
-		updateOutducts(Utils.getAllNodes());
+	private class OutductMap extends AbstractMap<DTNHost, Outduct> {
+		@Override
+		public Outduct get(Object key) {
+			Outduct o;
+			DTNHost h;
+			if (!(key instanceof DTNHost))
+				return null;
+			h = (DTNHost) key;
+			o = findOutduct(h.getAddress());
+			if (o != null && o.getHost().equals(h))
+				return o;
+			return new Outduct(h);
+		}
+		@Override
+		public boolean containsKey(Object key) {
+			Outduct o;
+			if (!(key instanceof DTNHost))
+				return false;
+			o = findOutduct(((DTNHost) key).getAddress());
+			return o != null && o.getHost().equals(key);
+		}
+		@Override
+		public int size() {
+			return outductList.size();
+		}
+		@Override
+		public Collection<Outduct> values() {
+			return Collections.unmodifiableList(outductList);
+		}
+		@Override
+		public Set<Map.Entry<DTNHost, Outduct>> entrySet() {
+			return new AbstractSet<Map.Entry<DTNHost, Outduct>>() {
+				@Override
+				public Iterator<Map.Entry<DTNHost, Outduct>> iterator() {
+					final Iterator<Outduct> it = outductList.iterator();
+					return new Iterator<Map.Entry<DTNHost, Outduct>>() {
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+						public Map.Entry<DTNHost, Outduct> next() {
+							Outduct o = it.next();
+							return new AbstractMap.SimpleImmutableEntry<DTNHost, Outduct>(o.getHost(), o);
+						}
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+				@Override
+				public int size() {
+					return outductList.size();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Gets all the outducts currently used by this node.
+	 * @return the outducts (read only view)
+	 */
+	public Map<DTNHost, Outduct> getOutducts() {
 		return this.outducts;
 	}	
 	
+	/**
+	 * Gets the outduct directed to h, creating it if needed.
+	 */
+	public Outduct getOutduct(DTNHost h)
+	{
+		int address = h.getAddress();
+		Outduct o = findOutduct(address);
+		int low = 0, high = outductList.size();
+		if (o != null)
+			return o;
+		if (address >= outductsByAddress.length)
+			outductsByAddress = Arrays.copyOf(outductsByAddress, 
+					Math.max(address + 1, outductsByAddress.length * 2));
+		o = new Outduct(h);
+		outductsByAddress[address] = o;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (outductList.get(mid).getHost().getAddress() < address)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		outductList.add(low, o);
+		return o;
+	}
+	
+	/**
+	 * @return the outduct directed to the node with this address, null if there is none
+	 */
+	protected Outduct findOutduct(int address)
+	{
+		if (address < 0 || address >= outductsByAddress.length)
+			return null;
+		return outductsByAddress[address];
+	}
+	
 	/**
 	 * Gets the number of Messages enqueued into a specific outduct
 	 * @param h the host that the outduct is directed to
-	 * @return the total number of message enqueued into the outduct
+	 * @return the total number of message enqueued into the outduct, 
+	 * -1 if there is no outduct to h
 	 */
 	public int getOutductSize(DTNHost h)
 	{
-		Outduct o = outducts.get(h);
+		Outduct o = h == null ? null : findOutduct(h.getAddress());
 		if (o == null)
 			return -1;
 		return o.getEnqueuedMessageNum();
@@ -222,11 +560,14 @@ public class ContactGraphRouter extends ActiveRouter {
 	
 	/**
 	 * When status is changed the router needs to recalculate routes for messages into 
-	 * limbo. Status changes when 
+	 * limbo. Status changes when the contact plan is edited; the next update() 
+	 * reroutes the whole limbo and clears the flag.
 	 */
 	protected void contactPlanChanged()
 	{
 		contactPlanChanged = true;
+		planNeighborsStale = true;
+		planEpoch++;
 	}
 	protected boolean isContactPlanChanged()
 	{
@@ -244,7 +585,7 @@ public class ContactGraphRouter extends ActiveRouter {
 	{
 		int outductNum = (int) message.getProperty(OUTDUCT_REF_PROP);
 		if (outductNum >= 0)
-			getOutducts().get(Utils.getHostFromNumber(outductNum)).removeMessageFromOutduct(message);
+			findOutduct(outductNum).removeMessageFromOutduct(message);
 		limbo.insertMessageIntoOutduct(message);
 		message.updateProperty(OUTDUCT_REF_PROP, Outduct.LIMBO_ID);
 	}
@@ -268,7 +609,18 @@ public class ContactGraphRouter extends ActiveRouter {
 	{
 		return limbo.containsMessage(message);
 	}
-	
+
+	/**
+	 * Checks if a limbo message is parked, i.e. CGR had no route for it and
+	 * it won't be routed again before its next contact opportunity.
+	 * @param message the message to check.
+	 * @return true if the message is parked into the limbo.
+	 */
+	public boolean isMessageParked(Message message)
+	{
+		return parkedMessages.containsKey(message.getId());
+	}
+
 	/**
 	 * Tries to find a feasible route for every message currently into the limbo using 
 	 * {@link ContactGraphRouter#cgrForward(Message, DTNHost)}. If a route is found for
@@ -281,53 +633,213 @@ public class ContactGraphRouter extends ActiveRouter {
 		 * ConcurrentModificationException would be thrown.
 		 * insertBundleIntoOutduct() will remove the Message from the limbo.
 		 */
-		Object[] temp = (Object[]) limbo.getQueue().toArray();
-		for (int i = 0; i < temp.length; i++)
+		Message[] temp = limbo.getMessages().toArray(new Message[0]);
+		contactPlanChanged = false;
+		cgrForwardBatch(temp, temp.length);
+	}
+	
+	/**
+	 * Parks a limbo message CGR has no route for, until the next contact that
+	 * leaves this node or reaches its destination opens. If there is no such 
+	 * contact only a contact plan change will bring it back to CGR.
+	 */
+	protected void parkMessage(Message m)
+	{
+		long wakeup = Libcgr.getNextContactOpportunity(simContext.getHandle(), getHost().getAddress(), 
+				m.getTo().getAddress());
+		TimedMessage p = new TimedMessage(m, wakeup, timedMessageSeq++);
+		queueVersion++;
+		parkedMessages.put(m.getId(), p);
+		if (wakeup >= 0)
+			limboWakeups.add(p);
+	}
+	
+	/**
+	 * Tries again to route the parked messages whose contact opportunity has come.
+	 */
+	protected void tryRouteForParkedMessages()
+	{
+		List<Message> toForward = new ArrayList<>();
+		collectParkedMessages(toForward);
+		if (!toForward.isEmpty())
+			cgrForwardBatch(toForward.toArray(new Message[toForward.size()]), toForward.size());
+	}
+	
+	/**
+	 * Adds to toForward the parked messages whose contact opportunity has come, 
+	 * they are no longer parked.
+	 */
+	private void collectParkedMessages(List<Message> toForward)
+	{
+		long now = SimClock.getIntTime();
+		TimedMessage p;
+		while ((p = limboWakeups.peek()) != null && now >= p.time)
+		{
+			limboWakeups.poll();
+			if (parkedMessages.get(p.message.getId()) != p)
+				continue; // left the limbo or parked again later
+			parkedMessages.remove(p.message.getId());
+			queueVersion++;
+			toForward.add(p.message);
+		}
+	}
+
+	/**
+	 * Same as {@link #collectParkedMessages(List)}, but the messages stay parked.
+	 */
+	private void peekParkedMessages(List<Message> toForward)
+	{
+		long now = SimClock.getIntTime();
+		List<TimedMessage> due = new ArrayList<>();
+		TimedMessage p;
+		while ((p = limboWakeups.peek()) != null && now >= p.time)
 		{
-			Message m = (Message) temp[i];
-			cgrForward(m, m.getTo());
+			due.add(limboWakeups.poll());
+			if (parkedMessages.get(p.message.getId()) == p)
+				toForward.add(p.message);
 		}
+		limboWakeups.addAll(due);
 	}
 
 	/**
-	 * Looks through all the outducts for messages whose route is expired 
-	 * and needs to be recalculated. These messages are moved into the limbo.
+	 * @return the priority of m, {@link #PRIORITY_NORMAL} if it hasn't one
+	 */
+	public static int getPriority(Message m)
+	{
+		Object priority = m.getProperty(PRIORITY_PROP);
+		if (priority == null)
+			return PRIORITY_NORMAL;
+		return (int) priority;
+	}
+	
+	/**
+	 * @return the ordinal of m, 0 if it hasn't one
+	 */
+	public static int getOrdinal(Message m)
+	{
+		Object ordinal = m.getProperty(ORDINAL_PROP);
+		if (ordinal == null)
+			return 0;
+		return (int) ordinal;
+	}
+	
+	/**
+	 * Registers the forfeit time of a message that has been enqueued into an outduct,
+	 * so that {@link ContactGraphRouter#checkExpiredRoutes()} finds it when it expires.
+	 * Messages that haven't been routed yet (forfeit time 0) are ignored.
+	 */
+	protected void scheduleRouteExpiration(Message m)
+	{
+		Object fwdTimelimit = m.getProperty(ROUTE_FORWARD_TIMELIMIT_PROP);
+		if (fwdTimelimit == null || (long) fwdTimelimit == 0)
+			return;
+		routeDeadlines.add(new TimedMessage(m, (long) fwdTimelimit, timedMessageSeq++));
+	}
+
+	/**
+	 * Moves into the limbo the messages whose route is expired 
+	 * and needs to be recalculated, then tries to route them again.
+	 * Only the expired deadlines are looked at.
 	 */
 	protected void checkExpiredRoutes()
 	{
-		List<Message> expired = new ArrayList<>(getNrofMessages());
-		for (Outduct o : getOutducts().values())
+		List<Message> toForward = new ArrayList<>();
+		collectExpiredRoutes(toForward);
+		if (!toForward.isEmpty())
+			cgrForwardBatch(toForward.toArray(new Message[toForward.size()]), toForward.size());
+	}
+	
+	/**
+	 * Moves into the limbo the messages whose route is expired, adding them to toForward.
+	 */
+	private void collectExpiredRoutes(List<Message> toForward)
+	{
+		long now = SimClock.getIntTime();
+		TimedMessage d;
+		while ((d = routeDeadlines.peek()) != null && now > d.time)
 		{
-			for (Message m : o.getQueue())
-			{
-				long fwdTimelimit = (long) m.getProperty(ROUTE_FORWARD_TIMELIMIT_PROP);
-				if (fwdTimelimit == 0) // This Message hasn't been routed yet
-					return;
-				if (SimClock.getIntTime() > fwdTimelimit)
-				{
-					expired.add(m);
-				}
-			}
-			for (Message m : expired)
-			{
-				/*
-				 * If a route has expired for a message, I put it into the limbo and 
-				 * invoke CGR, which possibly remove the message from limbo and
-				 * enqueue it into an outduct if a route has been found.
-				 */
-				o.removeMessageFromOutduct(m);
-				putMessageIntoLimbo(m);
-				cgrForward(m, m.getTo());
-			}
-			expired.clear();
+			routeDeadlines.poll();
+			Message m = d.message;
+			int outductNum = (int) m.getProperty(OUTDUCT_REF_PROP);
+			Outduct o = findOutduct(outductNum);
+			if (o == null || !o.containsMessage(m))
+				continue; // no longer enqueued
+			if ((long) m.getProperty(ROUTE_FORWARD_TIMELIMIT_PROP) != d.time)
+				continue; // rerouted meanwhile, a newer deadline is registered
+			/*
+			 * If a route has expired for a message, I put it into the limbo.
+			 * CGR is then invoked on all of them at once, possibly removing the 
+			 * messages from limbo and enqueueing them into an outduct.
+			 */
+			o.removeMessageFromOutduct(m);
+			putMessageIntoLimbo(m);
+			toForward.add(m);
 		}
 	}
+	
+	/**
+	 * Same as {@link #collectExpiredRoutes(List)}, but the messages stay enqueued.
+	 */
+	private void peekExpiredRoutes(List<Message> toForward)
+	{
+		long now = SimClock.getIntTime();
+		List<TimedMessage> expired = new ArrayList<>();
+		TimedMessage d;
+		while ((d = routeDeadlines.peek()) != null && now > d.time)
+		{
+			expired.add(routeDeadlines.poll());
+			Message m = d.message;
+			Outduct o = findOutduct((int) m.getProperty(OUTDUCT_REF_PROP));
+			if (o != null && o.containsMessage(m)
+					&& (long) m.getProperty(ROUTE_FORWARD_TIMELIMIT_PROP) == d.time)
+				toForward.add(m);
+		}
+		routeDeadlines.addAll(expired);
+	}
+	
+	/**
+	 * Collects the messages to route at this update: the ones whose route 
+	 * expired (moved into the limbo) and the parked ones whose contact 
+	 * opportunity has come, or the whole limbo if the contact plan has changed.
+	 */
+	private void collectRoutingWork(List<Message> toForward)
+	{
+		collectExpiredRoutes(toForward);
+		if (isContactPlanChanged())
+		{
+			// the whole limbo, expired routes included
+			toForward.clear();
+			toForward.addAll(limbo.getMessages());
+			contactPlanChanged = false;
+		}
+		else
+			collectParkedMessages(toForward);
+	}
+	
+	/**
+	 * Routes the messages of {@link #collectRoutingWork(List)} in one batch.
+	 */
+	private void routeCollected()
+	{
+		List<Message> toForward = new ArrayList<>();
+		if (routeCache != null)
+			checkPlanEditTime();
+		collectRoutingWork(toForward);
+		if (!toForward.isEmpty())
+			cgrForwardBatch(toForward.toArray(new Message[toForward.size()]), toForward.size());
+	}
 
 	@Override
 	public void update(){
-		checkExpiredRoutes();
-		if (isContactPlanChanged())
-			tryRouteForMessageIntoLimbo();
+		publishSimTime();
+		if (routingExecutor != null)
+		{
+			// the first router updated in this tick routes all the nodes
+			routingExecutor.beginTick(SimClock.getTime());
+			applyPendingRouting();
+		}
+		else
+			routeCollected();
 		super.update();
 		if (!canStartTransfer()) {
 			return; // allows concurrent transmission
@@ -337,13 +849,11 @@ public class ContactGraphRouter extends ActiveRouter {
 		if (sent != null)
 		{
 			// transmission started
-			System.out.println("" + SimClock.getTime() + 
-					": Begin transmission " 
-					+ sent.getKey() + " " + sent.getValue());
+			if (simContext.getLog().isEnabled(EventLog.INFO))
+				simContext.getLog().publish(EventLog.INFO, EventLog.BEGIN_TRANSMISSION, getHost().getAddress(),
+						sent.getKey().getId(), sent.getValue().getOtherNode(getHost()).getAddress());
 			// I look for next messafe starting form next outduct
-			firstOutductIndex = outducts.higherKey(sent.getValue().getOtherNode(getHost()));
-			if (firstOutductIndex == null)
-				firstOutductIndex = outducts.firstKey();
+			firstOutductIndex = sent.getValue().getOtherNode(getHost()).getAddress() + 1;
 		}
 	}
 	
@@ -375,7 +885,7 @@ public class ContactGraphRouter extends ActiveRouter {
 				}
 			} catch (NullPointerException e)
 			{
-				e.printStackTrace();
+				simContext.getLog().error(getHost().getAddress(), e.toString());
 				return;
 			}
 		}
@@ -405,7 +915,7 @@ public class ContactGraphRouter extends ActiveRouter {
 			else if (outductNum == Outduct.NONE_ID) // this message isn't in any outduct
 				o = null;
 			else
-				o = getOutducts().get(Utils.getHostFromNumber(outductNum));
+				o = findOutduct(outductNum);
 			if (o != null)
 				o.removeMessageFromOutduct(removed);
 			else return null;
@@ -426,8 +936,9 @@ public class ContactGraphRouter extends ActiveRouter {
 		super.transferDone(con);
 		Message transferred = con.getMessage();
 		removeFromOutducts(transferred.getId());
-		System.out.println("" + SimClock.getTime() + 
-				": End transmission " + transferred + " " + con);
+		if (simContext.getLog().isEnabled(EventLog.INFO))
+			simContext.getLog().publish(EventLog.INFO, EventLog.END_TRANSMISSION, getHost().getAddress(),
+					transferred.getId(), con.getOtherNode(getHost()).getAddress());
 	}
 	
 	@Override
@@ -446,16 +957,43 @@ public class ContactGraphRouter extends ActiveRouter {
 		return new ContactGraphRouter(this);
 	}
 
+	/**
+	 * Makes sure there is an outduct for every host.
+	 */
 	public void updateOutducts(Collection<DTNHost> hosts)
 	{
-		if (outducts.size() != hosts.size())
+		for (DTNHost h : hosts)
+			getOutduct(h);
+	}
+	
+	/**
+	 * Creates the outducts to the neighbors found in the local contact plan.
+	 * The native library can only forward to nodes that have an outduct.
+	 * Neighbors are looked up among the nodes of this simulation,
+	 * see {@link SimContext#getHost(long)}.
+	 */
+	private void updatePlanNeighbors()
+	{
+		int count = Libcgr.getContactPlanNeighbors(simContext.getHandle(), getHost().getAddress(), planNeighbors);
+		if (count > planNeighbors.length)
 		{
-			for (DTNHost h : hosts)
-			{
-				if (! outducts.keySet().contains(h))
-				outducts.put(h, new Outduct(h));
-			}
+			planNeighbors = new long[count * 2];
+			count = Libcgr.getContactPlanNeighbors(simContext.getHandle(), getHost().getAddress(), planNeighbors);
 		}
+		for (int i = 0; i < count; i++)
+		{
+			DTNHost h = simContext.getHost(planNeighbors[i]);
+			if (h != null)
+				getOutduct(h);
+		}
+		planNeighborsStale = false;
+	}
+	
+	@Override
+	public void changedConnection(Connection con) {
+		super.changedConnection(con);
+		if (con.isUp())
+			getOutduct(con.getOtherNode(getHost()));
 	}
 	
 	protected Connection getConnectionTo(DTNHost h)
@@ -480,34 +1018,59 @@ public class ContactGraphRouter extends ActiveRouter {
 
 		List<Tuple<Message, Connection>> forTuples = 
 				new ArrayList<Tuple<Message, Connection>>();
-		if (firstOutductIndex == null)
-			firstOutductIndex = outducts.firstKey();
-		Outduct o = outducts.get(firstOutductIndex);
-		Connection c;
-		for (int j = 0; j < outducts.size(); j++)
-		{
-			if ((c = getConnectionTo(o.getHost())) != null 
-					&& o.getEnqueuedMessageNum() > 0)
+		// only outducts with a live connection and queued data, 
+		// sorted round-robin starting from firstOutductIndex
+		for (Connection c : getConnections())
+		{
+			int address = c.getOtherNode(getHost()).getAddress();
+			Outduct o = findOutduct(address);
+			boolean taken = false;
+			int pos;
+			if (o == null || o.getEnqueuedMessageNum() == 0)
+				continue;
+			for (pos = 0; pos < forTuples.size(); pos++)
 			{
-				forTuples.add(new Tuple<Message, Connection>(o.getQueue().getFirst(), c));
+				int other = forTuples.get(pos).getValue().getOtherNode(getHost()).getAddress();
+				if (other == address) // the first connection to this neighbor is used
+				{
+					taken = true;
+					break;
+				}
+				if (roundRobinBefore(address, other))
+					break;
 			}
-			DTNHost next = outducts.higherKey(o.getHost());
-			if (next == null)
-				next = outducts.firstKey();
-			o = outducts.get(next);
+			if (!taken)
+				forTuples.add(pos, new Tuple<Message, Connection>(o.getFirstMessage(), c));
 		}
 		return forTuples;
 	}
 	
+	/**
+	 * @return true if the outduct to address a comes before the one to b 
+	 * in the current round-robin order
+	 */
+	private boolean roundRobinBefore(int a, int b)
+	{
+		boolean aAfterStart = a >= firstOutductIndex;
+		boolean bAfterStart = b >= firstOutductIndex;
+		if (aAfterStart != bAfterStart)
+			return aAfterStart;
+		return a < b;
+	}
+	
 	protected Tuple<Message, Connection> tryAllMessages()
 	{
 		List<Connection> connections = super.getConnections();
 		for(Connection c : connections){
-			Outduct o = getOutducts().get(c.getOtherNode(getHost()));
-			for(Message m : o.getQueue()){
+			Outduct o = findOutduct(c.getOtherNode(getHost()).getAddress());
+			if (o == null)
+				continue;
+			for(Message m : o.getMessages()){
 				if(super.startTransfer(m, c) == RCV_OK)
 				{
-					System.out.println("Begin transmission " + m + " " + c);
+					if (simContext.getLog().isEnabled(EventLog.INFO))
+						simContext.getLog().publish(EventLog.INFO, EventLog.BEGIN_TRANSMISSION, 
+								getHost().getAddress(), m.getId(), c.getOtherNode(getHost()).getAddress());
 					return new Tuple<Message, Connection>(m, c);
 				}
 				else 
@@ -538,11 +1101,16 @@ public class ContactGraphRouter extends ActiveRouter {
 	{
 		if (getHost().getAddress() == 0)
 		{
-			System.out.println("ERROR: ContactGraphRouter cannot be inizialized if "
+			EventLog.getDefault().error(0, "ContactGraphRouter cannot be inizialized if "
 					+ "local node number is 0");
+			EventLog.getDefault().flush();
 			System.exit(1);
 		}
-		Libcgr.initializeNode(getHost().getAddress());
+		simContext = SimContext.acquire(simulation);
+		simContext.addHost(getHost());
+		nodeInitialized = true;
+		publishSimTime();
+		Libcgr.initializeNode(simContext.getHandle(), getHost().getAddress());
 	}
 
 	/**
@@ -552,25 +1120,520 @@ public class ContactGraphRouter extends ActiveRouter {
 	 */
 	public void finalizeCGR()
 	{
-		Libcgr.finalizeNode(getHost().getAddress());
+		if (!nodeInitialized)
+			return;
+		nodeInitialized = false;
+		if (routingExecutor != null)
+			routingExecutor.leave(this);
+		routingExecutor = null;
+		Libcgr.finalizeNode(simContext.getHandle(), getHost().getAddress());
+		simContext.removeHost(getHost());
+		simContext.release();
 	}
 	
 	public void readContactPlan(String filePath)
 	{
-		Libcgr.readContactPlan(this.getHost().getAddress(), filePath);
+		publishSimTime();
+		Libcgr.readContactPlan(simContext.getHandle(), this.getHost().getAddress(), filePath);
 		contactPlanChanged();
 	}
 	
 	public void processLine(String line)
 	{
-		Libcgr.processLine(this.getHost().getAddress(), line);
+		publishSimTime();
+		Libcgr.processLine(simContext.getHandle(), this.getHost().getAddress(), line);
 		contactPlanChanged();
 	}
 	
 	public int cgrForward(Message m, DTNHost terminusNode)
 	{
 		//return -1;
-		return Libcgr.cgrForward(this.getHost().getAddress(), m, terminusNode.getAddress());
+		Libcgr.fillDescriptor(m, messageDescriptor);
+		messageTerminus[0] = terminusNode.getAddress();
+		singleMessage[0] = m;
+		int result = forwardAndEnqueue(singleMessage, 1, 
+				messageDescriptor, messageTerminus, messageResult);
+		singleMessage[0] = null;
+		if (result < 0)
+			return result;
+		return (int) messageResult[Libcgr.RESULT_PROXIMATE_NODE];
+	}
+	
+	/**
+	 * Same as invoking {@link ContactGraphRouter#cgrForward(Message, DTNHost)} with
+	 * m.getTo() as terminus for the first count messages, but using a single 
+	 * call to the native library.
+	 * @param messages the messages to route
+	 * @param count number of messages to route
+	 * @return the proximate node and the forfeit time chosen for every message
+	 * ({@link Libcgr#RESULT_LENGTH} values per message). The array is reused 
+	 * by the next invocation.
+	 */
+	public long[] cgrForwardBatch(Message[] messages, int count)
+	{
+		if (batchTermini.length < count)
+		{
+			batchDescriptors = new long[count * Libcgr.DESC_LENGTH];
+			batchTermini = new long[count];
+			batchResults = new long[count * Libcgr.RESULT_LENGTH];
+		}
+		for (int i = 0; i < count; i++)
+		{
+			Libcgr.fillDescriptor(messages[i], batchDescriptors, i * Libcgr.DESC_LENGTH);
+			batchTermini[i] = messages[i].getTo().getAddress();
+		}
+		forwardAndEnqueue(messages, count, batchDescriptors, batchTermini, batchResults);
+		return batchResults;
+	}
+	
+	/**
+	 * Asks the native library for a routing decision for every message
+	 * ({@link Libcgr#cgrForwardResult}) and then enqueues the routed messages 
+	 * into the chosen outducts, updating their forfeit time.
+	 * Messages without a route are left where they are, limbo ones are parked.
+	 * Messages bumped meanwhile by {@link ContactGraphRouter#manageOverbooking} 
+	 * are routed again before returning.
+	 * @return the number of messages processed or -1 in case of error
+	 */
+	private int forwardAndEnqueue(Message[] messages, int count, 
+			long[] descriptors, long[] termini, long[] results)
+	{
+		int result;
+		publishSimTime();
+		result = routeMessages(count, descriptors, termini, results);
+		enqueueRouted(messages, result, results, outductTableRefs);
+		return result;
+	}
+	
+	/**
+	 * Takes the routing decisions, touching only the state of this router
+	 * and of its native node: it can run on a routing thread.
+	 * @return the number of messages processed or -1 in case of error
+	 */
+	private int routeMessages(int count, long[] descriptors, long[] termini, long[] results)
+	{
+		return routeMessages(count, descriptors, termini, fillOutductTable(), results);
+	}
+	
+	/**
+	 * Same as {@link #routeMessages(int, long[], long[], long[])} with the
+	 * outduct table already filled.
+	 */
+	private int routeMessages(int count, long[] descriptors, long[] termini, 
+			int outductCount, long[] results)
+	{
+		if (routeCache == null)
+			return Libcgr.cgrForwardResult(simContext.getHandle(), this.getHost().getAddress(), count,
+					descriptors, termini, outductTable, outductCount, results);
+		return forwardCached(count, descriptors, termini, outductCount, results);
+	}
+	
+	/**
+	 * Enqueues the first count messages as decided by routeMessages(), 
+	 * null messages are skipped.
+	 * @param outducts the outducts RESULT_OUTDUCT_INDEX refers to
+	 */
+	private void enqueueRouted(Message[] messages, int count, long[] results, Outduct[] outducts)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			int offset = i * Libcgr.RESULT_LENGTH;
+			int index = (int) results[offset + Libcgr.RESULT_OUTDUCT_INDEX];
+			if (messages[i] == null)
+				continue;
+			if (results[offset + Libcgr.RESULT_PROXIMATE_NODE] <= 0 || index < 0)
+			{
+				if (isMessageIntoLimbo(messages[i]))
+					parkMessage(messages[i]);
+				continue;
+			}
+			messages[i].updateProperty(ROUTE_FORWARD_TIMELIMIT_PROP, 
+					results[offset + Libcgr.RESULT_FORFEIT_TIME]);
+			Outduct o = outducts[index];
+			long backlog = o.getTotalEnqueuedBytes();
+			boolean enqueued = !o.containsMessage(messages[i]);
+			o.insertMessageIntoOutduct(messages[i]);
+			if (manageOverbooking && enqueued)
+				manageOverbooking(o, messages[i], backlog);
+		}
+		if (!bumped.isEmpty() && !reroutingBumped)
+			rerouteBumped();
+	}
+	
+	/**
+	 * Parallel routing, first step (on the simulation thread): collects the 
+	 * messages update() would route in sequential mode and their descriptors,
+	 * without touching the queues: until update() the router goes on as if
+	 * nothing had been routed. Decisions left from a tick this router hasn't 
+	 * been updated in are thrown away, as sequential mode wouldn't route then.
+	 * After a contact plan change nothing is prepared, update() routes the limbo.
+	 * @return true if there is something to route
+	 */
+	boolean prepareRouting()
+	{
+		List<Message> toForward = new ArrayList<>();
+		discardPendingRouting();
+		publishSimTime();
+		if (routeCache != null)
+			checkPlanEditTime();
+		if (isContactPlanChanged())
+			return false;
+		peekExpiredRoutes(toForward);
+		pendingExpired = toForward.size();
+		peekParkedMessages(toForward);
+		pendingCount = toForward.size();
+		if (pendingMessages.length < pendingCount)
+		{
+			pendingMessages = new Message[pendingCount];
+			pendingDescriptors = new long[pendingCount * Libcgr.DESC_LENGTH];
+			pendingTermini = new long[pendingCount];
+			pendingResults = new long[pendingCount * Libcgr.RESULT_LENGTH];
+		}
+		for (int i = 0; i < pendingCount; i++)
+		{
+			Message m = toForward.get(i);
+			pendingMessages[i] = m;
+			Libcgr.fillDescriptor(m, pendingDescriptors, i * Libcgr.DESC_LENGTH);
+			pendingTermini[i] = m.getTo().getAddress();
+		}
+		pendingResult = -1;
+		pendingEpoch = planEpoch;
+		pendingVersion = queueVersion;
+		return pendingCount > 0;
+	}
+	
+	Callable<Void> getRoutingJob()
+	{
+		return routingJob;
+	}
+	
+	/**
+	 * Parallel routing, second step (on a routing thread). The messages whose
+	 * route expired are still enqueued: the native library sees the outducts
+	 * without them, as collectExpiredRoutes() would leave them.
+	 */
+	private void routePending()
+	{
+		int outductCount = fillOutductTable();
+		for (int i = 0; i < pendingExpired; i++)
+			removeFromOutductTable(pendingMessages[i], outductCount);
+		pendingResult = routeMessages(pendingCount, pendingDescriptors, pendingTermini, 
+				outductCount, pendingResults);
+		if (pendingOutducts.length < outductTableRefs.length)
+			pendingOutducts = new Outduct[outductTableRefs.length];
+		System.arraycopy(outductTableRefs, 0, pendingOutducts, 0, outductTableRefs.length);
+	}
+	
+	/**
+	 * Parallel routing, last step (in update()). If the queues of this router
+	 * haven't changed since prepareRouting() (e.g. no message has been received 
+	 * meanwhile) the pending messages are collected and enqueued as decided, 
+	 * otherwise the decisions are thrown away and update() routes as in 
+	 * sequential mode: either way the outcome is the same.
+	 */
+	private void applyPendingRouting()
+	{
+		List<Message> toForward;
+		int count = pendingCount;
+		if (count == 0 || pendingEpoch != planEpoch || pendingVersion != queueVersion)
+		{
+			discardPendingRouting();
+			routeCollected();
+			return;
+		}
+		toForward = new ArrayList<>(count);
+		collectRoutingWork(toForward);
+		if (toForward.equals(Arrays.asList(pendingMessages).subList(0, count)))
+			enqueueRouted(pendingMessages, pendingResult, pendingResults, pendingOutducts);
+		else if (!toForward.isEmpty()) // not expected, the same queues give the same work
+			cgrForwardBatch(toForward.toArray(new Message[toForward.size()]), toForward.size());
+		discardPendingRouting();
+	}
+	
+	private void discardPendingRouting()
+	{
+		Arrays.fill(pendingMessages, 0, pendingCount, null);
+		Arrays.fill(pendingOutducts, null);
+		pendingCount = 0;
+		pendingExpired = 0;
+	}
+	
+	/**
+	 * As ION's manageOverbooking(): if m, just enqueued into o, doesn't fit into 
+	 * the residual volume of the contact in use, lower priority messages are moved
+	 * back into the limbo, last to be sent first, until it fits. 
+	 * Lower priority bytes that were already over the volume before m came are
+	 * left alone, as are the messages being sent.
+	 * @param backlog bytes enqueued into o before m
+	 */
+	private void manageOverbooking(Outduct o, Message m, long backlog)
+	{
+		int priority = getPriority(m);
+		int ordinal = getOrdinal(m);
+		long volume, overbooked, protectedBytes, lowerBytes = 0;
+		List<Message> candidates;
+		if (!o.queue.hasLowerPriority(priority, ordinal))
+			return;
+		volume = o.getResidualVolume();
+		if (volume < 0)
+			return;
+		protectedBytes = Math.max(0, backlog - volume);
+		overbooked = Math.max(0, o.getTotalEnqueuedBytes() - volume) - protectedBytes;
+		if (overbooked <= 0)
+			return;
+		candidates = o.queue.lowerPriority(priority, ordinal);
+		for (Message c : candidates)
+			lowerBytes += c.getSize();
+		if (o.getTotalEnqueuedBytes() - lowerBytes > volume)
+			return; // m won't be sent in this contact anyway
+		for (Message c : candidates)
+		{
+			if (overbooked <= 0)
+				break;
+			if (protectedBytes > 0)
+			{
+				protectedBytes -= c.getSize();
+				continue;
+			}
+			if (isSending(c.getId()))
+				continue;
+			putMessageIntoLimbo(c);
+			bumped.add(c);
+			overbooked -= c.getSize();
+		}
+	}
+	
+	/**
+	 * Routes again the bumped messages, until no more are bumped.
+	 * Bumping only goes down in priority, so this ends.
+	 */
+	private void rerouteBumped()
+	{
+		reroutingBumped = true;
+		while (!bumped.isEmpty())
+		{
+			Message[] toForward = bumped.toArray(new Message[bumped.size()]);
+			int count = 0;
+			bumped.clear();
+			if (bumpTermini.length < toForward.length)
+			{
+				bumpDescriptors = new long[toForward.length * Libcgr.DESC_LENGTH];
+				bumpTermini = new long[toForward.length];
+				bumpResults = new long[toForward.length * Libcgr.RESULT_LENGTH];
+			}
+			for (Message m : toForward)
+			{
+				if (!isMessageIntoLimbo(m))
+					continue; // routed again meanwhile
+				Libcgr.fillDescriptor(m, bumpDescriptors, count * Libcgr.DESC_LENGTH);
+				bumpTermini[count] = m.getTo().getAddress();
+				toForward[count++] = m;
+			}
+			forwardAndEnqueue(toForward, count, bumpDescriptors, bumpTermini, bumpResults);
+		}
+		reroutingBumped = false;
+	}
+	
+	/**
+	 * Same as {@link Libcgr#cgrForwardResult} but the decisions found in the 
+	 * route cache don't go through the native library (in verify mode they do,
+	 * and the cached ones are compared with them).
+	 * @return the number of messages processed or -1 in case of error
+	 */
+	private int forwardCached(int count, long[] descriptors, long[] termini, 
+			int outductCount, long[] results)
+	{
+		long now = SimClock.getIntTime();
+		int missCount = 0;
+		if (missTermini.length < count)
+		{
+			missDescriptors = new long[count * Libcgr.DESC_LENGTH];
+			missTermini = new long[count];
+			missResults = new long[count * Libcgr.RESULT_LENGTH];
+			missPositions = new int[count];
+			missCached = new boolean[count];
+		}
+		for (int i = 0; i < count; i++)
+		{
+			int offset = i * Libcgr.RESULT_LENGTH;
+			boolean cached = routeCache.lookup(descriptors, i * Libcgr.DESC_LENGTH, 
+					termini[i], now, planEpoch, results, offset);
+			if (cached)
+			{
+				int index = findOutductTableIndex(results[offset + Libcgr.RESULT_PROXIMATE_NODE], 
+						outductCount);
+				results[offset + Libcgr.RESULT_FLAGS] = 0;
+				results[offset + Libcgr.RESULT_OUTDUCT_INDEX] = index;
+				if (index >= 0 && !routeCacheVerify)
+				{
+					// as the native library does, so that next bundles see the backlog
+					addToOutductTable(index, descriptors, i * Libcgr.DESC_LENGTH);
+					continue;
+				}
+			}
+			System.arraycopy(descriptors, i * Libcgr.DESC_LENGTH, 
+					missDescriptors, missCount * Libcgr.DESC_LENGTH, Libcgr.DESC_LENGTH);
+			missTermini[missCount] = termini[i];
+			missPositions[missCount] = i;
+			missCached[missCount] = cached;
+			missCount++;
+		}
+		if (missCount == 0)
+			return count;
+		if (Libcgr.cgrForwardResult(simContext.getHandle(), this.getHost().getAddress(), missCount, missDescriptors, 
+				missTermini, outductTable, outductCount, missResults) < 0)
+			return -1;
+		for (int j = 0; j < missCount; j++)
+		{
+			int i = missPositions[j];
+			int offset = i * Libcgr.RESULT_LENGTH;
+			int missOffset = j * Libcgr.RESULT_LENGTH;
+			long proximateNode = missResults[missOffset + Libcgr.RESULT_PROXIMATE_NODE];
+			long forfeitTime = missResults[missOffset + Libcgr.RESULT_FORFEIT_TIME];
+			if (missCached[j] && (results[offset + Libcgr.RESULT_PROXIMATE_NODE] != proximateNode
+					|| results[offset + Libcgr.RESULT_FORFEIT_TIME] != forfeitTime))
+				routeCache.mismatch();
+			System.arraycopy(missResults, missOffset, results, offset, Libcgr.RESULT_LENGTH);
+			if (proximateNode > 0 && missResults[missOffset + Libcgr.RESULT_FLAGS] == 0
+					&& missResults[missOffset + Libcgr.RESULT_OUTDUCT_INDEX] >= 0)
+				routeCache.store(missDescriptors, j * Libcgr.DESC_LENGTH, missTermini[j], 
+						now, planEpoch, proximateNode, forfeitTime);
+		}
+		return count;
+	}
+	
+	/**
+	 * Adds the bundle described at offset to the backlog of entry index of outductTable.
+	 */
+	private void addToOutductTable(int index, long[] descriptors, int offset)
+	{
+		long size = descriptors[offset + Libcgr.DESC_SIZE];
+		long priority = descriptors[offset + Libcgr.DESC_PRIORITY];
+		int entry = index * Libcgr.OUTDUCT_LENGTH;
+		outductTable[entry + Libcgr.OUTDUCT_BACKLOG] += size;
+		if (priority <= PRIORITY_BULK)
+			outductTable[entry + Libcgr.OUTDUCT_BULK_BACKLOG] += size;
+		else if (priority >= PRIORITY_EXPEDITED)
+			outductTable[entry + Libcgr.OUTDUCT_URGENT_BACKLOG] += size;
+	}
+	
+	/**
+	 * @return the index of the outduct to node into outductTable, -1 if there is none
+	 */
+	private int findOutductTableIndex(long node, int outductCount)
+	{
+		int low = 0, high = outductCount - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long midNode = outductTable[mid * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_NODE_NBR];
+			if (midNode < node)
+				low = mid + 1;
+			else if (midNode > node)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Contact plan changes made directly to the native library don't go through
+	 * {@link ContactGraphRouter#contactPlanChanged()}: a new edit time 
+	 * starts a new cache epoch anyway.
+	 */
+	private void checkPlanEditTime()
+	{
+		long editTime = Libcgr.getContactPlanEditTime(simContext.getHandle(), getHost().getAddress());
+		if (editTime != lastPlanEditTime)
+		{
+			lastPlanEditTime = editTime;
+			planEpoch++;
+		}
+	}
+	
+	/**
+	 * @return the number of routing decisions taken from the cache
+	 */
+	public long getRouteCacheHits()
+	{
+		return routeCache == null ? 0 : routeCache.getHits();
+	}
+	
+	/**
+	 * @return the number of routing decisions not found in the cache
+	 */
+	public long getRouteCacheMisses()
+	{
+		return routeCache == null ? 0 : routeCache.getMisses();
+	}
+	
+	/**
+	 * @return the number of cached decisions different from the live ones,
+	 * counted only in verify mode
+	 */
+	public long getRouteCacheMismatches()
+	{
+		return routeCache == null ? 0 : routeCache.getMismatches();
+	}
+	
+	/**
+	 * Makes the current simulation time visible to the native library.
+	 * Must be invoked before any call to {@link Libcgr} since messages 
+	 * and contact plan changes can arrive between two updates.
+	 */
+	protected void publishSimTime()
+	{
+		simContext.setTime(SimClock.getIntTime());
+	}
+	
+	/**
+	 * Copies neighbor node and enqueued bytes (total, bulk and expedited) of every outduct into
+	 * outductTable, as expected by {@link Libcgr#cgrForwardResult}.
+	 * @return the number of outducts
+	 */
+	private int fillOutductTable()
+	{
+		Collection<Outduct> current;
+		int i = 0;
+		if (planNeighborsStale)
+			updatePlanNeighbors();
+		current = outductList;
+		if (outductTableRefs.length < current.size())
+		{
+			outductTable = new long[current.size() * Libcgr.OUTDUCT_LENGTH];
+			outductTableRefs = new Outduct[current.size()];
+		}
+		for (Outduct o : current)
+		{
+			outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_NODE_NBR] = o.getHost().getAddress();
+			outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_BACKLOG] = o.getTotalEnqueuedBytes();
+			outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_BULK_BACKLOG] = o.queue.getBulkBytes();
+			outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_URGENT_BACKLOG] = o.queue.getExpeditedBytes();
+			outductTableRefs[i] = o;
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Takes the enqueued message m out of the backlog of its outduct in the 
+	 * outduct table filled by {@link #fillOutductTable()}.
+	 */
+	private void removeFromOutductTable(Message m, int outductCount)
+	{
+		Outduct o = findOutduct((int) m.getProperty(OUTDUCT_REF_PROP));
+		for (int i = 0; i < outductCount; i++)
+		{
+			if (outductTableRefs[i] != o)
+				continue;
+			outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_BACKLOG] -= m.getSize();
+			if (getPriority(m) <= PRIORITY_BULK)
+				outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_BULK_BACKLOG] -= m.getSize();
+			else if (getPriority(m) > PRIORITY_NORMAL)
+				outductTable[i * Libcgr.OUTDUCT_LENGTH + Libcgr.OUTDUCT_URGENT_BACKLOG] -= m.getSize();
+			return;
+		}
 	}
 
 }
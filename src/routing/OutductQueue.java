@@ -0,0 +1,282 @@
+package routing;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import core.Message;
+
+/**
+ * Messages waiting in an outduct, split as in ION into bulk, normal
+ * and expedited FIFO queues, the expedited one further split by ordinal.
+ * Messages leave from the expedited queue with the highest ordinal first,
+ * then normal, then bulk. Every message is also indexed by id.
+ */
+class OutductQueue {
+
+	public static final int BULK = 0;
+	public static final int NORMAL = 1;
+	public static final int EXPEDITED = 2;
+	public static final int MAX_ORDINAL = 255;
+
+	private final LinkedHashMap<String, Message> bulk = new LinkedHashMap<String, Message>();
+	private final LinkedHashMap<String, Message> normal = new LinkedHashMap<String, Message>();
+	/** expedited queues by ordinal, created on demand */
+	private final LinkedHashMap<?, ?>[] expedited = new LinkedHashMap<?, ?>[MAX_ORDINAL + 1];
+	/** bit i set if expedited[i] is not empty */
+	private final long[] expeditedMask = new long[(MAX_ORDINAL + 1) / 64];
+	/** the queue every message is in */
+	private final HashMap<String, LinkedHashMap<String, Message>> queueOf =
+			new HashMap<String, LinkedHashMap<String, Message>>();
+	private long bulkBytes = 0;
+	private long expeditedBytes = 0;
+
+	@SuppressWarnings("unchecked")
+	private LinkedHashMap<String, Message> expedited(int ordinal)
+	{
+		return (LinkedHashMap<String, Message>) expedited[ordinal];
+	}
+
+	private static int clampOrdinal(int ordinal)
+	{
+		if (ordinal < 0)
+			return 0;
+		if (ordinal > MAX_ORDINAL)
+			return MAX_ORDINAL;
+		return ordinal;
+	}
+
+	private LinkedHashMap<String, Message> queueFor(int priority, int ordinal)
+	{
+		if (priority <= BULK)
+			return bulk;
+		if (priority == NORMAL)
+			return normal;
+		ordinal = clampOrdinal(ordinal);
+		if (expedited[ordinal] == null)
+			expedited[ordinal] = new LinkedHashMap<String, Message>();
+		expeditedMask[ordinal >>> 6] |= 1L << (ordinal & 63);
+		return expedited(ordinal);
+	}
+
+	/**
+	 * @return the highest expedited ordinal with messages, -1 if there is none
+	 */
+	private int highestOrdinal()
+	{
+		for (int i = expeditedMask.length - 1; i >= 0; i--)
+			if (expeditedMask[i] != 0)
+				return i * 64 + 63 - Long.numberOfLeadingZeros(expeditedMask[i]);
+		return -1;
+	}
+
+	/**
+	 * Appends m to the queue of its priority.
+	 * @return false if m was already enqueued (its position is kept)
+	 */
+	boolean add(Message m, int priority, int ordinal)
+	{
+		if (queueOf.containsKey(m.getId()))
+			return false;
+		LinkedHashMap<String, Message> q = queueFor(priority, ordinal);
+		q.put(m.getId(), m);
+		queueOf.put(m.getId(), q);
+		if (q == bulk)
+			bulkBytes += m.getSize();
+		else if (q != normal)
+			expeditedBytes += m.getSize();
+		return true;
+	}
+
+	Message get(String id)
+	{
+		LinkedHashMap<String, Message> q = queueOf.get(id);
+		return q == null ? null : q.get(id);
+	}
+
+	boolean contains(String id)
+	{
+		return queueOf.containsKey(id);
+	}
+
+	Message remove(String id)
+	{
+		LinkedHashMap<String, Message> q = queueOf.remove(id);
+		Message m;
+		if (q == null)
+			return null;
+		m = q.remove(id);
+		if (q == bulk)
+			bulkBytes -= m.getSize();
+		else if (q != normal)
+			expeditedBytes -= m.getSize();
+		if (q.isEmpty() && q != bulk && q != normal)
+		{
+			for (int i = highestOrdinal(); i >= 0; i--)
+			{
+				if (expedited[i] == q)
+				{
+					expeditedMask[i >>> 6] &= ~(1L << (i & 63));
+					break;
+				}
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * @return the next message to send, null if there is none
+	 */
+	Message first()
+	{
+		int ordinal = highestOrdinal();
+		if (ordinal >= 0)
+			return expedited(ordinal).values().iterator().next();
+		if (!normal.isEmpty())
+			return normal.values().iterator().next();
+		if (!bulk.isEmpty())
+			return bulk.values().iterator().next();
+		return null;
+	}
+
+	/**
+	 * @return true if some message has lower priority than priority and ordinal
+	 */
+	boolean hasLowerPriority(int priority, int ordinal)
+	{
+		if (priority <= BULK)
+			return false;
+		if (!bulk.isEmpty())
+			return true;
+		if (priority == NORMAL)
+			return false;
+		if (!normal.isEmpty())
+			return true;
+		ordinal = clampOrdinal(ordinal);
+		for (int i = 0; i <= ordinal >>> 6; i++)
+		{
+			long below = expeditedMask[i];
+			if (i == ordinal >>> 6)
+				below &= (1L << (ordinal & 63)) - 1;
+			if (below != 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Messages that can be bumped by a message of the given priority and ordinal,
+	 * in the order ION bumps them: bulk, then normal, then expedited from the 
+	 * lowest ordinal, each queue from its tail (i.e. last to be sent first).
+	 */
+	List<Message> lowerPriority(int priority, int ordinal)
+	{
+		ArrayList<Message> result = new ArrayList<Message>();
+		if (priority <= BULK)
+			return result;
+		addReversed(bulk, result);
+		if (priority == NORMAL)
+			return result;
+		addReversed(normal, result);
+		ordinal = clampOrdinal(ordinal);
+		for (int i = 0; i < ordinal; i++)
+			if (expedited[i] != null)
+				addReversed(expedited(i), result);
+		return result;
+	}
+
+	private static void addReversed(LinkedHashMap<String, Message> q, ArrayList<Message> result)
+	{
+		int start = result.size();
+		result.addAll(q.values());
+		Collections.reverse(result.subList(start, result.size()));
+	}
+
+	/**
+	 * @return the size of the bulk messages
+	 */
+	long getBulkBytes()
+	{
+		return bulkBytes;
+	}
+
+	/**
+	 * @return the size of the expedited messages, of any ordinal
+	 */
+	long getExpeditedBytes()
+	{
+		return expeditedBytes;
+	}
+
+	int size()
+	{
+		return queueOf.size();
+	}
+
+	boolean isEmpty()
+	{
+		return queueOf.isEmpty();
+	}
+
+	/**
+	 * @return the messages in the order they will be sent (read only view)
+	 */
+	Collection<Message> values()
+	{
+		return new AbstractCollection<Message>() {
+			@Override
+			public Iterator<Message> iterator() {
+				return new Iterator<Message>() {
+					/** expedited ordinal being read, then -1 normal, -2 bulk, -3 end */
+					private int current = MAX_ORDINAL + 1;
+					private Iterator<Message> it = null;
+
+					private void advance() {
+						while ((it == null || !it.hasNext()) && current > -3)
+						{
+							current--;
+							if (current >= 0)
+							{
+								if (expedited[current] != null && !expedited[current].isEmpty())
+									it = expedited(current).values().iterator();
+							}
+							else if (current == -1)
+								it = normal.values().iterator();
+							else if (current == -2)
+								it = bulk.values().iterator();
+						}
+					}
+
+					@Override
+					public boolean hasNext() {
+						advance();
+						return it != null && it.hasNext();
+					}
+
+					@Override
+					public Message next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						return it.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return queueOf.size();
+			}
+		};
+	}
+}
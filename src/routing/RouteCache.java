@@ -0,0 +1,181 @@
+package routing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cgr_jni.Libcgr;
+
+/**
+ * Bounded LRU cache of CGR decisions of a node.
+ * Bundles with the same terminus, sender, payload class, priority, time window
+ * and expiration window share the same decision, as long as the contact
+ * plan epoch doesn't change and the route hasn't been forfeited.
+ */
+class RouteCache {
+
+	private static class Key
+	{
+		long terminus;
+		long sender;
+		int sizeClass;
+		long priority;
+		long timeWindow;
+		long expirationWindow;
+
+		void set(long terminus, long sender, int sizeClass, long priority, 
+				long timeWindow, long expirationWindow)
+		{
+			this.terminus = terminus;
+			this.sender = sender;
+			this.sizeClass = sizeClass;
+			this.priority = priority;
+			this.timeWindow = timeWindow;
+			this.expirationWindow = expirationWindow;
+		}
+
+		Key copy()
+		{
+			Key k = new Key();
+			k.set(terminus, sender, sizeClass, priority, timeWindow, expirationWindow);
+			return k;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return terminus == k.terminus && sender == k.sender && sizeClass == k.sizeClass
+					&& priority == k.priority && timeWindow == k.timeWindow && expirationWindow == k.expirationWindow;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			long h = terminus * 31 + sender;
+			h = h * 31 + sizeClass;
+			h = h * 31 + priority;
+			h = h * 31 + timeWindow;
+			h = h * 31 + expirationWindow;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	private static class Decision
+	{
+		long proximateNode;
+		long forfeitTime;
+		long epoch;
+	}
+
+	private final int capacity;
+	private final long window;
+	private final LinkedHashMap<Key, Decision> entries;
+	/** reused for lookups, so that a hit doesn't allocate */
+	private final Key probe = new Key();
+	private long hits = 0;
+	private long misses = 0;
+	private long mismatches = 0;
+
+	/**
+	 * @param capacity max number of decisions kept
+	 * @param window length (sec) of the time and expiration windows
+	 */
+	RouteCache(final int capacity, long window)
+	{
+		this.capacity = capacity;
+		this.window = window > 0 ? window : 1;
+		this.entries = new LinkedHashMap<Key, Decision>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Decision> eldest)
+			{
+				return size() > RouteCache.this.capacity;
+			}
+		};
+	}
+
+	private void setProbe(long[] descriptor, int offset, long terminus, long now)
+	{
+		long size = descriptor[offset + Libcgr.DESC_SIZE];
+		int sizeClass = 64 - Long.numberOfLeadingZeros(size);
+		probe.set(terminus, descriptor[offset + Libcgr.DESC_SENDER_NBR], sizeClass,
+				descriptor[offset + Libcgr.DESC_PRIORITY], now / window, (now + descriptor[offset + Libcgr.DESC_TTL]) / window);
+	}
+
+	/**
+	 * Looks the decision for a bundle up.
+	 * @param result filled with RESULT_PROXIMATE_NODE and RESULT_FORFEIT_TIME on a hit
+	 * @return true on a hit
+	 */
+	boolean lookup(long[] descriptor, int offset, long terminus, long now, long epoch,
+			long[] result, int resultOffset)
+	{
+		Decision d;
+		setProbe(descriptor, offset, terminus, now);
+		d = entries.get(probe);
+		if (d == null || d.epoch != epoch || d.forfeitTime < now)
+		{
+			misses++;
+			return false;
+		}
+		hits++;
+		result[resultOffset + Libcgr.RESULT_PROXIMATE_NODE] = d.proximateNode;
+		result[resultOffset + Libcgr.RESULT_FORFEIT_TIME] = d.forfeitTime;
+		return true;
+	}
+
+	/**
+	 * Stores the decision CGR took for a bundle.
+	 */
+	void store(long[] descriptor, int offset, long terminus, long now, long epoch,
+			long proximateNode, long forfeitTime)
+	{
+		Decision d;
+		setProbe(descriptor, offset, terminus, now);
+		d = entries.get(probe);
+		if (d == null)
+		{
+			d = new Decision();
+			entries.put(probe.copy(), d);
+		}
+		d.proximateNode = proximateNode;
+		d.forfeitTime = forfeitTime;
+		d.epoch = epoch;
+	}
+
+	/**
+	 * Counts a cached decision that differs from the live one (verify mode).
+	 */
+	void mismatch()
+	{
+		mismatches++;
+	}
+
+	void clear()
+	{
+		entries.clear();
+	}
+
+	int size()
+	{
+		return entries.size();
+	}
+
+	long getHits()
+	{
+		return hits;
+	}
+
+	long getMisses()
+	{
+		return misses;
+	}
+
+	long getMismatches()
+	{
+		return mismatches;
+	}
+}
@@ -0,0 +1,145 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import cgr_jni.SimContext;
+import core.SimError;
+
+/**
+ * Routes the pending messages of all the CGR nodes of a simulation in parallel.
+ * At the first update of every tick each router collects its pending work
+ * (expired routes, limbo), then the routing calls of all the nodes are spread
+ * over a pool of threads: every node is routed by a single thread, so the
+ * native state of a node is never shared. The decisions are applied by every
+ * router in its own update(), in the order ONE updates the hosts, so the
+ * outcome doesn't depend on thread scheduling.
+ * There is one executor per simulation, shared by all its groups: its threads
+ * are stopped when the last router leaves it.
+ */
+class RoutingExecutor {
+
+	/** live executors by simulation */
+	private static final IdentityHashMap<SimContext, RoutingExecutor> executors =
+			new IdentityHashMap<SimContext, RoutingExecutor>();
+
+	private final SimContext context;
+	private final ExecutorService pool;
+	/** routers in registration (i.e. host) order */
+	private final ArrayList<ContactGraphRouter> routers = new ArrayList<ContactGraphRouter>();
+	private final ArrayList<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+	private double lastTick = -1;
+
+	/**
+	 * @param threads number of routing threads
+	 */
+	private RoutingExecutor(SimContext context, int threads)
+	{
+		this.context = context;
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "cgr-routing-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Registers router to the executor of its simulation, creating it if needed.
+	 * @param threads number of routing threads, used only by the first router
+	 * of the simulation
+	 */
+	static synchronized RoutingExecutor join(SimContext context, int threads, 
+			ContactGraphRouter router)
+	{
+		RoutingExecutor executor = executors.get(context);
+		if (executor == null)
+		{
+			executor = new RoutingExecutor(context, threads);
+			executors.put(context, executor);
+		}
+		executor.register(router);
+		return executor;
+	}
+
+	/**
+	 * Unregisters router, shutting the executor down if it was the last one.
+	 */
+	void leave(ContactGraphRouter router)
+	{
+		synchronized (RoutingExecutor.class)
+		{
+			if (unregister(router) > 0)
+				return;
+			executors.remove(context);
+			pool.shutdown();
+		}
+	}
+
+	private synchronized void register(ContactGraphRouter router)
+	{
+		routers.add(router);
+	}
+
+	/**
+	 * @return the number of routers still registered
+	 */
+	private synchronized int unregister(ContactGraphRouter router)
+	{
+		routers.remove(router);
+		return routers.size();
+	}
+
+	/**
+	 * Starts the tick at time, if not started yet: collects the pending work
+	 * of every router and waits until it has all been routed.
+	 */
+	synchronized void beginTick(double time)
+	{
+		List<Future<Void>> done;
+		if (time == lastTick)
+			return;
+		lastTick = time;
+		jobs.clear();
+		for (ContactGraphRouter r : routers)
+		{
+			if (r.prepareRouting())
+				jobs.add(r.getRoutingJob());
+		}
+		if (jobs.isEmpty())
+			return;
+		try {
+			if (jobs.size() == 1)
+			{
+				jobs.get(0).call();
+				return;
+			}
+			done = pool.invokeAll(jobs);
+			for (Future<Void> f : done)
+				f.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new SimError("Parallel routing failed", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimError("Parallel routing interrupted", e);
+		} catch (Exception e) {
+			throw new SimError("Parallel routing failed", e);
+		}
+	}
+}
@@ -24,6 +24,8 @@ public class ContactGraphRouterTest extends AbstractRouterTest {
 	private static final String CONTACT_PLAN_TEST7 = "resources/cp_testRouting7.txt";
 	private static final String CONTACT_PLAN_ASMS_FIG4 = "resources/contact_plan_ASMS14_Fig4.txt";
 	private static final String CONTACT_PLAN_ASMS_FIG6 = "resources/contact_plan_ASMS14_2.txt";
+	private static final String CONTACT_PLAN_LIMBO = "resources/cp_testLimbo.txt";
+	private static final String CONTACT_PLAN_BUMPING = "resources/cp_testBumping.txt";
 
 	private static final int NROF_HOSTS = 6;
 	private ContactGraphRouter r1,r2,r3,r4,r5,r6;
@@ -51,13 +53,21 @@ public class ContactGraphRouterTest extends AbstractRouterTest {
 				NetworkInterface.TRANSMIT_RANGE_S, "1");
 		ts.putSetting(TestUtilsForCGR.IFACE2_NS + "." + 
 				NetworkInterface.TRANSMIT_SPEED_S, ""+TRANSMIT_SPEED*4);
-		ContactGraphRouter routerProto = new ContactGraphRouter(ts);
-		setRouterProto(routerProto);
 		this.mc = new MessageChecker();
 		mc.reset();
 		this.clock = SimClock.getInstance();
 		clock.setTime(0);
+		createHosts();
+	}
 
+	/**
+	 * Creates the hosts h1...h6, each with a replica of a new router prototype
+	 * built from the current settings.
+	 */
+	private void createHosts()
+	{
+		ContactGraphRouter routerProto = new ContactGraphRouter(ts);
+		setRouterProto(routerProto);
 		List<MessageListener> ml = new ArrayList<MessageListener>();
 		ml.add(mc);
 		this.utils = new TestUtilsForCGR(null,ml,ts);
@@ -1349,6 +1359,479 @@ public class ContactGraphRouterTest extends AbstractRouterTest {
 		
 				
 	
+	/**
+	 * TEST 10
+	 * LIMBO PARKING
+	 * A message without a route waits into the limbo until the next contact 
+	 * opportunity: m2 doesn't fit into the 1-2 contact behind m1 and is tried 
+	 * again when 1-2 opens (still no room) and when 3-2 opens (m1 is gone). 
+	 * m3 has no contact opportunity left and only a contact plan edit brings it 
+	 * back to CGR.
+	 */
+	public void testLimboParking()
+	{
+		String cp_path = (new File(CONTACT_PLAN_LIMBO)).getAbsolutePath();
+		r1.readContactPlan(cp_path);
+		r2.readContactPlan(cp_path);
+		r3.readContactPlan(cp_path);
+		
+		Message m1 = new Message(h1,h2, msgId1, 30000);
+		h1.createNewMessage(m1);
+		Message m2 = new Message(h1,h2, msgId2, 30000);
+		h1.createNewMessage(m2);
+		checkCreates(2);
+		
+		updateAllNodes();
+		
+		assertEquals(1, r1.getOutducts().get(h2).getQueue().size());
+		assertEquals(1, r1.getLimboSize());
+		assertEquals(true, r1.isMessageParked(m2));
+		
+		//1-2 contact 10-60
+		clock.advance(10);
+		h1.forceConnection(h2, null, true);
+		
+		for (int i = 0; i < 9; i++)
+		{
+			updateAllNodes();
+			clock.advance(1);
+		}
+		
+		assertEquals(true, r2.isDeliveredMessage(m1));
+		assertEquals(true, r1.isMessageIntoLimbo(m2));
+		assertEquals(true, r1.isMessageParked(m2));
+		
+		//3-2 contact 20-30 is the next opportunity
+		clock.advance(1);
+		updateAllNodes();
+		
+		assertEquals(false, r1.isMessageIntoLimbo(m2));
+		assertEquals(0, r1.getLimboSize());
+		
+		for (int i = 0; i < 10; i++)
+		{
+			clock.advance(1);
+			updateAllNodes();
+		}
+		
+		assertEquals(true, r2.isDeliveredMessage(m2));
+		
+		Message m3 = new Message(h1,h5, msgId3, 10);
+		h1.createNewMessage(m3);
+		
+		for (int i = 0; i < 10; i++)
+		{
+			updateAllNodes();
+			clock.advance(1);
+		}
+		
+		assertEquals(true, r1.isMessageIntoLimbo(m3));
+		assertEquals(true, r1.isMessageParked(m3));
+		
+		r1.processLine("a range +1 +3600 1 5 1");
+		r1.processLine("a contact +50 +60 1 5 1000");
+		updateAllNodes();
+		
+		assertEquals(false, r1.isMessageIntoLimbo(m3));
+		assertEquals(1, r1.getOutducts().get(h5).getQueue().size());
+		
+		disconnect(h1);
+		disconnect(h2);
+	}
+	
+	/**
+	 * TEST 11
+	 * PARALLEL ROUTING
+	 * The same scenario routed by a single thread and by 4 threads
+	 * ends up with the same outduct queues and the same deliveries.
+	 */
+	public void testParallelRouting()
+	{
+		String sequential = runAllToAll();
+		for (DTNHost h : Utils.getAllNodes())
+		{
+			ContactGraphRouter r = (ContactGraphRouter) h.getRouter();
+			r.finalize();
+		}
+		
+		ts.putSetting(ContactGraphRouter.CGR_NS + "." + 
+				ContactGraphRouter.ROUTING_THREADS_S, "4");
+		mc.reset();
+		clock.setTime(0);
+		createHosts();
+		String parallel = runAllToAll();
+		
+		assertEquals(sequential, parallel);
+	}
+	
+	/**
+	 * Every node creates a message for every other node, all the contacts
+	 * of CONTACT_PLAN_FILE happen simultaneously.
+	 * @return the outduct queues of every node after the first update and
+	 * at the end, followed by the delivered messages
+	 */
+	private String runAllToAll()
+	{
+		String cp_path = (new File(CONTACT_PLAN_FILE)).getAbsolutePath();
+		List<Message> messages = new ArrayList<Message>();
+		StringBuilder b = new StringBuilder();
+		for (DTNHost h : utils.getAllHosts())
+		{
+			((ContactGraphRouter) h.getRouter()).readContactPlan(cp_path);
+		}
+		for (DTNHost from : utils.getAllHosts())
+		{
+			for (DTNHost to : utils.getAllHosts())
+			{
+				if (from == to)
+					continue;
+				Message m = new Message(from, to, "MSG_" + from + "_" + to, 10);
+				from.createNewMessage(m);
+				messages.add(m);
+			}
+		}
+		checkCreates(messages.size());
+		
+		updateAllNodes();
+		appendQueues(b);
+		
+		clock.advance(11);
+		h1.forceConnection(h2, null, true);
+		h2.forceConnection(h3, null, true);
+		h3.forceConnection(h4, null, true);
+		h4.forceConnection(h5, null, true);
+		h5.forceConnection(h6, null, true);
+		h6.forceConnection(h1, null, true);
+		
+		for (int i = 0; i < 2000; i++)
+		{
+			clock.advance(1);
+			updateAllNodes();
+		}
+		appendQueues(b);
+		
+		for (Message m : messages)
+		{
+			ContactGraphRouter r = (ContactGraphRouter) m.getTo().getRouter();
+			b.append(m.getId() + ": " + r.isDeliveredMessage(m) + "\n");
+		}
+		for (DTNHost h : utils.getAllHosts())
+		{
+			disconnect(h);
+		}
+		return b.toString();
+	}
+	
+	private void appendQueues(StringBuilder b)
+	{
+		for (DTNHost h : utils.getAllHosts())
+		{
+			ContactGraphRouter r = (ContactGraphRouter) h.getRouter();
+			b.append(h + " limbo: " + r.getLimboSize() + "\n");
+			for (ContactGraphRouter.Outduct o : r.getOutducts().values())
+			{
+				b.append(h + " -> " + o.getHost() + ":");
+				for (Message m : o.getQueue())
+					b.append(" " + m.getId());
+				b.append("\n");
+			}
+		}
+	}
+	
+	/**
+	 * TEST 12
+	 * BUMPING
+	 * The bulk message b fills most of the 1-3 contact (10-20). The normal 
+	 * message n is routed into the same contact, which overbooks it: b is 
+	 * bumped and routed again through node 2.
+	 */
+	public void testBumping()
+	{
+		readBumpingPlan();
+		clock.advance(10);
+		
+		Message b = createMessage(h1, h3, msgId1, 80000, ContactGraphRouter.PRIORITY_BULK);
+		updateAllNodes();
+		
+		assertEquals(true, r1.getOutducts().get(h3).containsMessage(b));
+		
+		Message n = createMessage(h1, h3, msgId2, 50000, ContactGraphRouter.PRIORITY_NORMAL);
+		updateAllNodes();
+		
+		assertEquals(1, r1.getOutducts().get(h3).getQueue().size());
+		assertEquals(true, r1.getOutducts().get(h3).containsMessage(n));
+		assertEquals(true, r1.getOutducts().get(h2).containsMessage(b));
+		assertEquals(false, r1.isMessageIntoLimbo(b));
+	}
+	
+	/**
+	 * TEST 13
+	 * NO BUMPING IF USELESS
+	 * n2 is routed into the 1-5 contact 30-100, since n1 already fills the 
+	 * contact 10-20: bumping b wouldn't make n2 fit into 10-20, so b stays 
+	 * where it is (if bumped it would be routed into 30-100).
+	 */
+	public void testNoUselessBumping()
+	{
+		readBumpingPlan();
+		clock.advance(10);
+		
+		Message n1 = createMessage(h1, h5, msgId1, 70000, ContactGraphRouter.PRIORITY_NORMAL);
+		Message b = createMessage(h1, h5, msgId2, 20000, ContactGraphRouter.PRIORITY_BULK);
+		updateAllNodes();
+		
+		assertEquals(true, r1.getOutducts().get(h5).containsMessage(n1));
+		assertEquals(true, r1.getOutducts().get(h5).containsMessage(b));
+		Object forfeitTime = b.getProperty(ContactGraphRouter.ROUTE_FORWARD_TIMELIMIT_PROP);
+		
+		Message n2 = createMessage(h1, h5, msgId3, 50000, ContactGraphRouter.PRIORITY_NORMAL);
+		updateAllNodes();
+		
+		assertEquals(3, r1.getOutducts().get(h5).getQueue().size());
+		assertEquals(true, r1.getOutducts().get(h5).containsMessage(n2));
+		assertEquals(false, r1.isMessageIntoLimbo(b));
+		assertEquals(forfeitTime, b.getProperty(ContactGraphRouter.ROUTE_FORWARD_TIMELIMIT_PROP));
+	}
+	
+	/**
+	 * TEST 14
+	 * NO BUMPING WHILE SENDING
+	 * Same as TEST 12, but b is already being sent to node 3 when n comes: 
+	 * b isn't bumped and both are delivered.
+	 */
+	public void testNoBumpingWhileSending()
+	{
+		readBumpingPlan();
+		clock.advance(10);
+		h1.forceConnection(h3, null, true);
+		
+		Message b = createMessage(h1, h3, msgId1, 80000, ContactGraphRouter.PRIORITY_BULK);
+		updateAllNodes();
+		Message n = createMessage(h1, h3, msgId2, 50000, ContactGraphRouter.PRIORITY_NORMAL);
+		updateAllNodes();
+		
+		assertEquals(false, r1.isMessageIntoLimbo(b));
+		assertEquals(0, r1.getOutducts().get(h2).getQueue().size());
+		
+		for (int i = 0; i < 10; i++)
+		{
+			clock.advance(1);
+			updateAllNodes();
+		}
+		
+		assertEquals(true, r3.isDeliveredMessage(b));
+		assertEquals(true, r3.isDeliveredMessage(n));
+		
+		disconnect(h1);
+	}
+
+	/**
+	 * TEST 15
+	 * ROUTE CACHE
+	 * Same size messages from 1 to 3 share the decision of the first one:
+	 * in verify mode every cached decision is compared with the live one.
+	 * A plan edit starts a new epoch, so the next message misses the cache.
+	 */
+	public void testRouteCache()
+	{
+		createHostsWithRouteCache(true);
+
+		String cp_path = (new File(CONTACT_PLAN_FILE)).getAbsolutePath();
+		for (DTNHost h : utils.getAllHosts())
+		{
+			((ContactGraphRouter) h.getRouter()).readContactPlan(cp_path);
+		}
+		for (int i = 0; i < 3; i++)
+		{
+			Message m = new Message(h1, h3, "MSG_" + i, 10);
+			h1.createNewMessage(m);
+			updateAllNodes();
+			assertEquals(true, r1.getOutducts().get(h2).containsMessage(m));
+		}
+
+		assertEquals(2, r1.getRouteCacheHits());
+		assertEquals(1, r1.getRouteCacheMisses());
+		assertEquals(0, r1.getRouteCacheMismatches());
+
+		r1.processLine("a contact +20 +3600 1 3 100000");
+		Message m = new Message(h1, h3, "MSG_3", 10);
+		h1.createNewMessage(m);
+		updateAllNodes();
+
+		assertEquals(2, r1.getRouteCacheHits());
+		assertEquals(2, r1.getRouteCacheMisses());
+		assertEquals(0, r1.getRouteCacheMismatches());
+	}
+
+	/**
+	 * TEST 16
+	 * PRIORITY ORDER
+	 * Bulk, normal and two expedited messages (ordinals 3 and 10) for node 2,
+	 * created in this order, are sent in the opposite one: expedited from the
+	 * highest ordinal, then normal, then bulk.
+	 */
+	public void testPriorityOrder()
+	{
+		String cp_path = (new File(CONTACT_PLAN_FILE)).getAbsolutePath();
+		r1.readContactPlan(cp_path);
+		r2.readContactPlan(cp_path);
+
+		Message bulk = createMessage(h1, h2, msgId1, 10, ContactGraphRouter.PRIORITY_BULK);
+		Message normal = createMessage(h1, h2, msgId2, 10, ContactGraphRouter.PRIORITY_NORMAL);
+		Message low = new Message(h1, h2, msgId3, 10);
+		low.addProperty(ContactGraphRouter.PRIORITY_PROP, ContactGraphRouter.PRIORITY_EXPEDITED);
+		low.addProperty(ContactGraphRouter.ORDINAL_PROP, 3);
+		h1.createNewMessage(low);
+		Message high = new Message(h1, h2, msgId4, 10);
+		high.addProperty(ContactGraphRouter.PRIORITY_PROP, ContactGraphRouter.PRIORITY_EXPEDITED);
+		high.addProperty(ContactGraphRouter.ORDINAL_PROP, 10);
+		h1.createNewMessage(high);
+		updateAllNodes();
+
+		ContactGraphRouter.Outduct o = r1.getOutducts().get(h2);
+		assertEquals(high, o.getFirstMessage());
+		List<Message> expected = new ArrayList<Message>();
+		expected.add(high);
+		expected.add(low);
+		expected.add(normal);
+		expected.add(bulk);
+		assertEquals(expected, o.getQueue());
+
+		clock.advance(11);
+		h1.forceConnection(h2, null, true);
+		List<Message> sent = new ArrayList<Message>();
+		for (int i = 0; i < 10 && sent.size() < expected.size(); i++)
+		{
+			clock.advance(1);
+			updateAllNodes();
+			for (Message m : expected)
+			{
+				if (!sent.contains(m) && r2.isDeliveredMessage(m))
+					sent.add(m);
+			}
+		}
+		assertEquals(expected, sent);
+		assertEquals(null, o.getFirstMessage());
+
+		disconnect(h1);
+	}
+
+	/**
+	 * TEST 17
+	 * ROUTE EXPIRATION AFTER REROUTING
+	 * b is routed into the 1-3 contact 10-20 and then bumped through node 2
+	 * (contact 10-100) by n: the deadline of its first route is stale. At 21
+	 * only n, whose route expires, is routed again; b is routed again only
+	 * once, at the end of its new route.
+	 * Decisions are counted by the route cache (hits + misses).
+	 */
+	public void testRouteExpirationAfterRerouting()
+	{
+		createHostsWithRouteCache(false);
+		readBumpingPlan();
+		clock.advance(10);
+		
+		Message b = createMessage(h1, h3, msgId1, 80000, ContactGraphRouter.PRIORITY_BULK);
+		updateAllNodes();
+		Message n = createMessage(h1, h3, msgId2, 50000, ContactGraphRouter.PRIORITY_NORMAL);
+		updateAllNodes();
+		
+		assertEquals(true, r1.getOutducts().get(h2).containsMessage(b));
+		assertEquals(100L, b.getProperty(ContactGraphRouter.ROUTE_FORWARD_TIMELIMIT_PROP));
+		long decisions = getRouteDecisions(r1);
+		
+		for (int i = 11; i <= 100; i++)
+		{
+			clock.advance(1);
+			updateAllNodes();
+		}
+		
+		assertEquals(decisions + 1, getRouteDecisions(r1));
+		assertEquals(true, r1.getOutducts().get(h2).containsMessage(b));
+		assertEquals(true, r1.getOutducts().get(h2).containsMessage(n));
+		
+		clock.advance(1);
+		updateAllNodes();
+		
+		assertEquals(decisions + 3, getRouteDecisions(r1));
+		assertEquals(true, r1.isMessageIntoLimbo(b));
+		assertEquals(true, r1.isMessageIntoLimbo(n));
+	}
+	
+	/**
+	 * TEST 18
+	 * ROUTE EXPIRATION BEHIND AN UNROUTED MESSAGE
+	 * The outduct to node 2 holds a message u never routed by CGR (no forfeit
+	 * time): the route of b through node 3 still expires at 20 and b is 
+	 * routed again through node 2.
+	 */
+	public void testRouteExpirationBehindUnroutedMessage()
+	{
+		readBumpingPlan();
+		clock.advance(10);
+		
+		Message b = createMessage(h1, h3, msgId1, 1000, ContactGraphRouter.PRIORITY_NORMAL);
+		updateAllNodes();
+		Message u = new Message(h1, h3, msgId2, 1000);
+		u.addProperty(ContactGraphRouter.ROUTE_FORWARD_TIMELIMIT_PROP, (long) 0);
+		u.addProperty(ContactGraphRouter.OUTDUCT_REF_PROP, ContactGraphRouter.Outduct.NONE_ID);
+		r1.getOutduct(h2).insertMessageIntoOutduct(u);
+		
+		assertEquals(true, r1.getOutducts().get(h3).containsMessage(b));
+		
+		for (int i = 11; i <= 21; i++)
+		{
+			clock.advance(1);
+			updateAllNodes();
+		}
+		
+		assertEquals(true, r1.getOutducts().get(h2).containsMessage(b));
+		assertEquals(100L, b.getProperty(ContactGraphRouter.ROUTE_FORWARD_TIMELIMIT_PROP));
+		assertEquals(true, r1.getOutducts().get(h2).containsMessage(u));
+	}
+	
+	/**
+	 * Replaces the hosts with new ones using a route cache of 64 decisions.
+	 */
+	private void createHostsWithRouteCache(boolean verify)
+	{
+		for (DTNHost h : Utils.getAllNodes())
+		{
+			ContactGraphRouter r = (ContactGraphRouter) h.getRouter();
+			r.finalize();
+		}
+		ts.putSetting(ContactGraphRouter.CGR_NS + "." +
+				ContactGraphRouter.ROUTE_CACHE_SIZE_S, "64");
+		ts.putSetting(ContactGraphRouter.CGR_NS + "." +
+				ContactGraphRouter.ROUTE_CACHE_VERIFY_S, "" + verify);
+		createHosts();
+	}
+	
+	/**
+	 * @return the number of routing decisions taken by r, with a route cache
+	 */
+	private long getRouteDecisions(ContactGraphRouter r)
+	{
+		return r.getRouteCacheHits() + r.getRouteCacheMisses();
+	}
+	
+	private void readBumpingPlan()
+	{
+		String cp_path = (new File(CONTACT_PLAN_BUMPING)).getAbsolutePath();
+		r1.readContactPlan(cp_path);
+		r2.readContactPlan(cp_path);
+		r3.readContactPlan(cp_path);
+		r5.readContactPlan(cp_path);
+	}
+	
+	private Message createMessage(DTNHost from, DTNHost to, String id, int size, int priority)
+	{
+		Message m = new Message(from, to, id, size);
+		m.addProperty(ContactGraphRouter.PRIORITY_PROP, priority);
+		from.createNewMessage(m);
+		return m;
+	}
+	
 	public static ContactGraphRouterTest getInstance()
 	{
 		return instance;